@@ -0,0 +1,227 @@
+/*
+ * Copyright (c) 2023 James Leigh
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.meerkattrading.tws;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.ib.client.Contract;
+import com.ib.client.Decimal;
+
+/**
+ * Keeps the latest account values and positions of each account, from the
+ * updateAccountValue, accountSummary, updatePortfolio and position events,
+ * indexed by account and by the conid of the position's contract.
+ *
+ * @author James Leigh
+ *
+ */
+public class AccountStore implements EWrapperListener {
+
+	/**
+	 * The latest known state of a position
+	 */
+	public static class Position {
+		private final String account;
+		private Contract contract;
+		private Decimal position;
+		private double averageCost;
+		private Double marketPrice;
+		private Double marketValue;
+		private Double unrealizedPNL;
+		private Double realizedPNL;
+
+		Position(String account) {
+			this.account = account;
+		}
+
+		public String getAccount() {
+			return account;
+		}
+
+		public Contract getContract() {
+			return contract;
+		}
+
+		public Decimal getPosition() {
+			return position;
+		}
+
+		public double getAverageCost() {
+			return averageCost;
+		}
+
+		/**
+		 * From updatePortfolio, or null if only known from position
+		 */
+		public Double getMarketPrice() {
+			return marketPrice;
+		}
+
+		public Double getMarketValue() {
+			return marketValue;
+		}
+
+		public Double getUnrealizedPNL() {
+			return unrealizedPNL;
+		}
+
+		public Double getRealizedPNL() {
+			return realizedPNL;
+		}
+	}
+
+	private final Map<String, Map<String, Map<String, String>>> values = new TreeMap<>();
+	private final Map<String, Map<Integer, Position>> positions = new TreeMap<>();
+
+	/**
+	 * Updates the store from an EWrapper event, ignoring other events
+	 */
+	@Override
+	public boolean update(String event, Object[] args) {
+		switch (event) {
+		case "updateAccountValue":
+			updateAccountValue((String) args[3], (String) args[0], (String) args[1], (String) args[2]);
+			break;
+		case "accountSummary":
+			updateAccountValue((String) args[1], (String) args[2], (String) args[3], (String) args[4]);
+			break;
+		case "updatePortfolio":
+			updatePortfolio((String) args[7], (Contract) args[0], (Decimal) args[1], (Double) args[2],
+					(Double) args[3], (Double) args[4], (Double) args[5], (Double) args[6]);
+			break;
+		case "position":
+			position((String) args[0], (Contract) args[1], (Decimal) args[2], (Double) args[3]);
+			break;
+		default:
+			break;
+		}
+		return false;
+	}
+
+	public synchronized void updateAccountValue(String account, String key, String value, String currency) {
+		if (account == null || key == null)
+			return;
+		values.computeIfAbsent(account, k -> new TreeMap<>()).computeIfAbsent(key, k -> new TreeMap<>())
+				.put(currency == null ? "" : currency, value);
+	}
+
+	public synchronized void updatePortfolio(String account, Contract contract, Decimal position, double marketPrice,
+			double marketValue, double averageCost, double unrealizedPNL, double realizedPNL) {
+		Position state = getPosition(account, contract);
+		if (state != null) {
+			state.position = position;
+			state.marketPrice = marketPrice;
+			state.marketValue = marketValue;
+			state.averageCost = averageCost;
+			state.unrealizedPNL = unrealizedPNL;
+			state.realizedPNL = realizedPNL;
+		}
+	}
+
+	public synchronized void position(String account, Contract contract, Decimal position, double averageCost) {
+		Position state = getPosition(account, contract);
+		if (state != null) {
+			state.position = position;
+			state.averageCost = averageCost;
+		}
+	}
+
+	/**
+	 * The accounts that have values or positions
+	 */
+	public synchronized List<String> getAccounts() {
+		List<String> accounts = new ArrayList<>(values.keySet());
+		for (String account : positions.keySet()) {
+			if (!values.containsKey(account)) {
+				accounts.add(account);
+			}
+		}
+		return accounts;
+	}
+
+	/**
+	 * A copy of the values of the account by key and currency, with an empty
+	 * currency for values that have none
+	 */
+	public synchronized Map<String, Map<String, String>> getAccountValues(String account) {
+		Map<String, Map<String, String>> result = new LinkedHashMap<>();
+		Map<String, Map<String, String>> map = values.get(account);
+		if (map != null) {
+			for (Map.Entry<String, Map<String, String>> entry : map.entrySet()) {
+				result.put(entry.getKey(), new LinkedHashMap<>(entry.getValue()));
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * The positions of the account, in conid order
+	 */
+	public synchronized List<Position> getPositions(String account) {
+		Map<Integer, Position> map = positions.get(account);
+		List<Position> result = new ArrayList<>();
+		if (map != null) {
+			for (Position position : map.values()) {
+				result.add(copy(position));
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * The position of the contract in the account, or null
+	 */
+	public synchronized Position getPosition(String account, int conid) {
+		Map<Integer, Position> map = positions.get(account);
+		Position position = map == null ? null : map.get(conid);
+		return position == null ? null : copy(position);
+	}
+
+	/**
+	 * Forgets all accounts
+	 */
+	public synchronized void clear() {
+		values.clear();
+		positions.clear();
+	}
+
+	private Position getPosition(String account, Contract contract) {
+		if (account == null || contract == null)
+			return null;
+		Position position = positions.computeIfAbsent(account, k -> new TreeMap<>())
+				.computeIfAbsent(contract.conid(), k -> new Position(account));
+		if (position.contract == null || contract.conid() != 0) {
+			position.contract = contract;
+		}
+		return position;
+	}
+
+	private Position copy(Position position) {
+		Position copy = new Position(position.account);
+		copy.contract = position.contract;
+		copy.position = position.position;
+		copy.averageCost = position.averageCost;
+		copy.marketPrice = position.marketPrice;
+		copy.marketValue = position.marketValue;
+		copy.unrealizedPNL = position.unrealizedPNL;
+		copy.realizedPNL = position.realizedPNL;
+		return copy;
+	}
+}
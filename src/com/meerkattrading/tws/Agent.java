@@ -114,7 +114,33 @@ public class Agent {
 		if (twsPort > 0) {
 			server.setRemote(InetAddress.getLoopbackAddress(), twsPort);
 		}
+		server.setPipelineDepth(Integer.parseInt(props.getProperty("json-api-pipeline", "0")));
 		server.start();
+		if (props.containsKey("json-api-unix-socket")) {
+			Server unix = new Server(Paths.get(props.getProperty("json-api-unix-socket")));
+			if (twsPort > 0) {
+				unix.setRemote(InetAddress.getLoopbackAddress(), twsPort);
+			}
+			unix.setPipelineDepth(Integer.parseInt(props.getProperty("json-api-pipeline", "0")));
+			unix.start();
+		}
+		if (props.containsKey("json-api-websocket-port")) {
+			Server websocket = new Server(inet, Integer.parseInt(props.getProperty("json-api-websocket-port")));
+			if (twsPort > 0) {
+				websocket.setRemote(InetAddress.getLoopbackAddress(), twsPort);
+			}
+			websocket.setWebSocket(true);
+			websocket.setPipelineDepth(Integer.parseInt(props.getProperty("json-api-pipeline", "0")));
+			websocket.start();
+		}
+		if (props.containsKey("json-api-ring")) {
+			RingServer ring = new RingServer(Paths.get(props.getProperty("json-api-ring")));
+			if (twsPort > 0) {
+				ring.setRemote(InetAddress.getLoopbackAddress(), twsPort);
+			}
+			ring.setPipelineDepth(Integer.parseInt(props.getProperty("json-api-pipeline", "0")));
+			ring.start();
+		}
 	}
 
 	/**
@@ -126,6 +152,21 @@ public class Agent {
 		if (port > 0) {
 			ServerSocketHandler.setPort(port);
 		}
+		ServerSocketHandler.setPipelineDepth(Integer.parseInt(props.getProperty("json-api-pipeline", "0")));
+		if (props.containsKey("json-api-unix-socket")) {
+			ServerSocketHandler.setUnixSocket(Paths.get(props.getProperty("json-api-unix-socket")));
+		}
+		if (props.containsKey("json-api-ring")) {
+			ServerSocketHandler.setRingDirectory(Paths.get(props.getProperty("json-api-ring")));
+		}
+		if (props.containsKey("json-api-websocket-port")) {
+			ServerSocketHandler.setWebSocketPort(Integer.parseInt(props.getProperty("json-api-websocket-port")));
+		}
+		if (props.containsKey("json-api-unix-socket") || props.containsKey("json-api-ring")
+				|| props.containsKey("json-api-websocket-port")) {
+			// only listen on a TCP port too if one was given
+			ServerSocketHandler.setTcp(props.containsKey("json-api-port-offset"));
+		}
 		if (props.containsKey("tws-api-port")) {
 			ServerSocketHandler.setTwsPort(Integer.parseInt(props.getProperty("tws-api-port")));
 		}
@@ -0,0 +1,340 @@
+/*
+ * Copyright (c) 2023 James Leigh
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.meerkattrading.tws;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.ib.client.Bar;
+import com.ib.client.Contract;
+import com.ib.client.Decimal;
+import com.ib.client.EWrapper;
+
+/**
+ * Builds bars of a number of seconds, a number of trades, or an amount of
+ * volume from the tickByTickAllLast events of a contract. Every bar
+ * subscription of the same contract shares one tick-by-tick subscription,
+ * which is requested with the reqId of the first bar subscription. Time bars
+ * are completed at their end, or by the first trade after it if that arrives
+ * first.
+ *
+ * @author James Leigh
+ *
+ */
+public class BarAggregator implements EWrapperListener {
+	private static final String TIME = "time";
+	private static final String TICKS = "ticks";
+	private static final String VOLUME = "volume";
+
+	/**
+	 * Receives each completed bar, and cancels a tick-by-tick subscription that
+	 * failed
+	 */
+	public interface Listener {
+		void tickBar(int reqId, Bar bar);
+
+		void cancelTickByTickData(int tickerId);
+	}
+
+	/**
+	 * The bar being built for a bar subscription
+	 */
+	private static class Aggregator {
+		final int reqId;
+		final String barType;
+		final double barSize;
+		long time;
+		double open;
+		double high;
+		double low;
+		double close;
+		double volume;
+		double priceVolume;
+		int count;
+		boolean removed;
+
+		Aggregator(int reqId, String barType, double barSize) {
+			this.reqId = reqId;
+			this.barType = barType;
+			this.barSize = barSize;
+		}
+
+		/**
+		 * Adds the trade to the bar, after completing the bar if the trade belongs
+		 * to the next bar
+		 *
+		 * @return true if the trade started a time bar
+		 */
+		boolean add(long time, double price, double size, List<Object[]> completed) {
+			if (count > 0 && TIME.equals(barType) && time >= this.time + (long) barSize) {
+				complete(completed);
+			}
+			boolean started = count == 0 && TIME.equals(barType);
+			if (count == 0) {
+				this.time = TIME.equals(barType) ? time - Math.floorMod(time, (long) barSize) : time;
+				open = high = low = price;
+			}
+			high = Math.max(high, price);
+			low = Math.min(low, price);
+			close = price;
+			volume += size;
+			priceVolume += price * size;
+			count++;
+			if (TICKS.equals(barType) && count >= barSize || VOLUME.equals(barType) && volume >= barSize) {
+				complete(completed);
+			}
+			return started;
+		}
+
+		/**
+		 * Adds the reqId and bar to the completed bars and starts the next bar
+		 */
+		void complete(List<Object[]> completed) {
+			Decimal wap = volume > 0 ? Decimal.get(priceVolume / volume) : Decimal.get(close);
+			completed.add(new Object[] { reqId,
+					new Bar(Long.toString(time), open, high, low, close, Decimal.get(volume), count, wap) });
+			volume = 0;
+			priceVolume = 0;
+			count = 0;
+		}
+	}
+
+	/**
+	 * A tick-by-tick subscription and the bar subscriptions fed by it
+	 */
+	private static class Feed {
+		final String key;
+		final int tickerId;
+		final List<Aggregator> aggregators = new ArrayList<>();
+
+		Feed(String key, int tickerId) {
+			this.key = key;
+			this.tickerId = tickerId;
+		}
+	}
+
+	private final Map<String, Feed> feedsByContract = new HashMap<>();
+	private final Map<Integer, Feed> feedsByTickerId = new HashMap<>();
+	private final Map<Integer, Feed> feedsByReqId = new HashMap<>();
+	private final Listener listener;
+	private final ScheduledExecutorService scheduler;
+	private EWrapper wrapper;
+
+	/**
+	 * @param listener  to pass the completed bars to
+	 * @param scheduler to complete time bars at their end, without waiting for
+	 *                  the next trade
+	 */
+	public BarAggregator(Listener listener, ScheduledExecutorService scheduler) {
+		this.listener = listener;
+		this.scheduler = scheduler;
+	}
+
+	/**
+	 * @param wrapper to issue the error of a failed tick-by-tick subscription to
+	 *                the other bar subscriptions of its contract
+	 */
+	public synchronized void setWrapper(EWrapper wrapper) {
+		this.wrapper = wrapper;
+	}
+
+	/**
+	 * Identifies the contract, to share one tick-by-tick subscription
+	 */
+	public static String getKey(Contract contract) {
+		return contract.conid() + ":" + contract.symbol() + ":" + contract.secType() + ":" + contract.exchange()
+				+ ":" + contract.currency() + ":" + contract.lastTradeDateOrContractMonth() + ":" + contract.strike()
+				+ ":" + contract.right() + ":" + contract.localSymbol();
+	}
+
+	/**
+	 * Adds a bar subscription
+	 *
+	 * @param barType "time" (barSize in seconds), "ticks" or "volume"
+	 * @return true if reqTickByTickData must be called with the reqId
+	 */
+	public synchronized boolean subscribe(int reqId, String contractKey, String barType, double barSize) {
+		if (!TIME.equals(barType) && !TICKS.equals(barType) && !VOLUME.equals(barType))
+			throw new IllegalArgumentException("Expected a bar type of time, ticks or volume, but got " + barType);
+		if (!(barSize > 0) || !VOLUME.equals(barType) && barSize != Math.floor(barSize))
+			throw new IllegalArgumentException("Expected a positive bar size, but got " + barSize);
+		if (feedsByReqId.containsKey(reqId) || feedsByTickerId.containsKey(reqId))
+			throw new IllegalArgumentException("Bar subscription " + reqId + " is already in use");
+		Feed feed = feedsByContract.get(contractKey);
+		boolean request = feed == null;
+		if (request) {
+			feed = new Feed(contractKey, reqId);
+			feedsByContract.put(contractKey, feed);
+			feedsByTickerId.put(reqId, feed);
+		}
+		feed.aggregators.add(new Aggregator(reqId, barType, barSize));
+		feedsByReqId.put(reqId, feed);
+		return request;
+	}
+
+	/**
+	 * Removes a bar subscription, passing its bar in progress to the listener
+	 *
+	 * @return the tickerId to pass to cancelTickByTickData, if it was the last
+	 *         bar subscription of its contract, otherwise null
+	 */
+	public Integer unsubscribe(int reqId) {
+		List<Object[]> completed = new ArrayList<>(1);
+		Integer tickerId = null;
+		synchronized (this) {
+			Feed feed = feedsByReqId.remove(reqId);
+			if (feed == null)
+				return null;
+			Iterator<Aggregator> iter = feed.aggregators.iterator();
+			while (iter.hasNext()) {
+				Aggregator aggregator = iter.next();
+				if (aggregator.reqId == reqId) {
+					iter.remove();
+					aggregator.removed = true;
+					if (aggregator.count > 0) {
+						aggregator.complete(completed);
+					}
+				}
+			}
+			if (feed.aggregators.isEmpty()) {
+				remove(feed);
+				tickerId = feed.tickerId;
+			}
+		}
+		issue(completed);
+		return tickerId;
+	}
+
+	/**
+	 * Feeds a tickByTickAllLast event to its bar subscriptions
+	 *
+	 * @return true if the event was taken by a bar subscription
+	 */
+	@Override
+	public boolean update(String event, Object[] args) {
+		switch (event) {
+		case "tickByTickAllLast":
+			return tickByTickAllLast((Integer) args[0], (Long) args[2], (Double) args[3], (Decimal) args[4]);
+		case "error":
+			if (EWrapperListener.isRequestError(args)) {
+				error((Integer) args[0], (Long) args[1], (Integer) args[2], (String) args[3],
+						args.length > 4 ? (String) args[4] : null);
+			}
+			return false;
+		default:
+			return false;
+		}
+	}
+
+	public boolean tickByTickAllLast(int tickerId, long time, double price, Decimal size) {
+		List<Object[]> completed = new ArrayList<>();
+		synchronized (this) {
+			Feed feed = feedsByTickerId.get(tickerId);
+			if (feed == null)
+				return false;
+			double amount = size == null || !size.isValid() ? 0 : size.value().doubleValue();
+			for (Aggregator aggregator : feed.aggregators) {
+				if (aggregator.add(time, price, amount, completed)) {
+					schedule(aggregator, aggregator.time);
+				}
+			}
+		}
+		issue(completed);
+		return true;
+	}
+
+	/**
+	 * Forgets and cancels the failed tick-by-tick subscription of the tickerId,
+	 * so the bar subscriptions can be requested again, and issues the error with
+	 * the reqId of each other bar subscription of the contract
+	 */
+	public void error(int tickerId, long errorTime, int errorCode, String errorMsg, String json) {
+		List<Integer> reqIds = new ArrayList<>();
+		EWrapper wrapper;
+		synchronized (this) {
+			Feed feed = feedsByTickerId.get(tickerId);
+			if (feed == null)
+				return;
+			for (Aggregator aggregator : feed.aggregators) {
+				aggregator.removed = true;
+				feedsByReqId.remove(aggregator.reqId);
+				if (aggregator.reqId != tickerId) {
+					reqIds.add(aggregator.reqId);
+				}
+			}
+			remove(feed);
+			wrapper = this.wrapper;
+		}
+		listener.cancelTickByTickData(tickerId);
+		if (wrapper != null) {
+			for (Integer reqId : reqIds) {
+				wrapper.error(reqId, errorTime, errorCode, errorMsg, json);
+			}
+		}
+	}
+
+	/**
+	 * Forgets all bar subscriptions
+	 */
+	public synchronized void clear() {
+		for (Feed feed : feedsByContract.values()) {
+			for (Aggregator aggregator : feed.aggregators) {
+				aggregator.removed = true;
+			}
+		}
+		feedsByContract.clear();
+		feedsByTickerId.clear();
+		feedsByReqId.clear();
+	}
+
+	/**
+	 * Completes the time bar that starts at the given time, in seconds since
+	 * 1970-01-01 UTC, at its end if no trade of the next bar completed it first
+	 */
+	private void schedule(Aggregator aggregator, long start) {
+		long end = (start + (long) aggregator.barSize) * 1000;
+		try {
+			scheduler.schedule(() -> {
+				List<Object[]> completed = new ArrayList<>(1);
+				synchronized (this) {
+					if (!aggregator.removed && aggregator.count > 0 && aggregator.time == start) {
+						aggregator.complete(completed);
+					}
+				}
+				issue(completed);
+			}, Math.max(end - System.currentTimeMillis(), 0), TimeUnit.MILLISECONDS);
+		} catch (RejectedExecutionException e) {
+			// closed
+		}
+	}
+
+	private void issue(List<Object[]> completed) {
+		for (Object[] bar : completed) {
+			listener.tickBar((Integer) bar[0], (Bar) bar[1]);
+		}
+	}
+
+	private void remove(Feed feed) {
+		feedsByContract.remove(feed.key);
+		feedsByTickerId.remove(feed.tickerId);
+	}
+}
@@ -0,0 +1,348 @@
+/*
+ * Copyright (c) 2023 James Leigh
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.meerkattrading.tws;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+
+import javax.json.JsonArray;
+import javax.json.JsonException;
+import javax.json.JsonNumber;
+import javax.json.JsonObject;
+import javax.json.JsonString;
+import javax.json.JsonValue;
+import javax.json.stream.JsonGenerationException;
+import javax.json.stream.JsonGenerator;
+
+/**
+ * Writes RFC 8949 CBOR data items through the {@link JsonGenerator} interface.
+ * Objects and arrays are indefinite length (unless the size is given), strings
+ * are length-prefixed UTF-8, doubles are written natively and
+ * {@link BigDecimal} values as decimal fractions (tag 4).
+ *
+ * @author James Leigh
+ *
+ */
+public class CborGenerator implements JsonGenerator {
+	private static final int UNSIGNED = 0 << 5;
+	private static final int NEGATIVE = 1 << 5;
+	private static final int BYTES = 2 << 5;
+	private static final int TEXT = 3 << 5;
+	private static final int ARRAY = 4 << 5;
+	private static final int MAP = 5 << 5;
+	private static final int TAG = 6 << 5;
+	private static final int INDEFINITE = 31;
+	private static final int FALSE = 0xF4;
+	private static final int TRUE = 0xF5;
+	private static final int NULL = 0xF6;
+	private static final int FLOAT32 = 0xFA;
+	private static final int FLOAT64 = 0xFB;
+	private static final int BREAK = 0xFF;
+	private static final int DECIMAL_FRACTION = 4;
+	private static final int POSITIVE_BIGNUM = 2;
+	private static final int NEGATIVE_BIGNUM = 3;
+	private final OutputStream out;
+	private final StringCache<byte[]> cache;
+	private final Deque<Boolean> indefinite = new ArrayDeque<>();
+
+	public CborGenerator(OutputStream out) {
+		this(out, null);
+	}
+
+	/**
+	 * @param cache of encoded text strings, from {@link #encodeText(String)}
+	 */
+	public CborGenerator(OutputStream out, StringCache<byte[]> cache) {
+		this.out = out;
+		this.cache = cache;
+	}
+
+	/**
+	 * The string as a CBOR text string data item
+	 */
+	public static byte[] encodeText(String value) {
+		ByteArrayOutputStream buf = new ByteArrayOutputStream(value.length() + 9);
+		new CborGenerator(buf).write(value);
+		return buf.toByteArray();
+	}
+
+	@Override
+	public JsonGenerator writeStartObject() {
+		indefinite.push(true);
+		return writeByte(MAP | INDEFINITE);
+	}
+
+	@Override
+	public JsonGenerator writeStartObject(String name) {
+		return writeKey(name).writeStartObject();
+	}
+
+	@Override
+	public JsonGenerator writeKey(String name) {
+		return cache == null ? write(name) : writeBytes(cache.getName(name));
+	}
+
+	@Override
+	public JsonGenerator writeStartArray() {
+		indefinite.push(true);
+		return writeByte(ARRAY | INDEFINITE);
+	}
+
+	/**
+	 * Starts an array of a known number of items, without a break at the end
+	 */
+	public JsonGenerator writeStartArray(int size) {
+		indefinite.push(false);
+		return writeHead(ARRAY, size);
+	}
+
+	@Override
+	public JsonGenerator writeStartArray(String name) {
+		return writeKey(name).writeStartArray();
+	}
+
+	@Override
+	public JsonGenerator write(String name, JsonValue value) {
+		return writeKey(name).write(value);
+	}
+
+	@Override
+	public JsonGenerator write(String name, String value) {
+		return writeKey(name).write(value);
+	}
+
+	@Override
+	public JsonGenerator write(String name, BigInteger value) {
+		return writeKey(name).write(value);
+	}
+
+	@Override
+	public JsonGenerator write(String name, BigDecimal value) {
+		return writeKey(name).write(value);
+	}
+
+	@Override
+	public JsonGenerator write(String name, int value) {
+		return writeKey(name).write(value);
+	}
+
+	@Override
+	public JsonGenerator write(String name, long value) {
+		return writeKey(name).write(value);
+	}
+
+	@Override
+	public JsonGenerator write(String name, double value) {
+		return writeKey(name).write(value);
+	}
+
+	@Override
+	public JsonGenerator write(String name, boolean value) {
+		return writeKey(name).write(value);
+	}
+
+	@Override
+	public JsonGenerator writeNull(String name) {
+		return writeKey(name).writeNull();
+	}
+
+	@Override
+	public JsonGenerator writeEnd() {
+		if (indefinite.isEmpty())
+			throw new JsonGenerationException("No object or array to end");
+		if (indefinite.pop()) {
+			writeByte(BREAK);
+		}
+		return this;
+	}
+
+	@Override
+	public JsonGenerator write(JsonValue value) {
+		switch (value.getValueType()) {
+		case ARRAY:
+			writeStartArray(((JsonArray) value).size());
+			for (JsonValue item : (JsonArray) value) {
+				write(item);
+			}
+			return writeEnd();
+		case OBJECT:
+			JsonObject object = (JsonObject) value;
+			indefinite.push(false);
+			writeHead(MAP, object.size());
+			for (Map.Entry<String, JsonValue> entry : object.entrySet()) {
+				writeKey(entry.getKey()).write(entry.getValue());
+			}
+			return writeEnd();
+		case STRING:
+			return write(((JsonString) value).getString());
+		case NUMBER:
+			JsonNumber number = (JsonNumber) value;
+			if (number.isIntegral())
+				return write(number.bigIntegerValue());
+			BigDecimal decimal = number.bigDecimalValue();
+			double d = decimal.doubleValue();
+			return BigDecimal.valueOf(d).compareTo(decimal) == 0 ? write(d) : write(decimal);
+		case TRUE:
+			return write(true);
+		case FALSE:
+			return write(false);
+		default:
+			return writeNull();
+		}
+	}
+
+	@Override
+	public JsonGenerator write(String value) {
+		byte[] encoded = cache == null ? null : cache.getValue(value);
+		if (encoded != null)
+			return writeBytes(encoded);
+		byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+		writeHead(TEXT, utf8.length);
+		return writeBytes(utf8);
+	}
+
+	@Override
+	public JsonGenerator write(BigDecimal value) {
+		if (value.scale() == 0)
+			return write(value.unscaledValue());
+		writeHead(TAG, DECIMAL_FRACTION);
+		writeHead(ARRAY, 2);
+		write(-(long) value.scale());
+		return write(value.unscaledValue());
+	}
+
+	@Override
+	public JsonGenerator write(BigInteger value) {
+		if (value.bitLength() < 64)
+			return write(value.longValue());
+		boolean negative = value.signum() < 0;
+		byte[] magnitude = (negative ? value.not() : value).toByteArray();
+		int off = magnitude[0] == 0 ? 1 : 0;
+		writeHead(TAG, negative ? NEGATIVE_BIGNUM : POSITIVE_BIGNUM);
+		writeHead(BYTES, magnitude.length - off);
+		try {
+			out.write(magnitude, off, magnitude.length - off);
+		} catch (IOException e) {
+			throw new JsonException(e.getMessage(), e);
+		}
+		return this;
+	}
+
+	@Override
+	public JsonGenerator write(int value) {
+		return write((long) value);
+	}
+
+	@Override
+	public JsonGenerator write(long value) {
+		return value < 0 ? writeHead(NEGATIVE, -1 - value) : writeHead(UNSIGNED, value);
+	}
+
+	@Override
+	public JsonGenerator write(double value) {
+		float single = (float) value;
+		if (single == value) {
+			writeByte(FLOAT32);
+			return writeFixed(Float.floatToIntBits(single), 4);
+		} else {
+			writeByte(FLOAT64);
+			return writeFixed(Double.doubleToLongBits(value), 8);
+		}
+	}
+
+	@Override
+	public JsonGenerator write(boolean value) {
+		return writeByte(value ? TRUE : FALSE);
+	}
+
+	@Override
+	public JsonGenerator writeNull() {
+		return writeByte(NULL);
+	}
+
+	@Override
+	public void close() {
+		if (!indefinite.isEmpty())
+			throw new JsonGenerationException("Incomplete CBOR data item");
+		try {
+			out.close();
+		} catch (IOException e) {
+			throw new JsonException(e.getMessage(), e);
+		}
+	}
+
+	@Override
+	public void flush() {
+		try {
+			out.flush();
+		} catch (IOException e) {
+			throw new JsonException(e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Writes the major type and argument in the fewest bytes
+	 */
+	private JsonGenerator writeHead(int major, long value) {
+		if (value < 24) {
+			return writeByte(major | (int) value);
+		} else if (value < 0x100) {
+			writeByte(major | 24);
+			return writeFixed(value, 1);
+		} else if (value < 0x10000) {
+			writeByte(major | 25);
+			return writeFixed(value, 2);
+		} else if (value < 0x100000000L) {
+			writeByte(major | 26);
+			return writeFixed(value, 4);
+		} else {
+			writeByte(major | 27);
+			return writeFixed(value, 8);
+		}
+	}
+
+	private JsonGenerator writeFixed(long value, int size) {
+		for (int shift = (size - 1) * 8; shift >= 0; shift -= 8) {
+			writeByte((int) (value >>> shift));
+		}
+		return this;
+	}
+
+	private JsonGenerator writeByte(int b) {
+		try {
+			out.write(b);
+			return this;
+		} catch (IOException e) {
+			throw new JsonException(e.getMessage(), e);
+		}
+	}
+
+	private JsonGenerator writeBytes(byte[] b) {
+		try {
+			out.write(b);
+			return this;
+		} catch (IOException e) {
+			throw new JsonException(e.getMessage(), e);
+		}
+	}
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2023 James Leigh
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.meerkattrading.tws;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import javax.json.Json;
+import javax.json.JsonArray;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
+import javax.json.JsonValue;
+
+/**
+ * Buffers the bars of historicalData and the ticks of historicalTicks,
+ * historicalTicksBidAsk and historicalTicksLast by request, until they are
+ * complete, and pivots them into an array of values per property
+ *
+ * @author James Leigh
+ *
+ */
+public class ColumnBatcher {
+	private final Map<String, Batch> pending = new HashMap<>();
+
+	public boolean isBatched(String command) {
+		switch (command) {
+		case "historicalData":
+		case "historicalDataEnd":
+		case "historicalTicks":
+		case "historicalTicksBidAsk":
+		case "historicalTicksLast":
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * Buffers an object (or positional array) of the given command and request
+	 *
+	 * @param properties property names in the order of positional arrays
+	 */
+	public void add(String command, int reqId, List<String> properties, JsonValue row) {
+		String key = command + ":" + reqId;
+		if (!pending.containsKey(key)) {
+			pending.put(key, new Batch(properties));
+		}
+		pending.get(key).rows.add(row);
+	}
+
+	/**
+	 * Removes the buffered values of the given command and request, as an object
+	 * of property names to arrays of their values, leaving out properties that
+	 * are never assigned
+	 */
+	public JsonObject drain(String command, int reqId) {
+		Batch batch = pending.remove(command + ":" + reqId);
+		JsonObjectBuilder columns = Json.createObjectBuilder();
+		if (batch == null)
+			return columns.build();
+		for (int i = 0; i < batch.properties.size(); i++) {
+			String name = batch.properties.get(i);
+			JsonArrayBuilder column = Json.createArrayBuilder();
+			boolean assigned = false;
+			for (JsonValue row : batch.rows) {
+				JsonValue value = get(row, name, i);
+				assigned |= !JsonValue.NULL.equals(value);
+				column.add(value);
+			}
+			if (assigned) {
+				columns.add(name, column);
+			}
+		}
+		return columns.build();
+	}
+
+	/**
+	 * Forgets anything buffered for a request that failed
+	 *
+	 * @return the number of rows forgotten
+	 */
+	public int clear(int reqId) {
+		int rows = 0;
+		Iterator<Map.Entry<String, Batch>> iter = pending.entrySet().iterator();
+		while (iter.hasNext()) {
+			Map.Entry<String, Batch> entry = iter.next();
+			if (entry.getKey().endsWith(":" + reqId)) {
+				rows += entry.getValue().rows.size();
+				iter.remove();
+			}
+		}
+		return rows;
+	}
+
+	private JsonValue get(JsonValue row, String name, int index) {
+		if (row instanceof JsonObject && ((JsonObject) row).containsKey(name)) {
+			return ((JsonObject) row).get(name);
+		} else if (row instanceof JsonArray && index < ((JsonArray) row).size()) {
+			return ((JsonArray) row).get(index);
+		} else {
+			return JsonValue.NULL;
+		}
+	}
+
+	private static class Batch {
+		final List<String> properties;
+		final List<JsonValue> rows = new ArrayList<>();
+
+		Batch(List<String> properties) {
+			this.properties = properties;
+		}
+	}
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright (c) 2023 James Leigh
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.meerkattrading.tws;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
+import javax.json.JsonValue;
+
+import com.ib.client.Contract;
+import com.ib.client.Decimal;
+import com.ib.client.Order;
+import com.ib.client.OrderState;
+
+/**
+ * Remembers the last values sent of updatePortfolio, updateAccountValue,
+ * orderStatus and openOrder events by their account and conId, orderId or
+ * permId, so repeated updates only send what changed. The values of a key
+ * are forgotten when its order is done or its position is closed, and when
+ * they are due to be sent in full again anyway.
+ *
+ * @author James Leigh
+ *
+ */
+public class DeltaEncoder {
+	private static final Set<String> DONE = Set.of("Filled", "Cancelled", "ApiCancelled", "Inactive");
+	private final long refreshMillis;
+	private final Map<String, Sent> sent = new HashMap<>();
+	private long swept;
+
+	/**
+	 * @param refreshMillis how often all values of a key are sent again
+	 */
+	public DeltaEncoder(long refreshMillis) {
+		this.refreshMillis = refreshMillis;
+	}
+
+	public boolean isKeyed(String command) {
+		switch (command) {
+		case "updatePortfolio":
+		case "updateAccountValue":
+		case "orderStatus":
+		case "openOrder":
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * The key that identifies what the given event values are about
+	 */
+	public String getKey(String command, Object[] args) {
+		switch (command) {
+		case "updatePortfolio":
+			return command + ":" + args[7] + ":" + ((Contract) args[0]).conid();
+		case "updateAccountValue":
+			return command + ":" + args[3] + ":" + args[0] + ":" + args[2];
+		case "orderStatus":
+			return "0".equals(String.valueOf(args[5])) ? command + ":orderId:" + args[0]
+					: command + ":permId:" + args[5];
+		case "openOrder":
+			String permId = String.valueOf(((Order) args[2]).permId());
+			return "0".equals(permId) ? command + ":orderId:" + args[0] : command + ":permId:" + permId;
+		default:
+			throw new IllegalArgumentException("Not a keyed event " + command);
+		}
+	}
+
+	/**
+	 * If the event is the last of its key, a filled, cancelled or inactive
+	 * order or a closed position
+	 */
+	public boolean isFinal(String command, Object[] args) {
+		switch (command) {
+		case "updatePortfolio":
+			return args[1] instanceof Decimal && ((Decimal) args[1]).isZero();
+		case "orderStatus":
+			return DONE.contains(args[1]);
+		case "openOrder":
+			return args[3] instanceof OrderState && DONE.contains(((OrderState) args[3]).getStatus());
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * Forgets the values sent of the key
+	 */
+	public void remove(String key) {
+		sent.remove(key);
+	}
+
+	/**
+	 * Number of keys with values remembered
+	 */
+	public int size() {
+		return sent.size();
+	}
+
+	/**
+	 * The given values when all of them should be sent, the values with objects
+	 * reduced to their changed properties (removed properties as null), or null
+	 * if nothing changed
+	 */
+	public JsonValue[] encode(String key, JsonValue[] values, long now) {
+		if (now - swept >= refreshMillis) {
+			sweep(now);
+		}
+		Sent last = sent.get(key);
+		if (last == null || now - last.refreshed >= refreshMillis || last.values.length != values.length) {
+			sent.put(key, new Sent(values, now));
+			return values;
+		} else if (Arrays.equals(last.values, values)) {
+			return null;
+		}
+		JsonValue[] delta = new JsonValue[values.length];
+		boolean partial = false;
+		for (int i = 0; i < values.length; i++) {
+			if (last.values[i] instanceof JsonObject && values[i] instanceof JsonObject) {
+				delta[i] = diff((JsonObject) last.values[i], (JsonObject) values[i]);
+				partial = true;
+			} else {
+				delta[i] = values[i];
+			}
+		}
+		last.values = values;
+		if (!partial) {
+			last.refreshed = now;
+			return values;
+		}
+		return delta;
+	}
+
+	/**
+	 * Removes the values that would be sent in full next time anyway
+	 */
+	private void sweep(long now) {
+		swept = now;
+		sent.values().removeIf(last -> now - last.refreshed >= refreshMillis);
+	}
+
+	private JsonObject diff(JsonObject previous, JsonObject current) {
+		JsonObjectBuilder builder = Json.createObjectBuilder();
+		for (Map.Entry<String, JsonValue> e : current.entrySet()) {
+			if (!e.getValue().equals(previous.get(e.getKey()))) {
+				builder.add(e.getKey(), e.getValue());
+			}
+		}
+		for (String removed : previous.keySet()) {
+			if (!current.containsKey(removed)) {
+				builder.addNull(removed);
+			}
+		}
+		return builder.build();
+	}
+
+	private static class Sent {
+		JsonValue[] values;
+		long refreshed;
+
+		Sent(JsonValue[] values, long refreshed) {
+			this.values = values;
+			this.refreshed = refreshed;
+		}
+	}
+}
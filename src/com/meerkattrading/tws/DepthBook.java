@@ -0,0 +1,225 @@
+/*
+ * Copyright (c) 2023 James Leigh
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.meerkattrading.tws;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.ib.client.Decimal;
+
+/**
+ * Maintains the order book of each market depth subscription from the
+ * updateMktDepth and updateMktDepthL2 insert, update and delete operations, so
+ * the whole book can be issued at an interval instead of every operation.
+ *
+ * @author James Leigh
+ *
+ */
+public class DepthBook implements EWrapperListener {
+	private static final int INSERT = 0;
+	private static final int UPDATE = 1;
+	private static final int DELETE = 2;
+	private static final int BID = 1;
+
+	/**
+	 * One side of a book, with the rows in position order
+	 */
+	private static class Side {
+		double[] prices = new double[16];
+		Decimal[] sizes = new Decimal[16];
+		String[] marketMakers = new String[16];
+		int count;
+
+		void apply(int position, int operation, double price, Decimal size, String marketMaker) {
+			if (position < 0)
+				return;
+			switch (operation) {
+			case INSERT:
+				if (position > count) {
+					position = count;
+				}
+				if (count == prices.length) {
+					prices = Arrays.copyOf(prices, count * 2);
+					sizes = Arrays.copyOf(sizes, count * 2);
+					marketMakers = Arrays.copyOf(marketMakers, count * 2);
+				}
+				System.arraycopy(prices, position, prices, position + 1, count - position);
+				System.arraycopy(sizes, position, sizes, position + 1, count - position);
+				System.arraycopy(marketMakers, position, marketMakers, position + 1, count - position);
+				count++;
+				set(position, price, size, marketMaker);
+				break;
+			case UPDATE:
+				if (position < count) {
+					set(position, price, size, marketMaker);
+				} else {
+					apply(position, INSERT, price, size, marketMaker);
+				}
+				break;
+			case DELETE:
+				if (position < count) {
+					System.arraycopy(prices, position + 1, prices, position, count - position - 1);
+					System.arraycopy(sizes, position + 1, sizes, position, count - position - 1);
+					System.arraycopy(marketMakers, position + 1, marketMakers, position, count - position - 1);
+					count--;
+					sizes[count] = null;
+					marketMakers[count] = null;
+				}
+				break;
+			default:
+				break;
+			}
+		}
+
+		void set(int position, double price, Decimal size, String marketMaker) {
+			prices[position] = price;
+			sizes[position] = size;
+			marketMakers[position] = marketMaker;
+		}
+
+		Double[] getPrices(int rows) {
+			Double[] result = new Double[Math.min(rows, count)];
+			for (int i = 0; i < result.length; i++) {
+				result[i] = prices[i];
+			}
+			return result;
+		}
+
+		Decimal[] getSizes(int rows) {
+			return Arrays.copyOf(sizes, Math.min(rows, count));
+		}
+
+		String[] getMarketMakers(int rows) {
+			return Arrays.copyOf(marketMakers, Math.min(rows, count));
+		}
+	}
+
+	/**
+	 * Both sides of the book of a tickerId
+	 */
+	private static class Book {
+		final Side bids = new Side();
+		final Side asks = new Side();
+		boolean changed;
+	}
+
+	/**
+	 * Receives the top rows of each side of a changed book
+	 */
+	public interface Listener {
+		void marketDepth(int tickerId, Double[] bidPrices, Decimal[] bidSizes, String[] bidMarketMakers,
+				Double[] askPrices, Decimal[] askSizes, String[] askMarketMakers);
+	}
+
+	private final Map<Integer, Book> books = new HashMap<>();
+	private volatile boolean enabled;
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Starts or stops maintaining books, forgetting all books when stopped
+	 */
+	public synchronized void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+		if (!enabled) {
+			books.clear();
+		}
+	}
+
+	/**
+	 * Applies an EWrapper event to its book
+	 *
+	 * @return true if the event was a market depth operation applied to a book
+	 */
+	@Override
+	public boolean update(String event, Object[] args) {
+		if (!enabled)
+			return false;
+		switch (event) {
+		case "updateMktDepth":
+			update((Integer) args[0], (Integer) args[1], (Integer) args[2], (Integer) args[3], (Double) args[4],
+					(Decimal) args[5], null);
+			return true;
+		case "updateMktDepthL2":
+			update((Integer) args[0], (Integer) args[1], (Integer) args[3], (Integer) args[4], (Double) args[5],
+					(Decimal) args[6], (String) args[2]);
+			return true;
+		case "error":
+			if (EWrapperListener.isRequestError(args)) {
+				clear((Integer) args[0]);
+			}
+			return false;
+		default:
+			return false;
+		}
+	}
+
+	public synchronized void update(int tickerId, int position, int operation, int side, double price, Decimal size,
+			String marketMaker) {
+		Book book = books.get(tickerId);
+		if (book == null) {
+			books.put(tickerId, book = new Book());
+		}
+		(side == BID ? book.bids : book.asks).apply(position, operation, price, size, marketMaker);
+		book.changed = true;
+	}
+
+	/**
+	 * Forgets the book of the tickerId
+	 */
+	public synchronized void clear(int tickerId) {
+		books.remove(tickerId);
+	}
+
+	/**
+	 * Forgets all books
+	 */
+	public synchronized void clear() {
+		books.clear();
+	}
+
+	/**
+	 * Passes the top rows of each book that changed since the last call. The
+	 * rows are copied while holding this monitor and passed to the listener
+	 * after it is released, so a slow listener does not hold up the updates.
+	 *
+	 * @param rows the number of rows of each side, or zero for all rows
+	 */
+	public void drainChanged(int rows, Listener listener) {
+		int max = rows > 0 ? rows : Integer.MAX_VALUE;
+		List<Object[]> changed = new ArrayList<>();
+		synchronized (this) {
+			for (Map.Entry<Integer, Book> entry : books.entrySet()) {
+				Book book = entry.getValue();
+				if (book.changed) {
+					book.changed = false;
+					changed.add(new Object[] { entry.getKey(), book.bids.getPrices(max), book.bids.getSizes(max),
+							book.bids.getMarketMakers(max), book.asks.getPrices(max), book.asks.getSizes(max),
+							book.asks.getMarketMakers(max) });
+				}
+			}
+		}
+		for (Object[] depth : changed) {
+			listener.marketDepth((Integer) depth[0], (Double[]) depth[1], (Decimal[]) depth[2], (String[]) depth[3],
+					(Double[]) depth[4], (Decimal[]) depth[5], (String[]) depth[6]);
+		}
+	}
+}
@@ -72,6 +72,11 @@ public class Deserializer {
 		return jsonToJava(obj, type);
 	}
 
+	public Object deserialize(JsonValue json, PropertyType type)
+			throws InvocationTargetException, IllegalAccessException, IllegalArgumentException {
+		return jsonToJava(json, type);
+	}
+
 	private JsonValue parse(String json) {
 		try {
 			return Json.createReader(new StringReader(json)).readValue();
@@ -96,6 +101,8 @@ public class Deserializer {
 			Class<?> type = (Class<?>) ptype.getJavaType();
 			if (type == Boolean.TYPE || type == Boolean.class) {
 				return jsonToBoolean(obj);
+			} else if (JsonValue.class.isAssignableFrom(type)) {
+				return jsonToJsonValue(obj, type);
 			} else if (type.isAssignableFrom(Object.class)) {
 				return jsonToObject(obj);
 			} else if (type.isAssignableFrom(String.class)) {
@@ -247,6 +254,14 @@ public class Deserializer {
 		}
 	}
 
+	private JsonValue jsonToJsonValue(JsonValue obj, Class<?> type) {
+		if (obj == null || obj.getValueType() == ValueType.NULL)
+			return null;
+		if (!type.isInstance(obj))
+			throw new IllegalArgumentException("Expected " + obj + " to be a " + type.getSimpleName());
+		return obj;
+	}
+
 	private String jsonToString(JsonValue obj) {
 		if (obj == null)
 			return null;
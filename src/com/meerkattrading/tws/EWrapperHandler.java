@@ -15,7 +15,9 @@
  */
 package com.meerkattrading.tws;
 
+import java.io.IOException;
 import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
 import java.net.SocketException;
@@ -32,19 +34,52 @@ import com.ib.client.EWrapper;
 public class EWrapperHandler implements InvocationHandler {
 	private final Logger logger = Logger.getLogger(EWrapperHandler.class.getName());
 	private Printer out;
+	private EWrapperListener[] listeners;
 
-	public static EWrapper newInstance(Printer out) {
-		EWrapperHandler handler = new EWrapperHandler(out);
+	public static EWrapper newInstance(Printer out, EWrapperListener... listeners) {
+		EWrapperHandler handler = new EWrapperHandler(out, listeners);
 		ClassLoader cl = EWrapper.class.getClassLoader();
 		return (EWrapper) Proxy.newProxyInstance(cl, new Class<?>[] { EWrapper.class }, handler);
 	}
 
-	public EWrapperHandler(Printer out) {
+	/**
+	 * @param listeners each given every event, even if it is unsubscribed or
+	 *                  taken by another listener
+	 */
+	public EWrapperHandler(Printer out, EWrapperListener... listeners) {
 		this.out = out;
+		this.listeners = listeners;
 	}
 
 	@Override
 	public Object invoke(Object that, Method method, Object[] args) throws Throwable {
+		if (args == null)
+			return issue(method, args);
+		try {
+			return issue(method, args);
+		} finally {
+			for (EWrapperListener listener : listeners) {
+				listener.afterUpdate(method.getName(), args);
+			}
+		}
+	}
+
+	/**
+	 * Gives the event to the listeners and prints it, unless it is taken or
+	 * unsubscribed
+	 */
+	private Object issue(Method method, Object[] args)
+			throws IllegalAccessException, InvocationTargetException, IOException {
+		boolean taken = false;
+		if (args != null) {
+			for (EWrapperListener listener : listeners) {
+				taken |= listener.update(method.getName(), args);
+			}
+		}
+		if (taken)
+			return null;
+		if (!out.isSubscribed(method.getName()))
+			return null;
 		if ("error".equals(method.getName()) && args.length == 1 && args[0] instanceof Throwable) {
 			Throwable ex = (Throwable) args[0];
 			if (!(ex instanceof SocketException) || !"Socket closed".equals(ex.getMessage())) {
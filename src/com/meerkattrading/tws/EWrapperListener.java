@@ -0,0 +1,61 @@
+/*
+ * Copyright (c) 2023 James Leigh
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.meerkattrading.tws;
+
+/**
+ * Observes the EWrapper events of a connection before they are serialized
+ *
+ * @author James Leigh
+ *
+ */
+public interface EWrapperListener {
+
+	/**
+	 * Called with every EWrapper event, including unsubscribed events
+	 *
+	 * @return true if the event is taken in place of issuing it
+	 */
+	boolean update(String event, Object[] args);
+
+	/**
+	 * Called with every EWrapper event that was given to update, after it has
+	 * been issued, taken or left unsubscribed
+	 */
+	default void afterUpdate(String event, Object[] args) {
+	}
+
+	/**
+	 * If the arguments of an error event end the request of its id, rather than
+	 * warn or inform about it, such as the notices of codes 2100-2199, 399
+	 * (order warnings), 10090 (partly subscribed) and 10167 (delayed data)
+	 */
+	static boolean isRequestError(Object[] args) {
+		if (args == null || args.length < 3 || !(args[0] instanceof Integer) || !(args[2] instanceof Integer))
+			return false;
+		int code = (Integer) args[2];
+		if (code >= 2100 && code < 2200)
+			return false;
+		switch (code) {
+		case 399:
+		case 10090:
+		case 10167:
+		case 10197:
+			return false;
+		default:
+			return (Integer) args[0] >= 0;
+		}
+	}
+}
@@ -0,0 +1,346 @@
+/*
+ * Copyright (c) 2023 James Leigh
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.meerkattrading.tws;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.Writer;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.DateTimeException;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.logging.Logger;
+
+import javax.json.Json;
+import javax.json.JsonArray;
+import javax.json.JsonException;
+
+import com.ib.client.CommissionAndFeesReport;
+import com.ib.client.Contract;
+import com.ib.client.Execution;
+
+/**
+ * Keeps each execution once, by execId, joined with its commission report,
+ * and indexed by execution time and by symbol. Executions whose time cannot be
+ * read are kept and journaled, but left out of the index. Only the latest
+ * executions and commission reports without their execution are kept in
+ * memory. When a journal file is given, the executions in it are loaded and
+ * new executions and commission reports are appended to it, one JSON array per
+ * line in the form of the event.
+ *
+ * @author James Leigh
+ *
+ */
+public class ExecutionJournal implements EWrapperListener {
+	private static final DateTimeFormatter LOCAL_TIME = DateTimeFormatter.ofPattern("yyyyMMdd HH:mm:ss");
+	private static final DateTimeFormatter UTC_TIME = DateTimeFormatter.ofPattern("yyyyMMdd-HH:mm:ss");
+
+	/**
+	 * An execution and its commission report, if it has arrived
+	 */
+	public static class Fill {
+		private final Contract contract;
+		private final Execution execution;
+		private final long time;
+		private CommissionAndFeesReport report;
+
+		Fill(Contract contract, Execution execution, long time) {
+			this.contract = contract;
+			this.execution = execution;
+			this.time = time;
+		}
+
+		public Contract getContract() {
+			return contract;
+		}
+
+		public Execution getExecution() {
+			return execution;
+		}
+
+		/**
+		 * The execution time in milliseconds since 1970-01-01 UTC, or when it was
+		 * received if its time cannot be read
+		 */
+		public long getTime() {
+			return time;
+		}
+
+		public CommissionAndFeesReport getCommissionAndFeesReport() {
+			return report;
+		}
+	}
+
+	private final Logger logger = Logger.getLogger(ExecutionJournal.class.getName());
+	private final Serializer serializer = new Serializer();
+	private final Deserializer deserializer = new Deserializer();
+	private final PropertyType contractType = new PropertyType(Contract.class);
+	private final PropertyType executionType = new PropertyType(Execution.class);
+	private final PropertyType reportType = new PropertyType(CommissionAndFeesReport.class);
+	private final NavigableMap<Long, List<Fill>> byTime = new TreeMap<>();
+	private final Map<String, NavigableMap<Long, List<Fill>>> bySymbol = new HashMap<>();
+	private final Map<String, Fill> fills;
+	private final Map<String, CommissionAndFeesReport> pendingReports;
+	private Writer journal;
+
+	/**
+	 * @param capacity the number of executions, and of commission reports
+	 *                 waiting for their execution, to keep in memory, dropping
+	 *                 the oldest received first
+	 */
+	public ExecutionJournal(final int capacity) {
+		this.fills = new LinkedHashMap<String, Fill>() {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Fill> eldest) {
+				if (size() <= capacity)
+					return false;
+				unindex(eldest.getValue());
+				return true;
+			}
+		};
+		this.pendingReports = new LinkedHashMap<String, CommissionAndFeesReport>() {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, CommissionAndFeesReport> eldest) {
+				return size() > capacity;
+			}
+		};
+	}
+
+	/**
+	 * Updates the journal from an EWrapper event, ignoring other events
+	 */
+	@Override
+	public boolean update(String event, Object[] args) {
+		switch (event) {
+		case "execDetails":
+			execDetails((Contract) args[1], (Execution) args[2]);
+			break;
+		case "commissionAndFeesReport":
+			commissionAndFeesReport((CommissionAndFeesReport) args[0]);
+			break;
+		default:
+			break;
+		}
+		return false;
+	}
+
+	public synchronized void execDetails(Contract contract, Execution execution) {
+		if (add(contract, execution, System.currentTimeMillis())) {
+			append("execDetails", contract, contractType, execution, executionType);
+		}
+	}
+
+	public synchronized void commissionAndFeesReport(CommissionAndFeesReport report) {
+		if (add(report)) {
+			append("commissionAndFeesReport", report, reportType, null, null);
+		}
+	}
+
+	/**
+	 * Loads the executions in the file, and appends new executions and
+	 * commission reports to it from now on
+	 *
+	 * @param file the journal file, or null to stop appending
+	 */
+	public synchronized void open(Path file)
+			throws IOException, InvocationTargetException, IllegalAccessException {
+		close();
+		if (file == null)
+			return;
+		if (Files.exists(file)) {
+			try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+				String line;
+				while ((line = reader.readLine()) != null) {
+					if (!line.isBlank()) {
+						load(line);
+					}
+				}
+			}
+		}
+		journal = Files.newBufferedWriter(file, StandardCharsets.UTF_8, StandardOpenOption.CREATE,
+				StandardOpenOption.APPEND);
+	}
+
+	public synchronized void close() throws IOException {
+		if (journal != null) {
+			try {
+				journal.close();
+			} finally {
+				journal = null;
+			}
+		}
+	}
+
+	/**
+	 * The executions from (inclusive) to (exclusive), in time order
+	 *
+	 * @param from   milliseconds since 1970-01-01 UTC, or null
+	 * @param to     milliseconds since 1970-01-01 UTC, or null
+	 * @param symbol the contract symbol, or null for all
+	 */
+	public synchronized List<Fill> find(Long from, Long to, String symbol) {
+		NavigableMap<Long, List<Fill>> index = symbol == null ? byTime : bySymbol.get(symbol);
+		List<Fill> result = new ArrayList<>();
+		if (index == null)
+			return result;
+		if (from != null) {
+			index = index.tailMap(from, true);
+		}
+		if (to != null) {
+			index = index.headMap(to, false);
+		}
+		for (List<Fill> list : index.values()) {
+			result.addAll(list);
+		}
+		return result;
+	}
+
+	private void load(String line) throws InvocationTargetException, IllegalAccessException {
+		JsonArray array;
+		try {
+			array = Json.createReader(new StringReader(line)).readArray();
+		} catch (JsonException e) {
+			logger.warning("Skipping journal line " + line);
+			return;
+		}
+		if ("execDetails".equals(array.getString(0, null)) && array.size() == 3) {
+			Contract contract = (Contract) deserializer.deserialize(array.get(1), contractType);
+			Execution execution = (Execution) deserializer.deserialize(array.get(2), executionType);
+			add(contract, execution, System.currentTimeMillis());
+		} else if ("commissionAndFeesReport".equals(array.getString(0, null)) && array.size() == 2) {
+			add((CommissionAndFeesReport) deserializer.deserialize(array.get(1), reportType));
+		}
+	}
+
+	/**
+	 * @param received when the execution was received, in case its time cannot
+	 *                 be read
+	 * @return true if the execution was not known
+	 */
+	private boolean add(Contract contract, Execution execution, long received) {
+		if (execution == null || execution.execId() == null || fills.containsKey(execution.execId()))
+			return false;
+		Long time = parseTime(execution.time());
+		Fill fill = new Fill(contract, execution, time == null ? received : time);
+		fill.report = pendingReports.remove(execution.execId());
+		fills.put(execution.execId(), fill);
+		if (time == null) {
+			logger.warning("Execution " + execution.execId() + " with time " + execution.time()
+					+ " is left out of the time index");
+			return true;
+		}
+		byTime.computeIfAbsent(fill.time, k -> new ArrayList<>(1)).add(fill);
+		if (contract != null && contract.symbol() != null) {
+			bySymbol.computeIfAbsent(contract.symbol(), k -> new TreeMap<>())
+					.computeIfAbsent(fill.time, k -> new ArrayList<>(1)).add(fill);
+		}
+		return true;
+	}
+
+	/**
+	 * Removes the fill from the time and symbol indexes
+	 */
+	private void unindex(Fill fill) {
+		remove(byTime, fill);
+		if (fill.contract != null && fill.contract.symbol() != null) {
+			NavigableMap<Long, List<Fill>> index = bySymbol.get(fill.contract.symbol());
+			if (index != null) {
+				remove(index, fill);
+				if (index.isEmpty()) {
+					bySymbol.remove(fill.contract.symbol());
+				}
+			}
+		}
+	}
+
+	private void remove(NavigableMap<Long, List<Fill>> index, Fill fill) {
+		List<Fill> list = index.get(fill.time);
+		if (list != null && list.remove(fill) && list.isEmpty()) {
+			index.remove(fill.time);
+		}
+	}
+
+	/**
+	 * @return true if the commission report was not known
+	 */
+	private boolean add(CommissionAndFeesReport report) {
+		if (report == null || report.execId() == null)
+			return false;
+		Fill fill = fills.get(report.execId());
+		if (fill == null)
+			return pendingReports.putIfAbsent(report.execId(), report) == null;
+		if (fill.report != null)
+			return false;
+		fill.report = report;
+		return true;
+	}
+
+	private void append(String event, Object first, PropertyType firstType, Object second,
+			PropertyType secondType) {
+		if (journal == null)
+			return;
+		try {
+			StringBuilder line = new StringBuilder();
+			line.append("[").append(JsonTextGenerator.escape(event));
+			line.append(",").append(serializer.serialize(first, firstType));
+			if (secondType != null) {
+				line.append(",").append(serializer.serialize(second, secondType));
+			}
+			line.append("]\n");
+			journal.write(line.toString());
+			journal.flush();
+		} catch (IOException | IllegalAccessException | InvocationTargetException e) {
+			logger.warning(e.getMessage());
+		}
+	}
+
+	/**
+	 * The execution time, as "yyyyMMdd HH:mm:ss" in the given or local time zone,
+	 * or "yyyyMMdd-HH:mm:ss" in UTC, or null if it cannot be read
+	 */
+	private Long parseTime(String time) {
+		try {
+			if (time == null) {
+				return null;
+			} else if (time.length() > 8 && time.charAt(8) == '-') {
+				return LocalDateTime.parse(time.trim(), UTC_TIME).toInstant(ZoneOffset.UTC).toEpochMilli();
+			}
+			String[] parts = time.trim().split("\\s+");
+			ZoneId zone = parts.length > 2 ? ZoneId.of(parts[2]) : ZoneId.systemDefault();
+			return LocalDateTime.parse(parts[0] + " " + parts[1], LOCAL_TIME).atZone(zone).toInstant().toEpochMilli();
+		} catch (DateTimeException | ArrayIndexOutOfBoundsException e) {
+			return null;
+		}
+	}
+}
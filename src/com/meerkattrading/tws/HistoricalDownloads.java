@@ -0,0 +1,482 @@
+/*
+ * Copyright (c) 2023 James Leigh
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.meerkattrading.tws;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.ib.client.Bar;
+import com.ib.client.Contract;
+import com.ib.client.EWrapper;
+
+/**
+ * Downloads the historical bars of a time range by splitting it into chunks
+ * of the longest duration TWS allows for the bar size, requesting the chunks
+ * at the same time as far as the historical data pacing limits allow, and
+ * issuing the bars of the chunks in time order, once each, as the
+ * historicalData events of one reqId followed by one historicalDataEnd.
+ *
+ * @author James Leigh
+ *
+ */
+public class HistoricalDownloads implements EWrapperListener {
+	private static final DateTimeFormatter UTC_TIME = DateTimeFormatter.ofPattern("yyyyMMdd-HH:mm:ss")
+			.withZone(ZoneOffset.UTC);
+	private static final DateTimeFormatter DATE = DateTimeFormatter.ofPattern("yyyyMMdd");
+	private static final int DAY = 86400;
+	private static final int WEEK = 7 * DAY;
+	private static final Map<String, Integer> CHUNK_SECONDS = new HashMap<>();
+	static {
+		CHUNK_SECONDS.put("1 sec", 1800);
+		CHUNK_SECONDS.put("5 secs", 3600);
+		CHUNK_SECONDS.put("10 secs", 14400);
+		CHUNK_SECONDS.put("15 secs", 14400);
+		CHUNK_SECONDS.put("30 secs", 28800);
+		CHUNK_SECONDS.put("1 min", DAY);
+		CHUNK_SECONDS.put("2 mins", 2 * DAY);
+		CHUNK_SECONDS.put("3 mins", WEEK);
+		CHUNK_SECONDS.put("5 mins", WEEK);
+		CHUNK_SECONDS.put("10 mins", WEEK);
+		CHUNK_SECONDS.put("15 mins", WEEK);
+		CHUNK_SECONDS.put("20 mins", WEEK);
+		CHUNK_SECONDS.put("30 mins", 4 * WEEK);
+		CHUNK_SECONDS.put("1 hour", 4 * WEEK);
+		CHUNK_SECONDS.put("2 hours", 4 * WEEK);
+		CHUNK_SECONDS.put("3 hours", 4 * WEEK);
+		CHUNK_SECONDS.put("4 hours", 4 * WEEK);
+		CHUNK_SECONDS.put("8 hours", 4 * WEEK);
+		CHUNK_SECONDS.put("1 day", 52 * WEEK);
+		CHUNK_SECONDS.put("1 week", 52 * WEEK);
+		CHUNK_SECONDS.put("1 month", 52 * WEEK);
+	}
+	private static final int SMALL_BAR_CHUNK = 28800;
+	private static final int HMDS_ERROR = 162;
+	private static final int MAX_IN_FLIGHT = 50;
+	private static final int BURST_REQUESTS = 6;
+	private static final long BURST_MILLIS = 2000;
+	private static final int SMALL_BAR_REQUESTS = 60;
+	private static final long SMALL_BAR_MILLIS = 600000;
+	private static final long PACING_RETRY_MILLIS = 10000;
+
+	/**
+	 * Sends and cancels the historical data request of a chunk
+	 */
+	public interface Requester {
+		void reqHistoricalData(int tickerId, Contract contract, String endDateTime, String durationStr,
+				String barSizeSetting, String whatToShow, int useRTH);
+
+		void cancelHistoricalData(int tickerId);
+	}
+
+	/**
+	 * A request of part of the time range of a download
+	 */
+	private static class Chunk {
+		final Download download;
+		final String endDateTime;
+		final List<Bar> bars = new ArrayList<>();
+		int tickerId;
+		boolean done;
+
+		Chunk(Download download, String endDateTime) {
+			this.download = download;
+			this.endDateTime = endDateTime;
+		}
+	}
+
+	/**
+	 * The chunks of a download, oldest first, and how far they were issued
+	 */
+	private static class Download {
+		final int reqId;
+		final Contract contract;
+		final long from;
+		final long to;
+		final String durationStr;
+		final String barSizeSetting;
+		final String whatToShow;
+		final int useRTH;
+		final boolean small;
+		final List<Chunk> chunks = new ArrayList<>();
+		int next;
+		long last = Long.MIN_VALUE;
+
+		Download(int reqId, Contract contract, long from, long to, int chunkSeconds, String barSizeSetting,
+				String whatToShow, int useRTH) {
+			this.reqId = reqId;
+			this.contract = contract;
+			this.from = from;
+			this.to = to;
+			this.durationStr = getDuration(chunkSeconds);
+			this.barSizeSetting = barSizeSetting;
+			this.whatToShow = whatToShow;
+			this.useRTH = useRTH;
+			this.small = chunkSeconds <= SMALL_BAR_CHUNK;
+		}
+	}
+
+	private final Requester requester;
+	private final ScheduledExecutorService scheduler;
+	private final Map<Integer, Download> downloads = new LinkedHashMap<>();
+	private final Map<Integer, Chunk> inFlight = new HashMap<>();
+	private final Deque<Chunk> pending = new ArrayDeque<>();
+	private final Deque<Long> sent = new ArrayDeque<>();
+	private final Deque<Long> sentSmall = new ArrayDeque<>();
+	private EWrapper wrapper;
+	private int nextTickerId = 1 << 30;
+	private boolean scheduled;
+
+	/**
+	 * @param requester to send the chunk requests to
+	 * @param scheduler to send chunks later, when the pacing limits are reached
+	 */
+	public HistoricalDownloads(Requester requester, ScheduledExecutorService scheduler) {
+		this.requester = requester;
+		this.scheduler = scheduler;
+	}
+
+	/**
+	 * @param wrapper to issue the bars of the downloads to
+	 */
+	public synchronized void setWrapper(EWrapper wrapper) {
+		this.wrapper = wrapper;
+	}
+
+	/**
+	 * Starts downloading the bars from (inclusive) to (exclusive)
+	 *
+	 * @param from milliseconds since 1970-01-01 UTC
+	 * @param to   milliseconds since 1970-01-01 UTC
+	 */
+	public void start(int reqId, Contract contract, long from, long to, String barSizeSetting, String whatToShow,
+			int useRTH) {
+		Integer chunkSeconds = barSizeSetting == null ? null : CHUNK_SECONDS.get(barSizeSetting.trim());
+		if (chunkSeconds == null)
+			throw new IllegalArgumentException("Unknown bar size " + barSizeSetting);
+		if (from >= to)
+			throw new IllegalArgumentException("Expected the range to end after it starts");
+		synchronized (this) {
+			if (downloads.containsKey(reqId))
+				throw new IllegalArgumentException("Historical download " + reqId + " is already in use");
+			Download download = new Download(reqId, contract, from, to, chunkSeconds, barSizeSetting.trim(),
+					whatToShow, useRTH);
+			long step = chunkSeconds * 1000L;
+			for (long end = to; end > from; end -= step) {
+				download.chunks.add(new Chunk(download, UTC_TIME.format(Instant.ofEpochMilli(end))));
+			}
+			Collections.reverse(download.chunks);
+			downloads.put(reqId, download);
+			pending.addAll(download.chunks);
+		}
+		send();
+	}
+
+	/**
+	 * Stops the download and cancels its chunks in flight
+	 */
+	public void cancel(int reqId) {
+		List<Integer> cancelled = new ArrayList<>();
+		synchronized (this) {
+			Download download = downloads.remove(reqId);
+			if (download == null)
+				return;
+			remove(download, cancelled);
+		}
+		for (Integer tickerId : cancelled) {
+			requester.cancelHistoricalData(tickerId);
+		}
+	}
+
+	/**
+	 * Forgets all downloads
+	 */
+	public synchronized void clear() {
+		downloads.clear();
+		inFlight.clear();
+		pending.clear();
+	}
+
+	/**
+	 * Collects the bars of the chunks in flight
+	 *
+	 * @return true if the event was of a chunk
+	 */
+	@Override
+	public boolean update(String event, Object[] args) {
+		switch (event) {
+		case "historicalData":
+			return historicalData((Integer) args[0], (Bar) args[1]);
+		case "historicalDataEnd":
+			return historicalDataEnd((Integer) args[0]);
+		case "error":
+			if (args.length > 4 && EWrapperListener.isRequestError(args))
+				return error((Integer) args[0], (Long) args[1], (Integer) args[2], (String) args[3],
+						(String) args[4]);
+			else if (args.length > 4 && args[0] instanceof Integer)
+				return notice((Integer) args[0], (Long) args[1], (Integer) args[2], (String) args[3],
+						(String) args[4]);
+			return false;
+		default:
+			return false;
+		}
+	}
+
+	private synchronized boolean historicalData(int tickerId, Bar bar) {
+		Chunk chunk = inFlight.get(tickerId);
+		if (chunk == null)
+			return false;
+		chunk.bars.add(bar);
+		return true;
+	}
+
+	private boolean historicalDataEnd(int tickerId) {
+		synchronized (this) {
+			Chunk chunk = inFlight.remove(tickerId);
+			if (chunk == null)
+				return false;
+			chunk.done = true;
+		}
+		issue();
+		send();
+		return true;
+	}
+
+	/**
+	 * Issues a warning of a chunk in flight with the reqId of its download,
+	 * leaving the chunk in flight
+	 */
+	private boolean notice(int tickerId, long errorTime, int errorCode, String errorMsg, String json) {
+		int reqId;
+		synchronized (this) {
+			Chunk chunk = inFlight.get(tickerId);
+			if (chunk == null)
+				return false;
+			reqId = chunk.download.reqId;
+		}
+		getWrapper().error(reqId, errorTime, errorCode, errorMsg, json);
+		return true;
+	}
+
+	/**
+	 * Sends the chunk again after a pacing violation, skips a chunk without
+	 * data, or stops the download and issues the error with its reqId
+	 */
+	private boolean error(int tickerId, long errorTime, int errorCode, String errorMsg, String json) {
+		Download failed = null;
+		List<Integer> cancelled = new ArrayList<>();
+		synchronized (this) {
+			Chunk chunk = inFlight.remove(tickerId);
+			if (chunk == null)
+				return false;
+			String msg = errorMsg == null ? "" : errorMsg.toLowerCase();
+			if (errorCode == HMDS_ERROR && msg.contains("pacing")) {
+				pending.addFirst(chunk);
+				schedule(PACING_RETRY_MILLIS);
+				return true;
+			} else if (errorCode == HMDS_ERROR && msg.contains("no data")) {
+				chunk.done = true;
+			} else {
+				failed = downloads.remove(chunk.download.reqId);
+				remove(chunk.download, cancelled);
+			}
+		}
+		for (Integer id : cancelled) {
+			requester.cancelHistoricalData(id);
+		}
+		if (failed != null) {
+			getWrapper().error(failed.reqId, errorTime, errorCode, errorMsg, json);
+		} else {
+			issue();
+		}
+		send();
+		return true;
+	}
+
+	/**
+	 * Sends the pending chunks that the pacing limits allow now, and schedules
+	 * the next send if any remain
+	 */
+	private void send() {
+		List<Chunk> chunks = new ArrayList<>();
+		synchronized (this) {
+			long now = currentTimeMillis();
+			while (!sent.isEmpty() && sent.peekFirst() <= now - BURST_MILLIS) {
+				sent.removeFirst();
+			}
+			while (!sentSmall.isEmpty() && sentSmall.peekFirst() <= now - SMALL_BAR_MILLIS) {
+				sentSmall.removeFirst();
+			}
+			Iterator<Chunk> iter = pending.iterator();
+			while (iter.hasNext() && inFlight.size() < MAX_IN_FLIGHT && sent.size() < BURST_REQUESTS) {
+				Chunk chunk = iter.next();
+				if (chunk.download.small && sentSmall.size() >= SMALL_BAR_REQUESTS)
+					continue;
+				iter.remove();
+				chunk.tickerId = nextTickerId++;
+				inFlight.put(chunk.tickerId, chunk);
+				sent.addLast(now);
+				if (chunk.download.small) {
+					sentSmall.addLast(now);
+				}
+				chunks.add(chunk);
+			}
+			if (!pending.isEmpty() && inFlight.size() < MAX_IN_FLIGHT) {
+				long wait = sent.size() < BURST_REQUESTS ? Long.MAX_VALUE : sent.peekFirst() + BURST_MILLIS - now;
+				if (!sentSmall.isEmpty() && sentSmall.size() >= SMALL_BAR_REQUESTS) {
+					wait = Math.min(wait, sentSmall.peekFirst() + SMALL_BAR_MILLIS - now);
+				}
+				if (wait < Long.MAX_VALUE) {
+					schedule(wait);
+				}
+			}
+		}
+		for (Chunk chunk : chunks) {
+			Download d = chunk.download;
+			requester.reqHistoricalData(chunk.tickerId, d.contract, chunk.endDateTime, d.durationStr,
+					d.barSizeSetting, d.whatToShow, d.useRTH);
+		}
+	}
+
+	/**
+	 * Issues the bars of the completed chunks that follow the last issued
+	 * chunk of each download, skipping bars at or before the last issued bar,
+	 * and the end of the downloads with every chunk issued
+	 */
+	private void issue() {
+		Map<Download, List<Bar>> issue = new LinkedHashMap<>();
+		List<Download> ended = new ArrayList<>();
+		synchronized (this) {
+			for (Download download : downloads.values()) {
+				List<Bar> bars = new ArrayList<>();
+				while (download.next < download.chunks.size() && download.chunks.get(download.next).done) {
+					Chunk chunk = download.chunks.get(download.next);
+					download.chunks.set(download.next++, null);
+					for (Bar bar : chunk.bars) {
+						Long time = getTime(bar);
+						if (time == null) {
+							bars.add(bar);
+						} else if (time > download.last && time >= getStart(download, bar)) {
+							download.last = time;
+							bars.add(bar);
+						}
+					}
+				}
+				if (!bars.isEmpty()) {
+					issue.put(download, bars);
+				}
+				if (download.next == download.chunks.size()) {
+					ended.add(download);
+				}
+			}
+			for (Download download : ended) {
+				downloads.remove(download.reqId);
+			}
+		}
+		EWrapper wrapper = getWrapper();
+		for (Map.Entry<Download, List<Bar>> e : issue.entrySet()) {
+			for (Bar bar : e.getValue()) {
+				wrapper.historicalData(e.getKey().reqId, bar);
+			}
+		}
+		for (Download download : ended) {
+			wrapper.historicalDataEnd(download.reqId, UTC_TIME.format(Instant.ofEpochMilli(download.from)),
+					UTC_TIME.format(Instant.ofEpochMilli(download.to)));
+		}
+	}
+
+	private void remove(Download download, List<Integer> cancelled) {
+		pending.removeIf(chunk -> chunk.download == download);
+		Iterator<Chunk> iter = inFlight.values().iterator();
+		while (iter.hasNext()) {
+			Chunk chunk = iter.next();
+			if (chunk.download == download) {
+				iter.remove();
+				cancelled.add(chunk.tickerId);
+			}
+		}
+	}
+
+	private void schedule(long delay) {
+		if (!scheduled) {
+			scheduled = true;
+			scheduler.schedule(() -> {
+				synchronized (this) {
+					scheduled = false;
+				}
+				send();
+			}, Math.max(delay, 0), TimeUnit.MILLISECONDS);
+		}
+	}
+
+	private synchronized EWrapper getWrapper() {
+		return wrapper;
+	}
+
+	/**
+	 * The time the pacing limits are measured by
+	 */
+	protected long currentTimeMillis() {
+		return System.currentTimeMillis();
+	}
+
+	/**
+	 * The bar time in seconds since 1970-01-01 UTC, as the bars are requested
+	 * with formatDate 2, or null if it cannot be read
+	 */
+	private static Long getTime(Bar bar) {
+		String time = bar.time() == null ? "" : bar.time().trim().split("\\s+")[0];
+		try {
+			if (time.length() == 8)
+				return LocalDate.parse(time, DATE).toEpochDay() * DAY;
+			return Long.parseLong(time);
+		} catch (RuntimeException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * The earliest bar time of the download, in seconds since 1970-01-01 UTC,
+	 * which is the start of the UTC date of the range for bars with a date
+	 */
+	private static long getStart(Download download, Bar bar) {
+		long from = Math.floorDiv(download.from, 1000L);
+		if (bar.time() != null && bar.time().trim().split("\\s+")[0].length() == 8)
+			return Math.floorDiv(from, DAY) * DAY;
+		return from;
+	}
+
+	private static String getDuration(int seconds) {
+		if (seconds % WEEK == 0)
+			return seconds / WEEK + " W";
+		else if (seconds % DAY == 0)
+			return seconds / DAY + " D";
+		else
+			return seconds + " S";
+	}
+}
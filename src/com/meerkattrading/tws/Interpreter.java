@@ -21,6 +21,8 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.lang.reflect.InvocationTargetException;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.logging.Logger;
 
 /**
@@ -36,6 +38,7 @@ public class Interpreter {
 	private final Printer out;
 	private final LineReader reader;
 	private final TwsSocketActions client;
+	private int pipelineDepth;
 
 	public Interpreter(boolean prompt) throws IOException {
 		Prompter prompter = prompt ? new Prompter(System.err) : new Prompter();
@@ -56,6 +59,14 @@ public class Interpreter {
 		client.setRemoteAddress(host, port);
 	}
 
+	/**
+	 * How many commands may be read and parsed ahead of the command being
+	 * invoked, zero reads each command after the previous command has completed
+	 */
+	public void setPipelineDepth(int pipelineDepth) {
+		this.pipelineDepth = pipelineDepth;
+	}
+
 	public void exit() throws IOException {
 		try {
 			getInvoker().exit();
@@ -73,9 +84,13 @@ public class Interpreter {
 	}
 
 	private void repl(LineReader reader) throws InterruptedException, IOException {
+		if (pipelineDepth > 0) {
+			pipeline(reader);
+			return;
+		}
 		while (true) {
 			try {
-				rep(reader, "");
+				print(read(reader, ""));
 			} catch (EOFException e) {
 				break;
 			} finally {
@@ -84,35 +99,77 @@ public class Interpreter {
 		}
 	}
 
-	private void rep(LineReader reader, CharSequence prefix) throws IOException {
+	/**
+	 * Reads and parses the commands in a separate thread, while the commands are
+	 * invoked in this thread in the order they were read
+	 */
+	private void pipeline(LineReader reader) throws InterruptedException, IOException {
+		BlockingQueue<Evaluation> queue = new ArrayBlockingQueue<>(pipelineDepth);
+		Thread thread = new Thread(() -> {
+			try {
+				while (true) {
+					Evaluation evaluation = read(reader, "");
+					if (evaluation != null) {
+						queue.put(evaluation);
+					}
+				}
+			} catch (IOException | RuntimeException e) {
+				try {
+					queue.put(new Evaluation(e));
+				} catch (InterruptedException ie) {
+					// exit
+				}
+			} catch (InterruptedException e) {
+				// exit
+			}
+		}, Thread.currentThread().getName() + "-reader");
+		thread.setDaemon(true);
+		thread.start();
+		try {
+			while (true) {
+				Evaluation evaluation = queue.take();
+				if (evaluation.error instanceof IOException) {
+					throw (IOException) evaluation.error;
+				} else if (evaluation.input == null && evaluation.error instanceof RuntimeException) {
+					logger.severe("Stopped reading commands: " + evaluation.error);
+					getPrinter().println("error", "Stopped reading commands: " + evaluation.error);
+					out.flush();
+					break;
+				}
+				try {
+					print(evaluation);
+				} finally {
+					out.flush();
+				}
+			}
+		} catch (EOFException e) {
+			// end of input
+		} finally {
+			thread.interrupt();
+		}
+	}
+
+	private Evaluation read(LineReader reader, CharSequence prefix) throws IOException {
 		try {
 			ParsedInput input = reader.readLine(prefix);
+			if (input == null || input.isEmpty())
+				return null;
 			try {
-				try {
-					if (input != null && !input.isEmpty()) {
-						eval(input);
-					}
-				} catch (MoreInputExpected e) {
-					String string = input.getInput().toString();
-					if (string.trim().length() > 0) {
-						rep(reader, input.getInput() + "\n");
-					} else {
-						rep(reader, "");
-					}
+				return parse(input);
+			} catch (MoreInputExpected e) {
+				String string = input.getInput().toString();
+				if (string.trim().length() > 0) {
+					return read(reader, input.getInput() + "\n");
+				} else {
+					return read(reader, "");
 				}
-			} catch (IllegalAccessException | InvocationTargetException | RuntimeException e) {
-				logger.warning("" + input.getInput());
-				String msg = e.getMessage() == null ? e.toString() : e.getMessage();
-				getPrinter().println("error", msg + " while evaluating " + input.getInput());
 			}
 		} catch (SyntaxError e) {
-			logger.warning(e.getMessage());
-			getPrinter().println("error", e.getMessage() == null ? e.toString() : e.getMessage());
+			return new Evaluation(e);
 		}
 	}
 
-	private void eval(ParsedInput line)
-			throws IllegalAccessException, InvocationTargetException, IOException, MoreInputExpected {
+	private Evaluation parse(ParsedInput line) throws IOException, MoreInputExpected {
 		List<String> values = line.getParsedValues();
 		String command = values.get(0);
 		try {
@@ -133,20 +190,54 @@ public class Interpreter {
 				String json = i + 1 < values.size() ? values.get(i + 1) : "null";
 				args[i] = deserializer.deserialize(json, types[i]);
 			}
-			controller.invoke(command, args);
+			return new Evaluation(line, command, args);
+		} catch (NoSuchMethodException | IllegalAccessException | InvocationTargetException | RuntimeException e) {
+			return new Evaluation(line, command, e);
+		}
+	}
+
+	private void print(Evaluation evaluation) throws IOException {
+		if (evaluation == null) {
+			return;
+		} else if (evaluation.error instanceof SyntaxError) {
+			logger.warning(evaluation.error.getMessage());
+			getPrinter().println("error", evaluation.error.getMessage() == null ? evaluation.error.toString()
+					: evaluation.error.getMessage());
+			return;
+		}
+		ParsedInput input = evaluation.input;
+		try {
+			eval(evaluation);
 		} catch (NoSuchMethodException e) {
-			if (command.length() > 0) {
-				getPrinter().println("error", command + "?");
+			if (evaluation.command.length() > 0) {
+				getPrinter().println("error", evaluation.command + "?");
 			}
+		} catch (IllegalAccessException | InvocationTargetException | RuntimeException e) {
+			logger.warning("" + input.getInput());
+			String msg = e.getMessage() == null ? e.toString() : e.getMessage();
+			getPrinter().println("error", msg + " while evaluating " + input.getInput());
+		}
+	}
+
+	private void eval(Evaluation evaluation)
+			throws IllegalAccessException, InvocationTargetException, IOException, NoSuchMethodException {
+		try {
+			if (evaluation.error != null) {
+				throw evaluation.error;
+			}
+			getInvoker().invoke(evaluation.command, evaluation.args);
 		} catch (InvocationTargetException e) {
 			try {
 				throw e.getCause();
-			} catch (RuntimeException | IllegalAccessException | InvocationTargetException | IOException
-					| MoreInputExpected cause) {
+			} catch (RuntimeException | IllegalAccessException | InvocationTargetException | IOException cause) {
 				throw cause;
 			} catch (Throwable cause) {
 				throw e;
 			}
+		} catch (RuntimeException | IllegalAccessException | NoSuchMethodException | IOException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new AssertionError("unexpected", e);
 		}
 	}
 
@@ -157,4 +248,35 @@ public class Interpreter {
 	protected Printer getPrinter() throws IOException {
 		return out;
 	}
+
+	/**
+	 * A parsed command and its deserialized values, or why it could not be parsed
+	 */
+	private static class Evaluation {
+		final ParsedInput input;
+		final String command;
+		final Object[] args;
+		final Exception error;
+
+		Evaluation(ParsedInput input, String command, Object[] args) {
+			this.input = input;
+			this.command = command;
+			this.args = args;
+			this.error = null;
+		}
+
+		Evaluation(ParsedInput input, String command, Exception error) {
+			this.input = input;
+			this.command = command;
+			this.args = null;
+			this.error = error;
+		}
+
+		Evaluation(Exception error) {
+			this.input = null;
+			this.command = null;
+			this.args = null;
+			this.error = error;
+		}
+	}
 }
@@ -80,6 +80,7 @@ public class Invoker {
 			}
 		}
 		actions.setHelpSchema(commands, properties);
+		actions.setInvoker(this);
 	}
 
 	public PropertyType[] getParameterTypes(String command) throws NoSuchMethodException {
@@ -114,6 +115,21 @@ public class Invoker {
 		}
 	}
 
+	/**
+	 * Invokes the client method of the command, even when an action of the
+	 * same name takes its place as a command
+	 */
+	public Object invokeClient(String command, Object... args)
+			throws IllegalAccessException, IllegalArgumentException, InvocationTargetException, NoSuchMethodException {
+		Object client = getClient();
+		for (Method method : client.getClass().getMethods()) {
+			if (method.getName().equals(command) && method.getParameterCount() == args.length
+					&& !Object.class.equals(method.getDeclaringClass()))
+				return method.invoke(client, args);
+		}
+		throw new NoSuchMethodException(command);
+	}
+
 	public void exit() throws EOFException {
 		actions.exit();
 	}
@@ -0,0 +1,369 @@
+/*
+ * Copyright (c) 2023 James Leigh
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.meerkattrading.tws;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Map;
+
+import javax.json.JsonArray;
+import javax.json.JsonNumber;
+import javax.json.JsonObject;
+import javax.json.JsonString;
+import javax.json.JsonValue;
+import javax.json.stream.JsonGenerationException;
+import javax.json.stream.JsonGenerator;
+
+/**
+ * Appends compact JSON text to a reusable {@link StringBuilder}, the same as
+ * the javax.json generator writes it. Numbers are appended directly, without
+ * formatting them into a String first, either as JSON numbers or as quoted
+ * strings.
+ *
+ * @author James Leigh
+ *
+ */
+public class JsonTextGenerator implements JsonGenerator {
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+	private final StringBuilder sb;
+	private final StringCache<char[]> cache;
+	private char[] ends = new char[16];
+	private boolean[] first = new boolean[16];
+	private int depth;
+	private boolean afterKey;
+
+	public JsonTextGenerator() {
+		this(new StringBuilder());
+	}
+
+	public JsonTextGenerator(StringBuilder sb) {
+		this(sb, null);
+	}
+
+	/**
+	 * @param cache of quoted and escaped strings, from {@link #escape(String)}
+	 */
+	public JsonTextGenerator(StringBuilder sb, StringCache<char[]> cache) {
+		this.sb = sb;
+		this.cache = cache;
+	}
+
+	/**
+	 * The string quoted and escaped as JSON
+	 */
+	public static char[] escape(String value) {
+		StringBuilder sb = new StringBuilder(value.length() + 2);
+		quote(sb, value);
+		char[] chars = new char[sb.length()];
+		sb.getChars(0, sb.length(), chars, 0);
+		return chars;
+	}
+
+	public StringBuilder getBuffer() {
+		return sb;
+	}
+
+	/**
+	 * Clears the buffer to write the next value
+	 */
+	public JsonTextGenerator reset() {
+		sb.setLength(0);
+		depth = 0;
+		afterKey = false;
+		return this;
+	}
+
+	@Override
+	public String toString() {
+		return sb.toString();
+	}
+
+	@Override
+	public JsonGenerator writeStartObject() {
+		return start('}', '{');
+	}
+
+	@Override
+	public JsonGenerator writeStartObject(String name) {
+		return writeKey(name).writeStartObject();
+	}
+
+	@Override
+	public JsonGenerator writeKey(String name) {
+		if (depth == 0 || ends[depth] != '}' || afterKey)
+			throw new JsonGenerationException("Unexpected key " + name);
+		comma();
+		if (cache == null) {
+			quote(sb, name);
+		} else {
+			sb.append(cache.getName(name));
+		}
+		sb.append(':');
+		afterKey = true;
+		return this;
+	}
+
+	@Override
+	public JsonGenerator writeStartArray() {
+		return start(']', '[');
+	}
+
+	@Override
+	public JsonGenerator writeStartArray(String name) {
+		return writeKey(name).writeStartArray();
+	}
+
+	@Override
+	public JsonGenerator write(String name, JsonValue value) {
+		return writeKey(name).write(value);
+	}
+
+	@Override
+	public JsonGenerator write(String name, String value) {
+		return writeKey(name).write(value);
+	}
+
+	@Override
+	public JsonGenerator write(String name, BigInteger value) {
+		return writeKey(name).write(value);
+	}
+
+	@Override
+	public JsonGenerator write(String name, BigDecimal value) {
+		return writeKey(name).write(value);
+	}
+
+	@Override
+	public JsonGenerator write(String name, int value) {
+		return writeKey(name).write(value);
+	}
+
+	@Override
+	public JsonGenerator write(String name, long value) {
+		return writeKey(name).write(value);
+	}
+
+	@Override
+	public JsonGenerator write(String name, double value) {
+		return writeKey(name).write(value);
+	}
+
+	@Override
+	public JsonGenerator write(String name, boolean value) {
+		return writeKey(name).write(value);
+	}
+
+	@Override
+	public JsonGenerator writeNull(String name) {
+		return writeKey(name).writeNull();
+	}
+
+	@Override
+	public JsonGenerator writeEnd() {
+		if (depth == 0 || afterKey)
+			throw new JsonGenerationException("No object or array to end");
+		sb.append(ends[depth--]);
+		return this;
+	}
+
+	@Override
+	public JsonGenerator write(JsonValue value) {
+		switch (value.getValueType()) {
+		case ARRAY:
+			writeStartArray();
+			for (JsonValue item : (JsonArray) value) {
+				write(item);
+			}
+			return writeEnd();
+		case OBJECT:
+			writeStartObject();
+			for (Map.Entry<String, JsonValue> entry : ((JsonObject) value).entrySet()) {
+				writeKey(entry.getKey()).write(entry.getValue());
+			}
+			return writeEnd();
+		case STRING:
+			return write(((JsonString) value).getString());
+		case NUMBER:
+			return write(((JsonNumber) value).bigDecimalValue());
+		case TRUE:
+			return write(true);
+		case FALSE:
+			return write(false);
+		default:
+			return writeNull();
+		}
+	}
+
+	@Override
+	public JsonGenerator write(String value) {
+		value();
+		char[] escaped = cache == null ? null : cache.getValue(value);
+		if (escaped == null) {
+			quote(sb, value);
+		} else {
+			sb.append(escaped);
+		}
+		return this;
+	}
+
+	@Override
+	public JsonGenerator write(BigDecimal value) {
+		value();
+		sb.append(value);
+		return this;
+	}
+
+	@Override
+	public JsonGenerator write(BigInteger value) {
+		value();
+		sb.append(value);
+		return this;
+	}
+
+	@Override
+	public JsonGenerator write(int value) {
+		value();
+		sb.append(value);
+		return this;
+	}
+
+	@Override
+	public JsonGenerator write(long value) {
+		value();
+		sb.append(value);
+		return this;
+	}
+
+	@Override
+	public JsonGenerator write(double value) {
+		if (!Double.isFinite(value))
+			throw new NumberFormatException("Not a JSON number " + value);
+		value();
+		sb.append(value);
+		return this;
+	}
+
+	/**
+	 * Writes the number as a quoted string, as {@link Long#toString(long)} would
+	 */
+	public JsonGenerator writeString(long value) {
+		value();
+		sb.append('"').append(value).append('"');
+		return this;
+	}
+
+	/**
+	 * Writes the number as a quoted string, as {@link Double#toString(double)}
+	 * would
+	 */
+	public JsonGenerator writeString(double value) {
+		value();
+		sb.append('"').append(value).append('"');
+		return this;
+	}
+
+	@Override
+	public JsonGenerator write(boolean value) {
+		value();
+		sb.append(value);
+		return this;
+	}
+
+	@Override
+	public JsonGenerator writeNull() {
+		value();
+		sb.append("null");
+		return this;
+	}
+
+	@Override
+	public void close() {
+		if (depth > 0)
+			throw new JsonGenerationException("Incomplete JSON value");
+	}
+
+	@Override
+	public void flush() {
+		// the buffer is read by the caller
+	}
+
+	private JsonGenerator start(char end, char start) {
+		value();
+		if (++depth == ends.length) {
+			ends = Arrays.copyOf(ends, depth * 2);
+			first = Arrays.copyOf(first, depth * 2);
+		}
+		ends[depth] = end;
+		first[depth] = true;
+		sb.append(start);
+		return this;
+	}
+
+	private void value() {
+		if (afterKey) {
+			afterKey = false;
+		} else if (depth > 0 && ends[depth] == '}') {
+			throw new JsonGenerationException("Expected a key in an object");
+		} else {
+			comma();
+		}
+	}
+
+	private void comma() {
+		if (depth > 0) {
+			if (!first[depth]) {
+				sb.append(',');
+			}
+			first[depth] = false;
+		}
+	}
+
+	private static void quote(StringBuilder sb, String value) {
+		sb.append('"');
+		for (int i = 0, n = value.length(); i < n; i++) {
+			char c = value.charAt(i);
+			switch (c) {
+			case '"':
+			case '\\':
+				sb.append('\\').append(c);
+				break;
+			case '\b':
+				sb.append("\\b");
+				break;
+			case '\f':
+				sb.append("\\f");
+				break;
+			case '\n':
+				sb.append("\\n");
+				break;
+			case '\r':
+				sb.append("\\r");
+				break;
+			case '\t':
+				sb.append("\\t");
+				break;
+			default:
+				if (c < 0x20) {
+					sb.append("\\u00").append(HEX[c >> 4]).append(HEX[c & 0xF]);
+				} else {
+					sb.append(c);
+				}
+			}
+		}
+		sb.append('"');
+	}
+}
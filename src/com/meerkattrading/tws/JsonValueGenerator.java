@@ -0,0 +1,213 @@
+/*
+ * Copyright (c) 2023 James Leigh
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.meerkattrading.tws;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import javax.json.Json;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonObjectBuilder;
+import javax.json.JsonValue;
+import javax.json.stream.JsonGenerationException;
+import javax.json.stream.JsonGenerator;
+
+/**
+ * Builds a {@link JsonValue} from the {@link JsonGenerator} calls, so values
+ * can be compared before they are written
+ *
+ * @author James Leigh
+ *
+ */
+public class JsonValueGenerator implements JsonGenerator {
+	private final Deque<Frame> stack = new ArrayDeque<>();
+	private String key;
+	private JsonValue value;
+
+	/**
+	 * The completed value
+	 */
+	public JsonValue getValue() {
+		if (!stack.isEmpty())
+			throw new JsonGenerationException("Incomplete JSON value");
+		return value;
+	}
+
+	@Override
+	public JsonGenerator writeStartObject() {
+		stack.push(new Frame(Json.createObjectBuilder(), key));
+		key = null;
+		return this;
+	}
+
+	@Override
+	public JsonGenerator writeStartObject(String name) {
+		return writeKey(name).writeStartObject();
+	}
+
+	@Override
+	public JsonGenerator writeKey(String name) {
+		key = name;
+		return this;
+	}
+
+	@Override
+	public JsonGenerator writeStartArray() {
+		stack.push(new Frame(Json.createArrayBuilder(), key));
+		key = null;
+		return this;
+	}
+
+	@Override
+	public JsonGenerator writeStartArray(String name) {
+		return writeKey(name).writeStartArray();
+	}
+
+	@Override
+	public JsonGenerator write(String name, JsonValue value) {
+		return writeKey(name).write(value);
+	}
+
+	@Override
+	public JsonGenerator write(String name, String value) {
+		return writeKey(name).write(value);
+	}
+
+	@Override
+	public JsonGenerator write(String name, BigInteger value) {
+		return writeKey(name).write(value);
+	}
+
+	@Override
+	public JsonGenerator write(String name, BigDecimal value) {
+		return writeKey(name).write(value);
+	}
+
+	@Override
+	public JsonGenerator write(String name, int value) {
+		return writeKey(name).write(value);
+	}
+
+	@Override
+	public JsonGenerator write(String name, long value) {
+		return writeKey(name).write(value);
+	}
+
+	@Override
+	public JsonGenerator write(String name, double value) {
+		return writeKey(name).write(value);
+	}
+
+	@Override
+	public JsonGenerator write(String name, boolean value) {
+		return writeKey(name).write(value);
+	}
+
+	@Override
+	public JsonGenerator writeNull(String name) {
+		return writeKey(name).writeNull();
+	}
+
+	@Override
+	public JsonGenerator writeEnd() {
+		if (stack.isEmpty())
+			throw new JsonGenerationException("No object or array to end");
+		Frame frame = stack.pop();
+		key = frame.key;
+		if (frame.builder instanceof JsonObjectBuilder) {
+			return write(((JsonObjectBuilder) frame.builder).build());
+		} else {
+			return write(((JsonArrayBuilder) frame.builder).build());
+		}
+	}
+
+	@Override
+	public JsonGenerator write(JsonValue value) {
+		if (stack.isEmpty()) {
+			this.value = value;
+		} else if (stack.peek().builder instanceof JsonArrayBuilder) {
+			((JsonArrayBuilder) stack.peek().builder).add(value);
+		} else if (key == null) {
+			throw new JsonGenerationException("Expected a key before " + value);
+		} else {
+			((JsonObjectBuilder) stack.peek().builder).add(key, value);
+			key = null;
+		}
+		return this;
+	}
+
+	@Override
+	public JsonGenerator write(String value) {
+		return write(Json.createValue(value));
+	}
+
+	@Override
+	public JsonGenerator write(BigDecimal value) {
+		return write(Json.createValue(value));
+	}
+
+	@Override
+	public JsonGenerator write(BigInteger value) {
+		return write(Json.createValue(value));
+	}
+
+	@Override
+	public JsonGenerator write(int value) {
+		return write(Json.createValue(value));
+	}
+
+	@Override
+	public JsonGenerator write(long value) {
+		return write(Json.createValue(value));
+	}
+
+	@Override
+	public JsonGenerator write(double value) {
+		return write(Json.createValue(value));
+	}
+
+	@Override
+	public JsonGenerator write(boolean value) {
+		return write(value ? JsonValue.TRUE : JsonValue.FALSE);
+	}
+
+	@Override
+	public JsonGenerator writeNull() {
+		return write(JsonValue.NULL);
+	}
+
+	@Override
+	public void close() {
+		getValue();
+	}
+
+	@Override
+	public void flush() {
+		// nothing is written until the value is complete
+	}
+
+	private static class Frame {
+		final Object builder;
+		final String key;
+
+		Frame(Object builder, String key) {
+			this.builder = builder;
+			this.key = key;
+		}
+	}
+}
@@ -0,0 +1,398 @@
+/*
+ * Copyright (c) 2023 James Leigh
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.meerkattrading.tws;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Single producer, single consumer ring buffer of records in a memory-mapped
+ * file, so a process on the same host can exchange lines without a socket.
+ *
+ * The file starts with a 256 byte header of little-endian fields: the magic
+ * number (int at 0), version (int at 4), data capacity in bytes (long at 8),
+ * closed flag (int at 16), bytes published by the producer (long at 64), bytes
+ * released by the consumer (long at 128), number of times the producer has
+ * waited for space (long at 192), if the producer is waiting now (int at
+ * 200), and the process id of the producer (long at 208) and of the consumer
+ * (long at 216), or zero if not known. A side waiting on the other closes the
+ * ring when the other process has ended, or, for the producer, when the
+ * consumer has not freed any space within the timeout. Each record in the data
+ * area is a payload length (int), a type (int), a sequence number starting at
+ * one (long) and the payload, padded to 8 bytes.
+ * A padding record, or less than 16 bytes before the end, wraps to the start.
+ *
+ * @author James Leigh
+ *
+ */
+public class MappedRing implements Closeable {
+	private static final VarHandle LONG = MethodHandles.byteBufferViewVarHandle(long[].class,
+			ByteOrder.LITTLE_ENDIAN);
+	private static final VarHandle INT = MethodHandles.byteBufferViewVarHandle(int[].class,
+			ByteOrder.LITTLE_ENDIAN);
+	private static final int MAGIC = 0x54575352;
+	private static final int VERSION = 1;
+	private static final int CAPACITY = 8;
+	private static final int CLOSED = 16;
+	private static final int HEAD = 64;
+	private static final int TAIL = 128;
+	private static final int STALLS = 192;
+	private static final int WAITING = 200;
+	private static final int WRITER_PID = 208;
+	private static final int READER_PID = 216;
+	private static final int HEADER = 256;
+	private static final int RECORD_HEADER = 16;
+	private static final int DATA = 0;
+	private static final int PADDING = 1;
+	private static final int CHECK_INTERVAL = 256;
+	private static final long PID = ProcessHandle.current().pid();
+	private final ByteBuffer buffer;
+	private final long capacity;
+	private long sequence;
+	private long record = -1;
+	private int recordLength;
+	private int recordRead;
+	private boolean writer;
+	private boolean reader;
+	private long timeout;
+
+	/**
+	 * Creates (or replaces) the ring file with the given data capacity
+	 */
+	public static MappedRing create(Path file, int capacity) throws IOException {
+		if (capacity < RECORD_HEADER || capacity % 8 != 0)
+			throw new IllegalArgumentException("Ring capacity must be a multiple of 8, but got " + capacity);
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			ByteBuffer buffer = channel.map(MapMode.READ_WRITE, 0, HEADER + capacity).order(ByteOrder.LITTLE_ENDIAN);
+			buffer.putLong(CAPACITY, capacity);
+			buffer.putInt(CLOSED, 0);
+			buffer.putLong(HEAD, 0);
+			buffer.putLong(TAIL, 0);
+			buffer.putLong(STALLS, 0);
+			buffer.putInt(WAITING, 0);
+			buffer.putLong(WRITER_PID, 0);
+			buffer.putLong(READER_PID, 0);
+			buffer.putInt(4, VERSION);
+			INT.setRelease(buffer, 0, MAGIC);
+			return new MappedRing(buffer);
+		}
+	}
+
+	/**
+	 * Opens a ring file that was created by another process
+	 */
+	public static MappedRing open(Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			ByteBuffer buffer = channel.map(MapMode.READ_WRITE, 0, channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+			if ((int) INT.getAcquire(buffer, 0) != MAGIC || buffer.getInt(4) != VERSION)
+				throw new IOException("Not a ring file " + file);
+			return new MappedRing(buffer);
+		}
+	}
+
+	private MappedRing(ByteBuffer buffer) {
+		this.buffer = buffer;
+		this.capacity = buffer.getLong(CAPACITY);
+	}
+
+	/**
+	 * How long, in milliseconds, the producer waits for the consumer to free
+	 * any space before closing the ring, or zero to wait as long as the consumer
+	 * process is alive
+	 */
+	public void setTimeout(long timeout) {
+		this.timeout = timeout;
+	}
+
+	public boolean isClosed() {
+		return (int) INT.getAcquire(buffer, CLOSED) != 0;
+	}
+
+	/**
+	 * Marks the ring as closed, the consumer reaches the end after reading any
+	 * records already published
+	 */
+	@Override
+	public void close() {
+		INT.setRelease(buffer, CLOSED, 1);
+	}
+
+	/**
+	 * Number of times the producer has had to wait for the consumer to free space
+	 */
+	public long getStalls() {
+		return (long) LONG.getAcquire(buffer, STALLS);
+	}
+
+	/**
+	 * Sequence number of the last record written or read by this side
+	 */
+	public long getSequence() {
+		return sequence;
+	}
+
+	/**
+	 * Publishes a record, or returns false if there is not enough free space
+	 */
+	public boolean offer(byte[] b, int off, int len) throws IOException {
+		long size = align(RECORD_HEADER + len);
+		if (size > capacity)
+			throw new IOException("Record of " + len + " bytes is too large for the ring");
+		if (isClosed())
+			throw new EOFException("Ring is closed");
+		if (!writer) {
+			writer = true;
+			LONG.setRelease(buffer, WRITER_PID, PID);
+		}
+		long head = (long) LONG.getOpaque(buffer, HEAD);
+		long tail = (long) LONG.getAcquire(buffer, TAIL);
+		int index = (int) (head % capacity);
+		long contiguous = capacity - index;
+		if (contiguous < size) {
+			// the padding is published on its own, as a record larger than the
+			// space before the head would overwrite it, and is written once the
+			// consumer has passed it
+			if (capacity - (head - tail) < contiguous)
+				return false;
+			if (contiguous >= RECORD_HEADER) {
+				buffer.putInt(HEADER + index, 0);
+				buffer.putInt(HEADER + index + 4, PADDING);
+			}
+			head += contiguous;
+			LONG.setRelease(buffer, HEAD, head);
+			index = 0;
+		}
+		if (capacity - (head - tail) < size)
+			return false;
+		buffer.put(HEADER + index + RECORD_HEADER, b, off, len);
+		buffer.putInt(HEADER + index, len);
+		buffer.putInt(HEADER + index + 4, DATA);
+		buffer.putLong(HEADER + index + 8, ++sequence);
+		LONG.setRelease(buffer, HEAD, head + size);
+		return true;
+	}
+
+	/**
+	 * Publishes a record, waiting for the consumer to free space if needed
+	 */
+	public void put(byte[] b, int off, int len) throws IOException {
+		if (offer(b, off, len))
+			return;
+		LONG.getAndAdd(buffer, STALLS, 1L);
+		INT.setRelease(buffer, WAITING, 1);
+		try {
+			long tail = (long) LONG.getAcquire(buffer, TAIL);
+			long since = System.nanoTime();
+			for (int idle = 0; !offer(b, off, len); idle++) {
+				if (idle % CHECK_INTERVAL == CHECK_INTERVAL - 1) {
+					long released = (long) LONG.getAcquire(buffer, TAIL);
+					if (released != tail) {
+						tail = released;
+						since = System.nanoTime();
+					} else if (timeout > 0 && System.nanoTime() - since > timeout * 1000000L) {
+						close();
+						throw new EOFException("Ring consumer has not read for " + timeout + "ms");
+					} else if (!isAlive(READER_PID)) {
+						close();
+						throw new EOFException("Ring consumer process has ended");
+					}
+				}
+				backoff(idle);
+			}
+		} finally {
+			INT.setRelease(buffer, WAITING, 0);
+		}
+	}
+
+	/**
+	 * Copies up to len bytes of the current record, returning 0 if no record is
+	 * available yet or -1 if the ring is closed and has no more records
+	 */
+	public int take(byte[] b, int off, int len) throws IOException {
+		if (!reader) {
+			reader = true;
+			LONG.setRelease(buffer, READER_PID, PID);
+		}
+		if (record < 0 && !next()) {
+			return isClosed() && !next() ? -1 : 0;
+		}
+		int n = Math.min(len, recordLength - recordRead);
+		int index = (int) (record % capacity);
+		buffer.get(HEADER + index + RECORD_HEADER + recordRead, b, off, n);
+		recordRead += n;
+		if (recordRead >= recordLength) {
+			LONG.setRelease(buffer, TAIL, record + align(RECORD_HEADER + recordLength));
+			record = -1;
+		}
+		return n;
+	}
+
+	/**
+	 * Number of bytes remaining in the current record
+	 */
+	public int available() {
+		return record < 0 ? 0 : recordLength - recordRead;
+	}
+
+	public InputStream getInputStream() {
+		return new InputStream() {
+
+			@Override
+			public int read() throws IOException {
+				byte[] b = new byte[1];
+				return read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+			}
+
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				if (len == 0)
+					return 0;
+				int read;
+				for (int idle = 0; (read = take(b, off, len)) == 0; idle++) {
+					if (idle % CHECK_INTERVAL == CHECK_INTERVAL - 1 && !isAlive(WRITER_PID)) {
+						MappedRing.this.close();
+					}
+					backoff(idle);
+				}
+				return read;
+			}
+
+			@Override
+			public int available() {
+				return MappedRing.this.available();
+			}
+
+			@Override
+			public void close() {
+				MappedRing.this.close();
+			}
+		};
+	}
+
+	/**
+	 * Each flush publishes the bytes written since the previous flush as one
+	 * record
+	 */
+	public OutputStream getOutputStream() {
+		return new OutputStream() {
+			private byte[] buf = new byte[256];
+			private int count;
+
+			@Override
+			public void write(int b) {
+				ensureCapacity(count + 1);
+				buf[count++] = (byte) b;
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) {
+				ensureCapacity(count + len);
+				System.arraycopy(b, off, buf, count, len);
+				count += len;
+			}
+
+			@Override
+			public void flush() throws IOException {
+				if (count > 0) {
+					put(buf, 0, count);
+					count = 0;
+				}
+			}
+
+			@Override
+			public void close() throws IOException {
+				try {
+					flush();
+				} finally {
+					MappedRing.this.close();
+				}
+			}
+
+			private void ensureCapacity(int min) {
+				if (min > buf.length) {
+					buf = Arrays.copyOf(buf, Math.max(min, buf.length * 2));
+				}
+			}
+		};
+	}
+
+	/**
+	 * Finds the next data record, skipping any padding at the end of the ring
+	 */
+	private boolean next() throws IOException {
+		long tail = (long) LONG.getOpaque(buffer, TAIL);
+		long head = (long) LONG.getAcquire(buffer, HEAD);
+		while (tail < head) {
+			int index = (int) (tail % capacity);
+			long contiguous = capacity - index;
+			if (contiguous < RECORD_HEADER || buffer.getInt(HEADER + index + 4) == PADDING) {
+				tail += contiguous;
+				LONG.setRelease(buffer, TAIL, tail);
+			} else {
+				long seq = buffer.getLong(HEADER + index + 8);
+				if (seq != sequence + 1)
+					throw new IOException("Expected ring record " + (sequence + 1) + ", but got " + seq);
+				sequence = seq;
+				record = tail;
+				recordLength = buffer.getInt(HEADER + index);
+				recordRead = 0;
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * If the process id at the given header offset is alive, or not known
+	 */
+	private boolean isAlive(int offset) {
+		long pid = (long) LONG.getAcquire(buffer, offset);
+		if (pid == 0 || pid == PID)
+			return true;
+		return ProcessHandle.of(pid).map(ProcessHandle::isAlive).orElse(false);
+	}
+
+	private void backoff(int idle) throws IOException {
+		if (Thread.interrupted())
+			throw new InterruptedIOException();
+		if (idle < 100) {
+			Thread.onSpinWait();
+		} else if (idle < 200) {
+			Thread.yield();
+		} else {
+			LockSupport.parkNanos(Math.min(1000000L, 1000L * (idle - 199)));
+		}
+	}
+
+	private static long align(long size) {
+		return (size + 7) & ~7L;
+	}
+}
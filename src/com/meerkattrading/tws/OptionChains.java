@@ -0,0 +1,333 @@
+/*
+ * Copyright (c) 2023 James Leigh
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.meerkattrading.tws;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import com.ib.client.Contract;
+
+/**
+ * Keeps the prices and model option computations of the registered options of
+ * each chain. A chain is seeded by the expirations and strikes of the
+ * securityDefinitionOptionalParameter events of its reqId, until its first
+ * market data ticker is registered with the expiration, strike and right of
+ * its contract. Snapshots only have the expirations and strikes of registered
+ * options. The tick events of registered tickers are taken in place of
+ * issuing them.
+ *
+ * @author James Leigh
+ *
+ */
+public class OptionChains implements EWrapperListener {
+	private static final String[] FIELDS = { "bid", "ask", "last", "impliedVol", "delta", "gamma", "vega", "theta",
+			"optPrice", "undPrice" };
+	private static final int BID = 0;
+	private static final int ASK = 1;
+	private static final int LAST = 2;
+	private static final int IMPLIED_VOL = 3;
+	private static final int DELTA = 4;
+	private static final int GAMMA = 5;
+	private static final int VEGA = 6;
+	private static final int THETA = 7;
+	private static final int OPT_PRICE = 8;
+	private static final int UND_PRICE = 9;
+	private static final int WIDTH = FIELDS.length;
+	private static final int TICK_BID = 1;
+	private static final int TICK_ASK = 2;
+	private static final int TICK_LAST = 4;
+	private static final int TICK_DELAYED_BID = 66;
+	private static final int TICK_DELAYED_ASK = 67;
+	private static final int TICK_DELAYED_LAST = 68;
+	private static final int TICK_MODEL_OPTION = 13;
+	private static final int TICK_DELAYED_MODEL_OPTION = 83;
+
+	/**
+	 * Receives the snapshot of a changed chain
+	 */
+	public interface Listener {
+		void optionChain(int chainId, String[] expirations, Double[] strikes, Map<String, Double[]> calls,
+				Map<String, Double[]> puts);
+	}
+
+	/**
+	 * The latest values of a registered option
+	 */
+	private static class Option {
+		final String expiration;
+		final double strike;
+		final boolean call;
+		final double[] values = new double[WIDTH];
+
+		Option(String expiration, double strike, boolean call) {
+			this.expiration = expiration;
+			this.strike = strike;
+			this.call = call;
+			Arrays.fill(values, Double.NaN);
+		}
+	}
+
+	/**
+	 * The seeded expirations and strikes of a chain, and its registered options
+	 * by key and by tickerId
+	 */
+	private static class Chain {
+		final Set<String> seedExpirations = new HashSet<>();
+		final Set<Double> seedStrikes = new HashSet<>();
+		final Map<String, Option> options = new HashMap<>();
+		final Map<Integer, Option> tickers = new HashMap<>();
+		boolean changed;
+
+		void seed(Collection<String> expirations, Collection<Double> strikes) {
+			if (expirations != null) {
+				seedExpirations.addAll(expirations);
+			}
+			if (strikes != null) {
+				seedStrikes.addAll(strikes);
+			}
+		}
+
+		/**
+		 * The option of the expiration, strike and right, added if new, or null if
+		 * it is not in the chain
+		 */
+		Option getOption(String expiration, double strike, String right) {
+			if (!seedExpirations.contains(expiration) || !seedStrikes.contains(strike) || right == null
+					|| right.isEmpty())
+				return null;
+			char r = Character.toUpperCase(right.charAt(0));
+			if (r != 'C' && r != 'P')
+				return null;
+			return options.computeIfAbsent(expiration + ":" + strike + ":" + r,
+					k -> new Option(expiration, strike, r == 'C'));
+		}
+
+		void set(Option option, int field, double value) {
+			option.values[field] = value;
+			changed = true;
+		}
+
+		/**
+		 * The expirations, strikes, calls and puts of the registered options, with
+		 * one value per field, expiration and strike, strikes first
+		 */
+		Object[] snapshot() {
+			TreeSet<String> expirationSet = new TreeSet<>();
+			TreeSet<Double> strikeSet = new TreeSet<>();
+			for (Option option : options.values()) {
+				expirationSet.add(option.expiration);
+				strikeSet.add(option.strike);
+			}
+			String[] expirations = expirationSet.toArray(new String[expirationSet.size()]);
+			Double[] strikes = strikeSet.toArray(new Double[strikeSet.size()]);
+			int size = expirations.length * strikes.length * WIDTH;
+			double[] calls = new double[size];
+			double[] puts = new double[size];
+			Arrays.fill(calls, Double.NaN);
+			Arrays.fill(puts, Double.NaN);
+			for (Option option : options.values()) {
+				int e = Arrays.binarySearch(expirations, option.expiration);
+				int s = Arrays.binarySearch(strikes, option.strike);
+				System.arraycopy(option.values, 0, option.call ? calls : puts, (e * strikes.length + s) * WIDTH,
+						WIDTH);
+			}
+			return new Object[] { expirations, strikes, getValues(calls), getValues(puts) };
+		}
+
+		Map<String, Double[]> getValues(double[] values) {
+			Map<String, Double[]> map = new LinkedHashMap<>();
+			int count = values.length / WIDTH;
+			for (int f = 0; f < WIDTH; f++) {
+				Double[] column = new Double[count];
+				boolean assigned = false;
+				for (int i = 0; i < count; i++) {
+					double value = values[i * WIDTH + f];
+					if (!Double.isNaN(value) && value != Double.MAX_VALUE) {
+						column[i] = value;
+						assigned = true;
+					}
+				}
+				if (assigned) {
+					map.put(FIELDS[f], column);
+				}
+			}
+			return map;
+		}
+	}
+
+	private final Map<Integer, Chain> chains = new HashMap<>();
+	private final Map<Integer, Chain> chainsByTickerId = new HashMap<>();
+
+	/**
+	 * Starts a chain to be seeded by the securityDefinitionOptionalParameter
+	 * events of the chainId
+	 */
+	public synchronized void createChain(int chainId) {
+		if (chains.containsKey(chainId))
+			throw new IllegalArgumentException("Option chain " + chainId + " is already in use");
+		chains.put(chainId, new Chain());
+	}
+
+	/**
+	 * Adds the market data tickerId of an option to its chain
+	 */
+	public synchronized void addTicker(int chainId, int tickerId, Contract contract) {
+		Chain chain = chains.get(chainId);
+		if (chain == null)
+			throw new IllegalArgumentException("Unknown option chain " + chainId);
+		if (chainsByTickerId.containsKey(tickerId))
+			throw new IllegalArgumentException("Ticker " + tickerId + " is already in an option chain");
+		Option option = chain.getOption(contract.lastTradeDateOrContractMonth(), contract.strike(),
+				String.valueOf(contract.right()));
+		if (option == null)
+			throw new IllegalArgumentException("The contract is not in option chain " + chainId);
+		chain.tickers.put(tickerId, option);
+		chainsByTickerId.put(tickerId, chain);
+	}
+
+	/**
+	 * Removes the chain
+	 *
+	 * @return the market data tickerIds of the chain to cancel
+	 */
+	public synchronized int[] removeChain(int chainId) {
+		Chain chain = chains.remove(chainId);
+		if (chain == null)
+			return new int[0];
+		int[] tickerIds = new int[chain.tickers.size()];
+		int i = 0;
+		for (Integer tickerId : chain.tickers.keySet()) {
+			chainsByTickerId.remove(tickerId);
+			tickerIds[i++] = tickerId;
+		}
+		return tickerIds;
+	}
+
+	/**
+	 * Forgets all chains
+	 */
+	public synchronized void clear() {
+		chains.clear();
+		chainsByTickerId.clear();
+	}
+
+	/**
+	 * Applies an EWrapper event to its chain
+	 *
+	 * @return true if the event was a tick of an option in a chain
+	 */
+	@Override
+	public synchronized boolean update(String event, Object[] args) {
+		switch (event) {
+		case "securityDefinitionOptionalParameter":
+			return seed((Integer) args[0], (Collection<?>) args[5], (Collection<?>) args[6]);
+		case "tickPrice":
+			return tickPrice((Integer) args[0], (Integer) args[1], (Double) args[2]);
+		case "tickOptionComputation":
+			return tickOptionComputation((Integer) args[0], (Integer) args[1], args);
+		case "tickSize":
+		case "tickString":
+		case "tickGeneric":
+		case "tickReqParams":
+		case "tickSnapshotEnd":
+			return args.length > 0 && chainsByTickerId.containsKey(args[0]);
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * Passes the snapshot of the chain, if it changed since the last call. The
+	 * snapshot is copied while holding this monitor and passed to the listener
+	 * after it is released.
+	 */
+	@SuppressWarnings("unchecked")
+	public void drainChanged(int chainId, Listener listener) {
+		Object[] snapshot;
+		synchronized (this) {
+			Chain chain = chains.get(chainId);
+			if (chain == null || !chain.changed)
+				return;
+			chain.changed = false;
+			snapshot = chain.snapshot();
+		}
+		listener.optionChain(chainId, (String[]) snapshot[0], (Double[]) snapshot[1],
+				(Map<String, Double[]>) snapshot[2], (Map<String, Double[]>) snapshot[3]);
+	}
+
+	private boolean seed(int reqId, Collection<?> expirations, Collection<?> strikes) {
+		Chain chain = chains.get(reqId);
+		if (chain == null || !chain.tickers.isEmpty())
+			return false;
+		List<String> exp = expirations == null ? List.of() : Arrays.asList(expirations.toArray(new String[0]));
+		List<Double> str = strikes == null ? List.of() : Arrays.asList(strikes.toArray(new Double[0]));
+		chain.seed(exp, str);
+		return false;
+	}
+
+	private boolean tickPrice(int tickerId, int field, double price) {
+		Chain chain = chainsByTickerId.get(tickerId);
+		if (chain == null)
+			return false;
+		Option option = chain.tickers.get(tickerId);
+		switch (field) {
+		case TICK_BID:
+		case TICK_DELAYED_BID:
+			chain.set(option, BID, price);
+			break;
+		case TICK_ASK:
+		case TICK_DELAYED_ASK:
+			chain.set(option, ASK, price);
+			break;
+		case TICK_LAST:
+		case TICK_DELAYED_LAST:
+			chain.set(option, LAST, price);
+			break;
+		default:
+			break;
+		}
+		return true;
+	}
+
+	/**
+	 * Stores the model computation values, which follow the tickAttrib in the
+	 * order impliedVol, delta, optPrice, pvDividend, gamma, vega, theta and
+	 * undPrice
+	 */
+	private boolean tickOptionComputation(int tickerId, int field, Object[] args) {
+		Chain chain = chainsByTickerId.get(tickerId);
+		if (chain == null)
+			return false;
+		if (field == TICK_MODEL_OPTION || field == TICK_DELAYED_MODEL_OPTION) {
+			Option option = chain.tickers.get(tickerId);
+			chain.set(option, IMPLIED_VOL, (Double) args[3]);
+			chain.set(option, DELTA, (Double) args[4]);
+			chain.set(option, OPT_PRICE, (Double) args[5]);
+			chain.set(option, GAMMA, (Double) args[7]);
+			chain.set(option, VEGA, (Double) args[8]);
+			chain.set(option, THETA, (Double) args[9]);
+			chain.set(option, UND_PRICE, (Double) args[10]);
+		}
+		return true;
+	}
+}
@@ -0,0 +1,339 @@
+/*
+ * Copyright (c) 2023 James Leigh
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.meerkattrading.tws;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.ib.client.Contract;
+import com.ib.client.Decimal;
+import com.ib.client.Order;
+import com.ib.client.OrderState;
+
+/**
+ * Keeps the latest openOrder, orderStatus and completedOrder state of each
+ * order, indexed by permId, by clientId and orderId, and by orderRef. Orders
+ * that are done are evicted, oldest first, once there are more than the limit.
+ *
+ * @author James Leigh
+ *
+ */
+public class OrderStore implements EWrapperListener {
+	private static final Set<String> DONE = Set.of("Filled", "Cancelled", "ApiCancelled", "Inactive");
+
+	/**
+	 * The latest known state of an order
+	 */
+	public static class Entry {
+		private int orderId;
+		private long permId;
+		private int clientId;
+		private String orderRef;
+		private Contract contract;
+		private Order order;
+		private OrderState orderState;
+		private String status;
+		private Decimal filled;
+		private Decimal remaining;
+		private double avgFillPrice;
+		private double lastFillPrice;
+		private int parentId;
+		private String whyHeld;
+		private boolean done;
+
+		public int getOrderId() {
+			return orderId;
+		}
+
+		public long getPermId() {
+			return permId;
+		}
+
+		public int getClientId() {
+			return clientId;
+		}
+
+		public String getOrderRef() {
+			return orderRef;
+		}
+
+		public Contract getContract() {
+			return contract;
+		}
+
+		public Order getOrder() {
+			return order;
+		}
+
+		public OrderState getOrderState() {
+			return orderState;
+		}
+
+		public String getStatus() {
+			return status;
+		}
+
+		public Decimal getFilled() {
+			return filled;
+		}
+
+		public Decimal getRemaining() {
+			return remaining;
+		}
+
+		public double getAvgFillPrice() {
+			return avgFillPrice;
+		}
+
+		public double getLastFillPrice() {
+			return lastFillPrice;
+		}
+
+		public int getParentId() {
+			return parentId;
+		}
+
+		public String getWhyHeld() {
+			return whyHeld;
+		}
+
+		public boolean isDone() {
+			return done;
+		}
+
+		Entry copy() {
+			Entry copy = new Entry();
+			copy.orderId = orderId;
+			copy.permId = permId;
+			copy.clientId = clientId;
+			copy.orderRef = orderRef;
+			copy.contract = contract;
+			copy.order = order;
+			copy.orderState = orderState;
+			copy.status = status;
+			copy.filled = filled;
+			copy.remaining = remaining;
+			copy.avgFillPrice = avgFillPrice;
+			copy.lastFillPrice = lastFillPrice;
+			copy.parentId = parentId;
+			copy.whyHeld = whyHeld;
+			copy.done = done;
+			return copy;
+		}
+	}
+
+	private final int maxDone;
+	private final Set<Entry> entries = new LinkedHashSet<>();
+	private final Set<Entry> done = new LinkedHashSet<>();
+	private final Map<Long, Entry> byPermId = new HashMap<>();
+	private final Map<Long, Entry> byOrderId = new HashMap<>();
+	private final Map<String, Set<Entry>> byOrderRef = new HashMap<>();
+
+	/**
+	 * @param maxDone the number of filled, cancelled or inactive orders to keep
+	 */
+	public OrderStore(int maxDone) {
+		this.maxDone = maxDone;
+	}
+
+	/**
+	 * Updates the store from an EWrapper event, ignoring other events
+	 */
+	@Override
+	public boolean update(String event, Object[] args) {
+		switch (event) {
+		case "openOrder":
+			openOrder((Integer) args[0], (Contract) args[1], (Order) args[2], (OrderState) args[3]);
+			break;
+		case "orderStatus":
+			orderStatus((Integer) args[0], (String) args[1], (Decimal) args[2], (Decimal) args[3], (Double) args[4],
+					((Number) args[5]).longValue(), (Integer) args[6], (Double) args[7], (Integer) args[8],
+					(String) args[9]);
+			break;
+		case "completedOrder":
+			completedOrder((Contract) args[0], (Order) args[1], (OrderState) args[2]);
+			break;
+		default:
+			break;
+		}
+		return false;
+	}
+
+	public synchronized void openOrder(int orderId, Contract contract, Order order, OrderState orderState) {
+		if (order == null)
+			return;
+		Entry entry = getEntry(order.permId(), order.clientId(), orderId);
+		setOrderRef(entry, order.orderRef());
+		entry.contract = contract;
+		entry.order = order;
+		entry.orderState = orderState;
+		if (orderState != null && orderState.getStatus() != null) {
+			setStatus(entry, orderState.getStatus());
+		}
+	}
+
+	public synchronized void orderStatus(int orderId, String status, Decimal filled, Decimal remaining,
+			double avgFillPrice, long permId, int parentId, double lastFillPrice, int clientId, String whyHeld) {
+		Entry entry = getEntry(permId, clientId, orderId);
+		entry.filled = filled;
+		entry.remaining = remaining;
+		entry.avgFillPrice = avgFillPrice;
+		entry.lastFillPrice = lastFillPrice;
+		entry.parentId = parentId;
+		entry.whyHeld = whyHeld;
+		setStatus(entry, status);
+	}
+
+	public synchronized void completedOrder(Contract contract, Order order, OrderState orderState) {
+		if (order == null)
+			return;
+		Entry entry = getEntry(order.permId(), order.clientId(), order.orderId());
+		setOrderRef(entry, order.orderRef());
+		entry.contract = contract;
+		entry.order = order;
+		entry.orderState = orderState;
+		entry.status = orderState == null ? entry.status : orderState.getStatus();
+		if (!entry.done) {
+			entry.done = true;
+			done.add(entry);
+			evict();
+		}
+	}
+
+	/**
+	 * Copies of the orders that match every given (non-null) criteria, in the
+	 * order they were first seen
+	 */
+	public synchronized List<Entry> find(Integer orderId, Long permId, Integer clientId, String orderRef) {
+		Collection<Entry> candidates;
+		if (permId != null) {
+			Entry entry = byPermId.get(permId);
+			candidates = entry == null ? Collections.emptySet() : Collections.singleton(entry);
+		} else if (orderId != null && clientId != null) {
+			Entry entry = byOrderId.get(key(clientId, orderId));
+			candidates = entry == null ? Collections.emptySet() : Collections.singleton(entry);
+		} else if (orderRef != null) {
+			candidates = byOrderRef.getOrDefault(orderRef, Collections.emptySet());
+		} else {
+			candidates = entries;
+		}
+		List<Entry> result = new ArrayList<>();
+		for (Entry entry : candidates) {
+			if ((orderId == null || orderId == entry.orderId) && (clientId == null || clientId == entry.clientId)
+					&& (orderRef == null || orderRef.equals(entry.orderRef))) {
+				result.add(entry.copy());
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Forgets all orders
+	 */
+	public synchronized void clear() {
+		entries.clear();
+		done.clear();
+		byPermId.clear();
+		byOrderId.clear();
+		byOrderRef.clear();
+	}
+
+	/**
+	 * The entry of the order by permId, or clientId and orderId, added if new. An
+	 * entry found by clientId and orderId with a different permId is another
+	 * order that used the same orderId, and is only replaced in that index if it
+	 * is done.
+	 */
+	private Entry getEntry(long permId, int clientId, int orderId) {
+		Entry entry = permId == 0 ? null : byPermId.get(permId);
+		if (entry == null && orderId != 0) {
+			entry = byOrderId.get(key(clientId, orderId));
+			if (entry != null && permId != 0 && entry.permId != 0 && entry.permId != permId) {
+				entry = null;
+			}
+		}
+		if (entry == null) {
+			entry = new Entry();
+			entries.add(entry);
+		}
+		if (permId != 0 && entry.permId == 0) {
+			entry.permId = permId;
+			byPermId.put(permId, entry);
+		}
+		if (orderId != 0 && entry.orderId == 0) {
+			entry.orderId = orderId;
+			entry.clientId = clientId;
+			Entry previous = byOrderId.get(key(clientId, orderId));
+			if (previous == null || previous.done) {
+				byOrderId.put(key(clientId, orderId), entry);
+			}
+		}
+		return entry;
+	}
+
+	private void setOrderRef(Entry entry, String orderRef) {
+		if (orderRef != null && !orderRef.isEmpty() && !orderRef.equals(entry.orderRef)) {
+			removeOrderRef(entry);
+			entry.orderRef = orderRef;
+			byOrderRef.computeIfAbsent(orderRef, k -> new LinkedHashSet<>()).add(entry);
+		}
+	}
+
+	private void removeOrderRef(Entry entry) {
+		Set<Entry> set = entry.orderRef == null ? null : byOrderRef.get(entry.orderRef);
+		if (set != null) {
+			set.remove(entry);
+			if (set.isEmpty()) {
+				byOrderRef.remove(entry.orderRef);
+			}
+		}
+	}
+
+	private void setStatus(Entry entry, String status) {
+		entry.status = status;
+		if (DONE.contains(status) && !entry.done) {
+			entry.done = true;
+			done.add(entry);
+			evict();
+		}
+	}
+
+	/**
+	 * Removes the oldest done orders beyond the limit
+	 */
+	private void evict() {
+		Iterator<Entry> iter = done.iterator();
+		while (done.size() > maxDone && iter.hasNext()) {
+			Entry entry = iter.next();
+			iter.remove();
+			entries.remove(entry);
+			byPermId.remove(entry.permId, entry);
+			byOrderId.remove(key(entry.clientId, entry.orderId), entry);
+			removeOrderRef(entry);
+		}
+	}
+
+	private long key(int clientId, int orderId) {
+		return (long) clientId << 32 | orderId & 0xFFFFFFFFL;
+	}
+}
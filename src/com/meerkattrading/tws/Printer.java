@@ -15,25 +15,46 @@
  */
 package com.meerkattrading.tws;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+
+import javax.json.JsonValue;
 
 /**
- * Serializes the output into JSON
+ * Serializes the output into JSON lines, or a sequence of CBOR arrays
  *
  * @author James Leigh
  *
  */
 public class Printer {
 	private final Prompter prompter;
+	private final OutputStream stream;
 	private final PrintWriter out;
 	private final Serializer serializer = new Serializer();
+	private final Serializer binary = new Serializer(true);
+	private volatile String encoding = "json";
 	private final Map<Type, PropertyType> types = new HashMap<>();
+	private final Set<Type> described = new HashSet<>();
+	private volatile Set<String> subscribed;
+	private volatile Set<String> unsubscribed = Collections.emptySet();
+	private DeltaEncoder delta;
+	private ColumnBatcher columns;
+	private final StringCache<char[]> jsonStrings = new StringCache<>(JsonTextGenerator::escape, 1024, 32);
+	private final StringCache<byte[]> cborStrings = new StringCache<>(CborGenerator::encodeText, 1024, 32);
+	private JsonTextGenerator text = new JsonTextGenerator(new StringBuilder(), jsonStrings);
+	private char[] chars = new char[1024];
 
 	public Printer(OutputStream out) {
 		this(new Prompter(), out);
@@ -41,9 +62,148 @@ public class Printer {
 
 	public Printer(Prompter prompter, OutputStream out) {
 		this.prompter = prompter;
+		this.stream = out;
 		this.out = new PrintWriter(out);
 	}
 
+	public String getEncoding() {
+		return encoding;
+	}
+
+	/**
+	 * Either "json" for tab separated lines, or "cbor" for each event as a CBOR
+	 * array of the event name followed by its values
+	 */
+	public void setEncoding(String encoding) throws IOException {
+		if (!"json".equals(encoding) && !"cbor".equals(encoding))
+			throw new IllegalArgumentException("Unsupported encoding " + encoding);
+		synchronized (prompter) {
+			if (!encoding.equals(this.encoding)) {
+				// contract handles given in one encoding are not known to the other
+				serializer.setInterning(serializer.isInterning());
+				binary.setInterning(binary.isInterning());
+			}
+			this.encoding = encoding;
+			if (stream instanceof WebSocket.MessageOutputStream) {
+				out.flush();
+				((WebSocket.MessageOutputStream) stream).setBinary("cbor".equals(encoding));
+			}
+		}
+	}
+
+	/**
+	 * If objects are written as positional arrays, after a schema event with the
+	 * property names of their type
+	 */
+	public void setPositional(boolean positional) {
+		synchronized (prompter) {
+			serializer.setPositional(positional);
+			binary.setPositional(positional);
+		}
+	}
+
+	/**
+	 * Only the given properties of the type are printed, or all of them if none
+	 * are given
+	 */
+	public void setProjection(String typeName, Set<String> properties) {
+		synchronized (prompter) {
+			serializer.setProjection(typeName, properties);
+			binary.setProjection(typeName, properties);
+		}
+	}
+
+	/**
+	 * If the event should be printed, checked before any serialization is done
+	 */
+	public boolean isSubscribed(String event) {
+		Set<String> only = subscribed;
+		return only == null ? !unsubscribed.contains(event) : only.contains(event);
+	}
+
+	/**
+	 * Only the given events are printed from now on, or all events if none are
+	 * given
+	 */
+	public synchronized void subscribeEvents(Set<String> events) {
+		if (events == null || events.isEmpty()) {
+			subscribed = null;
+		} else {
+			subscribed = Collections.unmodifiableSet(new HashSet<>(events));
+		}
+		unsubscribed = Collections.emptySet();
+	}
+
+	/**
+	 * The given events are no longer printed
+	 */
+	public synchronized void unsubscribeEvents(Set<String> events) {
+		if (subscribed != null) {
+			Set<String> only = new HashSet<>(subscribed);
+			only.removeAll(events);
+			subscribed = Collections.unmodifiableSet(only);
+		} else {
+			Set<String> except = new HashSet<>(unsubscribed);
+			except.addAll(events);
+			unsubscribed = Collections.unmodifiableSet(except);
+		}
+	}
+
+	/**
+	 * If non-integer numbers and decimal values are printed as JSON numbers,
+	 * instead of strings
+	 */
+	public void setNativeNumbers(boolean nativeNumbers) {
+		synchronized (prompter) {
+			serializer.setNativeNumbers(nativeNumbers);
+		}
+	}
+
+	/**
+	 * If each distinct contract is printed once in a contract event, and
+	 * referred to by its handle after that
+	 */
+	public void setInterning(boolean interning) {
+		synchronized (prompter) {
+			serializer.setInterning(interning);
+			binary.setInterning(interning);
+		}
+	}
+
+	/**
+	 * Prints the contract event again for a handle that was printed before
+	 */
+	public void printContract(int handle) throws IllegalAccessException, InvocationTargetException, IOException {
+		synchronized (prompter) {
+			Serializer ser = "cbor".equals(encoding) ? binary : serializer;
+			JsonValue contract = ser.getInternedContract(handle);
+			if (contract == null)
+				throw new IllegalArgumentException("Unknown contract handle " + handle);
+			println("contract", new Type[] { int.class, JsonValue.class }, handle, contract);
+		}
+	}
+
+	/**
+	 * If historicalData bars and historical ticks are buffered until the end of
+	 * each request, and printed as arrays of values per property
+	 */
+	public void setColumnar(boolean columnar) {
+		synchronized (prompter) {
+			columns = columnar ? new ColumnBatcher() : null;
+		}
+	}
+
+	/**
+	 * If updatePortfolio, updateAccountValue, orderStatus and openOrder events
+	 * are only printed when changed, and as a delta when only some object
+	 * properties changed, with all values printed again every refreshMillis
+	 */
+	public void setDelta(boolean enabled, long refreshMillis) {
+		synchronized (prompter) {
+			delta = enabled ? new DeltaEncoder(refreshMillis) : null;
+		}
+	}
+
 	public void flush() throws IOException {
 		out.flush();
 	}
@@ -91,23 +251,154 @@ public class Printer {
 	public void println(String command, Type[] types, Object... args)
 			throws IllegalAccessException, InvocationTargetException, IOException {
 		synchronized (prompter) {
-			prompter.returnLine();
-			if (args == null || args.length < 1) {
-				out.println(command);
+			if (columns != null && args != null && columns.isBatched(command)) {
+				printColumns(command, types, args);
+			} else if (delta != null && args != null && delta.isKeyed(command)) {
+				printDelta(command, types, args);
 			} else {
-				String[] json = new String[args.length];
+				if (columns != null && "error".equals(command) && EWrapperListener.isRequestError(args)) {
+					int rows = columns.clear((Integer) args[0]);
+					if (rows > 0) {
+						print("columnsDiscarded", new Type[] { int.class, int.class }, args[0], rows);
+					}
+				}
+				print(command, types, args);
+			}
+		}
+	}
+
+	/**
+	 * Buffers bars until historicalDataEnd and ticks until done, then prints
+	 * them as a {@code <command>Columns} event of an array per property
+	 */
+	private void printColumns(String command, Type[] types, Object... args)
+			throws IllegalAccessException, InvocationTargetException, IOException {
+		Serializer ser = "cbor".equals(encoding) ? binary : serializer;
+		int reqId = (Integer) args[0];
+		Type[] json = new Type[] { int.class, JsonValue.class };
+		if ("historicalData".equals(command)) {
+			PropertyType type = getPropertyType(types[1]);
+			columns.add(command, reqId, getPropertyNames(type), toJsonValue(ser, args[1], type));
+			describe(ser);
+		} else if ("historicalDataEnd".equals(command)) {
+			print("historicalDataColumns", json, reqId, columns.drain("historicalData", reqId));
+			print(command, types, args);
+		} else {
+			PropertyType type = getPropertyType(types[1]).getComponentType();
+			for (Object tick : (List<?>) args[1]) {
+				columns.add(command, reqId, getPropertyNames(type), toJsonValue(ser, tick, type));
+			}
+			describe(ser);
+			if (Boolean.TRUE.equals(args[2])) {
+				print(command + "Columns", json, reqId, columns.drain(command, reqId));
+			}
+		}
+	}
+
+	private List<String> getPropertyNames(PropertyType type) {
+		return new ArrayList<>(type.getProperties().keySet());
+	}
+
+	/**
+	 * Prints the event if it changed since it was last printed for the same key,
+	 * as a {@code <command>Delta} event if only some object properties changed
+	 */
+	private void printDelta(String command, Type[] types, Object... args)
+			throws IllegalAccessException, InvocationTargetException, IOException {
+		Serializer ser = "cbor".equals(encoding) ? binary : serializer;
+		JsonValue[] values = new JsonValue[args.length];
+		for (int i = 0; i < args.length; i++) {
+			values[i] = toJsonValue(ser, args[i], getPropertyType(types[i]));
+		}
+		describe(ser);
+		String key = delta.getKey(command, args);
+		JsonValue[] encoded = delta.encode(key, values, System.currentTimeMillis());
+		if (delta.isFinal(command, args)) {
+			delta.remove(key);
+		}
+		if (encoded != null) {
+			Type[] json = new Type[encoded.length];
+			Arrays.fill(json, JsonValue.class);
+			print(encoded == values ? command : command + "Delta", json, (Object[]) encoded);
+		}
+	}
+
+	private JsonValue toJsonValue(Serializer ser, Object object, PropertyType type)
+			throws IllegalAccessException, InvocationTargetException {
+		JsonValueGenerator generator = new JsonValueGenerator();
+		ser.serialize(object, type, generator);
+		return generator.getValue();
+	}
+
+	private void print(String command, Type[] types, Object... args)
+			throws IllegalAccessException, InvocationTargetException, IOException {
+		prompter.returnLine();
+		if ("cbor".equals(encoding)) {
+			printCbor(command, types, args);
+		} else if (args == null || args.length < 1) {
+			out.println(command);
+		} else {
+			// schema and contract events printed by describe use their own buffer
+			JsonTextGenerator text = this.text == null ? new JsonTextGenerator(new StringBuilder(), jsonStrings) : this.text;
+			this.text = null;
+			try {
+				StringBuilder sb = text.reset().getBuffer().append(command);
 				for (int i = 0; i < args.length; i++) {
-					json[i] = serializer.serialize(args[i], getPropertyType(types[i]));
+					sb.append('\t');
+					serializer.serialize(args[i], getPropertyType(types[i]), text);
 				}
-				StringBuilder sb = new StringBuilder();
-				sb.append(command);
-				for (String str : json) {
-					sb.append('\t').append(str);
+				describe(serializer);
+				if (chars.length < sb.length()) {
+					chars = new char[Math.max(sb.length(), chars.length * 2)];
 				}
-				out.println(sb.toString());
+				sb.getChars(0, sb.length(), chars, 0);
+				out.write(chars, 0, sb.length());
+				out.println();
+			} finally {
+				this.text = text;
 			}
-			flush();
-			prompter.prompt();
+		}
+		flush();
+		prompter.prompt();
+	}
+
+	private void printCbor(String command, Type[] types, Object... args)
+			throws IllegalAccessException, InvocationTargetException, IOException {
+		int length = args == null ? 0 : args.length;
+		ByteArrayOutputStream buf = new ByteArrayOutputStream();
+		CborGenerator generator = new CborGenerator(buf, cborStrings);
+		generator.writeStartArray(length + 1);
+		generator.write(command);
+		for (int i = 0; i < length; i++) {
+			binary.serialize(args[i], getPropertyType(types[i]), generator);
+		}
+		generator.writeEnd();
+		describe(binary);
+		out.flush();
+		buf.writeTo(stream);
+	}
+
+	/**
+	 * Prints a schema event for each type the client has not been given yet, and
+	 * a contract event for each contract handle
+	 */
+	private void describe(Serializer ser) throws IllegalAccessException, InvocationTargetException, IOException {
+		Set<PropertyType> positionalTypes = ser.drainPositionalTypes();
+		Map<Integer, JsonValue> contracts = ser.drainInternedContracts();
+		for (PropertyType type : positionalTypes) {
+			if (described.add(type.getJavaType())) {
+				Map<String, PropertyType> properties = type.getProperties();
+				String[] names = properties.keySet().toArray(new String[properties.size()]);
+				String[] type_names = new String[names.length];
+				for (int i = 0; i < names.length; i++) {
+					type_names[i] = properties.get(names[i]).getSimpleName();
+				}
+				Type[] schema = new Type[] { String.class, String[].class, String[].class };
+				println("schema", schema, type.getSimpleName(), names, type_names);
+			}
+		}
+		for (Map.Entry<Integer, JsonValue> e : contracts.entrySet()) {
+			println("contract", new Type[] { int.class, JsonValue.class }, e.getKey(), e.getValue());
 		}
 	}
 
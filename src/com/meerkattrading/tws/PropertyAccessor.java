@@ -0,0 +1,205 @@
+/*
+ * Copyright (c) 2023 James Leigh
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.meerkattrading.tws;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+/**
+ * Reads a property of an object, without boxing primitive values, and knows
+ * the default value of the property, so unassigned values can be skipped with
+ * a primitive comparison
+ *
+ * @author James Leigh
+ *
+ */
+public class PropertyAccessor {
+	public enum Kind {
+		INT, LONG, DOUBLE, BOOLEAN, OBJECT
+	}
+
+	private static final String MAX_VALUE_STRING = String.valueOf(Double.MAX_VALUE);
+	private final String name;
+	private final PropertyType type;
+	private final Method getter;
+	private final MethodHandle handle;
+	private final Kind kind;
+	private final boolean hasDefault;
+	private final long defaultBits;
+	private final Object defaultValue;
+	private final boolean maxValueUnset;
+
+	/**
+	 * @param defaultValue  the value of the getter on a new instance, or null
+	 * @param maxValueUnset if {@link Double#MAX_VALUE} (as a double or string)
+	 *                      means the value is not set
+	 */
+	public PropertyAccessor(String name, PropertyType type, Method getter, Object defaultValue,
+			boolean maxValueUnset) {
+		this.name = name;
+		this.type = type;
+		this.getter = getter;
+		Kind kind = getKind(getter);
+		this.handle = getHandle(getter, kind);
+		this.kind = handle == null ? Kind.OBJECT : kind;
+		this.hasDefault = defaultValue != null;
+		this.defaultValue = defaultValue;
+		this.maxValueUnset = maxValueUnset;
+		if (defaultValue instanceof Double) {
+			defaultBits = Double.doubleToLongBits((Double) defaultValue);
+		} else if (defaultValue instanceof Number) {
+			defaultBits = ((Number) defaultValue).longValue();
+		} else if (defaultValue instanceof Boolean) {
+			defaultBits = (Boolean) defaultValue ? 1 : 0;
+		} else {
+			defaultBits = 0;
+		}
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public PropertyType getType() {
+		return type;
+	}
+
+	public Kind getKind() {
+		return kind;
+	}
+
+	public Object getDefaultValue() {
+		return defaultValue;
+	}
+
+	/**
+	 * If the object has this property
+	 */
+	public boolean isReadable(Object object) {
+		return getter != null && getter.getDeclaringClass().isInstance(object);
+	}
+
+	public int getInt(Object object) throws InvocationTargetException {
+		try {
+			return (int) handle.invokeExact(object);
+		} catch (Throwable e) {
+			throw new InvocationTargetException(e);
+		}
+	}
+
+	public long getLong(Object object) throws InvocationTargetException {
+		try {
+			return (long) handle.invokeExact(object);
+		} catch (Throwable e) {
+			throw new InvocationTargetException(e);
+		}
+	}
+
+	public double getDouble(Object object) throws InvocationTargetException {
+		try {
+			return (double) handle.invokeExact(object);
+		} catch (Throwable e) {
+			throw new InvocationTargetException(e);
+		}
+	}
+
+	public boolean getBoolean(Object object) throws InvocationTargetException {
+		try {
+			return (boolean) handle.invokeExact(object);
+		} catch (Throwable e) {
+			throw new InvocationTargetException(e);
+		}
+	}
+
+	public Object get(Object object) throws IllegalAccessException, InvocationTargetException {
+		if (handle == null)
+			return getter.invoke(object);
+		try {
+			return (Object) handle.invokeExact(object);
+		} catch (Throwable e) {
+			throw new InvocationTargetException(e);
+		}
+	}
+
+	public boolean isDefault(long value) {
+		return hasDefault && value == defaultBits;
+	}
+
+	public boolean isDefault(double value) {
+		return hasDefault && Double.doubleToLongBits(value) == defaultBits
+				|| maxValueUnset && value == Double.MAX_VALUE;
+	}
+
+	public boolean isDefault(boolean value) {
+		return hasDefault && (value ? 1 : 0) == defaultBits;
+	}
+
+	/**
+	 * If the value is null, the default value, or means unset
+	 */
+	public boolean isDefault(Object value) {
+		if (value == null)
+			return true;
+		else if (maxValueUnset && (Double.valueOf(Double.MAX_VALUE).equals(value) || MAX_VALUE_STRING.equals(value)))
+			return true;
+		else
+			return hasDefault && value.equals(defaultValue);
+	}
+
+	private static Kind getKind(Method getter) {
+		Class<?> type = getter == null ? Object.class : getter.getReturnType();
+		if (Integer.TYPE.equals(type)) {
+			return Kind.INT;
+		} else if (Long.TYPE.equals(type) || Short.TYPE.equals(type) || Byte.TYPE.equals(type)) {
+			return Kind.LONG;
+		} else if (Double.TYPE.equals(type)) {
+			return Kind.DOUBLE;
+		} else if (Boolean.TYPE.equals(type)) {
+			return Kind.BOOLEAN;
+		} else {
+			return Kind.OBJECT;
+		}
+	}
+
+	/**
+	 * A handle of (Object) returning the primitive kind, or Object, or null if
+	 * the getter is not public
+	 */
+	private static MethodHandle getHandle(Method getter, Kind kind) {
+		if (getter == null)
+			return null;
+		try {
+			MethodHandle handle = MethodHandles.publicLookup().unreflect(getter);
+			switch (kind) {
+			case INT:
+				return handle.asType(MethodType.methodType(int.class, Object.class));
+			case LONG:
+				return handle.asType(MethodType.methodType(long.class, Object.class));
+			case DOUBLE:
+				return handle.asType(MethodType.methodType(double.class, Object.class));
+			case BOOLEAN:
+				return handle.asType(MethodType.methodType(boolean.class, Object.class));
+			default:
+				return handle.asType(MethodType.methodType(Object.class, Object.class));
+			}
+		} catch (IllegalAccessException e) {
+			return null;
+		}
+	}
+}
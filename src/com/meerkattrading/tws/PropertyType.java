@@ -37,6 +37,7 @@ import com.ib.client.HistogramEntry;
 import com.ib.client.MarginCondition;
 import com.ib.client.OperatorCondition;
 import com.ib.client.OrderCondition;
+import com.ib.client.OrderState;
 import com.ib.client.PercentChangeCondition;
 import com.ib.client.PriceCondition;
 import com.ib.client.SoftDollarTier;
@@ -92,6 +93,8 @@ public class PropertyType {
 	private PropertyType keyType;
 	private PropertyType componentType;
 	private Object defaultObject;
+	private PropertyAccessor[] accessors = new PropertyAccessor[0];
+	private final Map<String, PropertyAccessor> accessorsByName = new TreeMap<>();
 
 	public PropertyType(Type type) {
 		this.type = type;
@@ -155,6 +158,7 @@ public class PropertyType {
 					}
 				}
 			}
+			accessors = createAccessors((Class<?>) type);
 		} else {
 			throw new AssertionError("Unhandled property type " + type);
 		}
@@ -233,10 +237,16 @@ public class PropertyType {
 	}
 
 	public Object getDefaultValue(String property) throws IllegalAccessException, InvocationTargetException {
-		if (defaultObject == null || "action".equals(property) || "orderType".equals(property)
-				|| !getters.containsKey(property))
-			return null;
-		return getGetterMethod(property).invoke(defaultObject);
+		PropertyAccessor accessor = accessorsByName.get(property);
+		return accessor == null ? null : accessor.getDefaultValue();
+	}
+
+	/**
+	 * The properties in the order of {@link #getProperties()}, with their default
+	 * values read once from a new instance
+	 */
+	public PropertyAccessor[] getAccessors() {
+		return accessors;
 	}
 
 	public Method getGetterMethod(String property) {
@@ -253,6 +263,27 @@ public class PropertyType {
 		return ((Class<?>) type).getEnumConstants();
 	}
 
+	private PropertyAccessor[] createAccessors(Class<?> type) {
+		boolean maxValueUnset = OrderState.class.isAssignableFrom(type);
+		List<PropertyAccessor> list = new ArrayList<>(properties.size());
+		for (Map.Entry<String, PropertyType> e : properties.entrySet()) {
+			String name = e.getKey();
+			Method getter = getters.get(name);
+			Object defaultValue = null;
+			if (defaultObject != null && getter != null && !"action".equals(name) && !"orderType".equals(name)) {
+				try {
+					defaultValue = getter.invoke(defaultObject);
+				} catch (IllegalAccessException | InvocationTargetException ex) {
+					logger.warning(ex.getMessage());
+				}
+			}
+			PropertyAccessor accessor = new PropertyAccessor(name, e.getValue(), getter, defaultValue, maxValueUnset);
+			accessorsByName.put(name, accessor);
+			list.add(accessor);
+		}
+		return list.toArray(new PropertyAccessor[list.size()]);
+	}
+
 	private List<Method> getPublicMethodsOf(Class<?> type) {
 		Method[] methods = type.getMethods();
 		List<Method> list = new ArrayList<>(Arrays.asList(methods));
@@ -0,0 +1,261 @@
+/*
+ * Copyright (c) 2023 James Leigh
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.meerkattrading.tws;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import com.ib.client.EWrapper;
+
+/**
+ * Keeps the response events of reqSecDefOptParams and reqMatchingSymbols for
+ * a time, by their request arguments, and replays them to later requests with
+ * the same arguments using the later reqId. Requests made while the same
+ * request is in flight wait for its response instead of calling TWS again,
+ * and are given it after the response of the first request has been issued.
+ *
+ * @author James Leigh
+ *
+ */
+public class ResponseCache implements EWrapperListener {
+
+	/**
+	 * The response events of a request, complete or in flight
+	 */
+	private static class Response {
+		final int reqId;
+		final List<Object[]> events = new ArrayList<>();
+		final List<Integer> waiting = new ArrayList<>();
+		long expires;
+		boolean complete;
+
+		Response(int reqId) {
+			this.reqId = reqId;
+		}
+	}
+
+	private final Logger logger = Logger.getLogger(ResponseCache.class.getName());
+	private final Map<String, Response> responses = new LinkedHashMap<>(16, 0.75f, true);
+	private final Map<Integer, String> inFlight = new HashMap<>();
+	private final List<Object[]> replays = new ArrayList<>();
+	private EWrapper wrapper;
+	private long ttlMillis;
+	private int capacity;
+
+	/**
+	 * @param ttlMillis how long a response is kept, or zero to not keep them
+	 * @param capacity  the number of responses to keep
+	 */
+	public ResponseCache(long ttlMillis, int capacity) {
+		this.ttlMillis = ttlMillis;
+		this.capacity = capacity;
+	}
+
+	/**
+	 * @param wrapper to replay the response events to
+	 */
+	public synchronized void setWrapper(EWrapper wrapper) {
+		this.wrapper = wrapper;
+	}
+
+	public synchronized void setTimeToLive(long ttlMillis, int capacity) {
+		this.ttlMillis = ttlMillis;
+		this.capacity = capacity;
+		evict(currentTimeMillis());
+	}
+
+	/**
+	 * Replays the kept response of the request, or waits for the same request
+	 * in flight
+	 *
+	 * @param key the request command and arguments
+	 * @return true if the request must be sent to TWS with this reqId
+	 */
+	public boolean request(String key, int reqId) {
+		List<Object[]> replay;
+		synchronized (this) {
+			long now = currentTimeMillis();
+			evict(now);
+			Response response = responses.get(key);
+			if (response == null) {
+				if (inFlight.containsKey(reqId))
+					return true;
+				response = new Response(reqId);
+				responses.put(key, response);
+				inFlight.put(reqId, key);
+				return true;
+			} else if (!response.complete) {
+				response.waiting.add(reqId);
+				return false;
+			}
+			replay = new ArrayList<>(response.events);
+		}
+		replay(replay, reqId);
+		return false;
+	}
+
+	/**
+	 * Forgets all responses
+	 */
+	public synchronized void clear() {
+		responses.clear();
+		inFlight.clear();
+		replays.clear();
+	}
+
+	/**
+	 * Keeps the response events of the requests in flight
+	 */
+	@Override
+	public boolean update(String event, Object[] args) {
+		boolean end;
+		switch (event) {
+		case "securityDefinitionOptionalParameter":
+			end = false;
+			break;
+		case "securityDefinitionOptionalParameterEnd":
+		case "symbolSamples":
+			end = true;
+			break;
+		case "error":
+			if (EWrapperListener.isRequestError(args)) {
+				fail((Integer) args[0], event, args);
+			}
+			return false;
+		default:
+			return false;
+		}
+		synchronized (this) {
+			String key = inFlight.get((Integer) args[0]);
+			Response response = key == null ? null : responses.get(key);
+			if (response == null)
+				return false;
+			response.events.add(toEvent(event, args));
+			if (!end)
+				return false;
+			inFlight.remove(response.reqId);
+			response.complete = true;
+			response.expires = currentTimeMillis() + ttlMillis;
+			if (ttlMillis <= 0) {
+				responses.remove(key);
+			}
+			for (Integer reqId : response.waiting) {
+				replays.add(new Object[] { reqId, response.events });
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Replays the response, or error, that ended a request to the requests
+	 * waiting for it, now that it has been issued to the first request
+	 */
+	@Override
+	public void afterUpdate(String event, Object[] args) {
+		List<Object[]> pending;
+		synchronized (this) {
+			if (replays.isEmpty())
+				return;
+			pending = new ArrayList<>(replays);
+			replays.clear();
+		}
+		for (Object[] replay : pending) {
+			@SuppressWarnings("unchecked")
+			List<Object[]> events = (List<Object[]>) replay[1];
+			replay(events, (Integer) replay[0]);
+		}
+	}
+
+	/**
+	 * Forgets the failed request and passes the error to the waiting requests
+	 */
+	private synchronized void fail(int reqId, String event, Object[] args) {
+		String key = inFlight.remove(reqId);
+		Response response = key == null ? null : responses.remove(key);
+		if (response != null) {
+			List<Object[]> events = new ArrayList<>(1);
+			events.add(toEvent(event, args));
+			for (Integer waiting : response.waiting) {
+				replays.add(new Object[] { waiting, events });
+			}
+		}
+	}
+
+	/**
+	 * Removes the expired responses and the least recently used responses
+	 * beyond the capacity, but not the requests in flight
+	 */
+	private void evict(long now) {
+		int size = responses.size();
+		Iterator<Response> iter = responses.values().iterator();
+		while (iter.hasNext()) {
+			Response response = iter.next();
+			if (response.complete && (response.expires <= now || size > capacity)) {
+				iter.remove();
+				size--;
+			}
+		}
+	}
+
+	/**
+	 * The event name followed by a copy of its arguments
+	 */
+	private Object[] toEvent(String event, Object[] args) {
+		Object[] copy = new Object[args.length + 1];
+		copy[0] = event;
+		System.arraycopy(args, 0, copy, 1, args.length);
+		return copy;
+	}
+
+	private void replay(List<Object[]> events, int reqId) {
+		EWrapper wrapper;
+		synchronized (this) {
+			wrapper = this.wrapper;
+		}
+		for (Object[] event : events) {
+			Object[] args = new Object[event.length - 1];
+			System.arraycopy(event, 1, args, 0, args.length);
+			args[0] = reqId;
+			try {
+				getEvent((String) event[0], args.length).invoke(wrapper, args);
+			} catch (IllegalAccessException | InvocationTargetException e) {
+				logger.warning(e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * The time the responses expire by
+	 */
+	protected long currentTimeMillis() {
+		return System.currentTimeMillis();
+	}
+
+	private Method getEvent(String name, int parameterCount) {
+		for (Method method : EWrapper.class.getMethods()) {
+			if (method.getName().equals(name) && method.getParameterCount() == parameterCount)
+				return method;
+		}
+		throw new AssertionError("Unknown event " + name);
+	}
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright (c) 2023 James Leigh
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.meerkattrading.tws;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.logging.Logger;
+
+/**
+ * Creates a pair of {@link MappedRing} files in a directory, one for commands
+ * and one for events, and runs a {@link Worker} over them for a local client.
+ * When the client closes the commands ring, new files are created for the next
+ * client.
+ *
+ * @author James Leigh
+ *
+ */
+public class RingServer implements Runnable {
+	public static final String COMMANDS = "commands.ring";
+	public static final String EVENTS = "events.ring";
+	private static final int CAPACITY = 4 * 1024 * 1024;
+	private static final long TIMEOUT = 60000;
+	private final Logger logger = Logger.getLogger(RingServer.class.getName());
+	private final Path directory;
+	private int remote_port;
+	private InetAddress remote_inet;
+	private int pipelineDepth;
+	private Thread thread;
+	private volatile boolean stopped;
+	private Worker worker;
+	private MappedRing commands;
+	private MappedRing events;
+
+	/**
+	 * Will create the ring files in directory and have {@link Worker} connect to
+	 * tws API
+	 */
+	public RingServer(Path directory) {
+		this.directory = directory;
+	}
+
+	/**
+	 * Changes the {@link Worker} to only connect to the give tws API
+	 */
+	public synchronized void setRemote(InetAddress remote_inet, int remote_port) {
+		this.remote_port = remote_port;
+		this.remote_inet = remote_inet;
+		if (worker != null) {
+			worker.setRemoteAddress(remote_inet, remote_port);
+		}
+	}
+
+	/**
+	 * How many commands the {@link Worker} can read ahead of the running command
+	 */
+	public void setPipelineDepth(int pipelineDepth) {
+		this.pipelineDepth = pipelineDepth;
+	}
+
+	/**
+	 * Called when RingServer is ready and run in it's own thread
+	 */
+	@Override
+	public void run() {
+		try {
+			while (!stopped) {
+				try {
+					createWorker().run();
+				} catch (IOException e) {
+					logger.warning(e.getMessage());
+					stopped = true;
+				}
+			}
+		} catch (RuntimeException e) {
+			logger.severe(e.getMessage());
+		}
+	}
+
+	/**
+	 * Start a new Thread running this server
+	 */
+	public synchronized void start() {
+		if (thread == null) {
+			thread = new Thread(this, "RingServer " + directory);
+			thread.start();
+		}
+	}
+
+	/**
+	 * Stops this server and closes it's thread
+	 */
+	public synchronized void stop() {
+		stopped = true;
+		if (worker != null) {
+			worker.exit();
+		}
+		close();
+		try {
+			Files.deleteIfExists(directory.resolve(COMMANDS));
+			Files.deleteIfExists(directory.resolve(EVENTS));
+		} catch (IOException e) {
+			logger.warning(e.getMessage());
+		}
+	}
+
+	/**
+	 * Replaces the ring files, so a client that still has the previous files
+	 * mapped is not confused with the next one
+	 */
+	private synchronized Worker createWorker() throws IOException {
+		Files.createDirectories(directory);
+		Files.deleteIfExists(directory.resolve(COMMANDS));
+		Files.deleteIfExists(directory.resolve(EVENTS));
+		events = MappedRing.create(directory.resolve(EVENTS), CAPACITY);
+		events.setTimeout(TIMEOUT);
+		commands = MappedRing.create(directory.resolve(COMMANDS), CAPACITY);
+		Worker worker = new Worker(commands.getInputStream(), events.getOutputStream());
+		if (remote_inet != null && remote_port > 0) {
+			worker.setRemoteAddress(remote_inet, remote_port);
+		}
+		worker.setPipelineDepth(pipelineDepth);
+		worker.onExit(() -> {
+			try {
+				worker.exit();
+			} finally {
+				close();
+			}
+		});
+		this.worker = worker;
+		return worker;
+	}
+
+	private synchronized void close() {
+		if (commands != null) {
+			commands.close();
+		}
+		if (events != null) {
+			events.close();
+		}
+	}
+
+}
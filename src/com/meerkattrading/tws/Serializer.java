@@ -15,20 +15,23 @@
  */
 package com.meerkattrading.tws;
 
-import java.io.StringWriter;
 import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.Map;
+import java.util.Set;
 
-import javax.json.Json;
-import javax.json.JsonArrayBuilder;
-import javax.json.JsonObjectBuilder;
 import javax.json.JsonValue;
-import javax.json.JsonWriter;
-import javax.json.JsonWriterFactory;
+import javax.json.stream.JsonGenerator;
 
+import com.ib.client.Contract;
 import com.ib.client.ContractCondition;
 import com.ib.client.Decimal;
 import com.ib.client.ExecutionCondition;
@@ -36,7 +39,6 @@ import com.ib.client.HistogramEntry;
 import com.ib.client.MarginCondition;
 import com.ib.client.OperatorCondition;
 import com.ib.client.OrderCondition;
-import com.ib.client.OrderState;
 import com.ib.client.PercentChangeCondition;
 import com.ib.client.PriceCondition;
 import com.ib.client.SoftDollarTier;
@@ -45,244 +47,515 @@ import com.ib.client.TimeCondition;
 import com.ib.client.VolumeCondition;
 
 /**
- * Serializes Java Objects into JSON
+ * Serializes Java Objects into JSON, or any other {@link JsonGenerator}
  *
  * @author James Leigh
  *
  */
 public class Serializer {
-	private final JsonWriterFactory factory = Json.createWriterFactory(Collections.emptyMap());
+	private static final int MAX_CONTRACTS = 4096;
+	private boolean nativeNumbers;
+	private final Set<PropertyType> positionalTypes = new LinkedHashSet<>();
+	private final Map<Integer, JsonValue> contracts = new HashMap<>();
+	private final Map<Object, Integer> contractHandles = new LinkedHashMap<>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Object, Integer> eldest) {
+			if (size() <= MAX_CONTRACTS)
+				return false;
+			contracts.remove(eldest.getValue());
+			return true;
+		}
+	};
+	private int lastHandle;
+	private final Map<Integer, JsonValue> internedContracts = new LinkedHashMap<>();
+	private final Map<String, Set<String>> projections = new HashMap<>();
+	private final Map<PropertyType, boolean[]> projectionMasks = new IdentityHashMap<>();
+	private boolean positional;
+	private boolean interning;
+
+	public Serializer() {
+		this(false);
+	}
+
+	/**
+	 * @param nativeNumbers if non-integer numbers and {@link Decimal} values are
+	 *                      written as numbers, instead of strings
+	 */
+	public Serializer(boolean nativeNumbers) {
+		this.nativeNumbers = nativeNumbers;
+	}
+
+	public boolean isNativeNumbers() {
+		return nativeNumbers;
+	}
+
+	/**
+	 * If non-integer numbers and {@link Decimal} values are written as numbers,
+	 * instead of strings
+	 */
+	public void setNativeNumbers(boolean nativeNumbers) {
+		this.nativeNumbers = nativeNumbers;
+	}
+
+	/**
+	 * If objects are written as arrays of their property values, in the order of
+	 * {@link PropertyType#getProperties()}, instead of with their property names
+	 */
+	public void setPositional(boolean positional) {
+		this.positional = positional;
+	}
+
+	/**
+	 * The types of objects written as positional arrays since the last call
+	 */
+	public Set<PropertyType> drainPositionalTypes() {
+		Set<PropertyType> types = new LinkedHashSet<>(positionalTypes);
+		positionalTypes.clear();
+		return types;
+	}
+
+	public boolean isInterning() {
+		return interning;
+	}
+
+	/**
+	 * If each distinct {@link Contract} is written as an integer handle, after
+	 * its definition is given by {@link #drainInternedContracts()}. Any previous
+	 * handles are forgotten. Contracts are told apart by their conid and
+	 * identifying fields, and the least recently used handles beyond 4096 are
+	 * forgotten, to be given a new handle if the contract is written again.
+	 */
+	public void setInterning(boolean interning) {
+		this.interning = interning;
+		contractHandles.clear();
+		contracts.clear();
+		internedContracts.clear();
+		lastHandle = 0;
+	}
+
+	/**
+	 * The handles and definitions of the contracts first written since the last
+	 * call
+	 */
+	public Map<Integer, JsonValue> drainInternedContracts() {
+		Map<Integer, JsonValue> interned = new LinkedHashMap<>(internedContracts);
+		internedContracts.clear();
+		return interned;
+	}
+
+	/**
+	 * The definition of a contract handle that was written, or null
+	 */
+	public JsonValue getInternedContract(int handle) {
+		return contracts.get(handle);
+	}
+
+	/**
+	 * Only the given properties of objects of the given type name are written,
+	 * or all of them if no properties are given
+	 */
+	public void setProjection(String typeName, Set<String> properties) {
+		if (properties == null || properties.isEmpty()) {
+			projections.remove(typeName);
+		} else {
+			projections.put(typeName, new HashSet<>(properties));
+		}
+		projectionMasks.clear();
+	}
 
 	public String serialize(Object object, PropertyType type) throws IllegalAccessException, InvocationTargetException {
-		JsonValue value = objectToJsonValue(object, type);
-		StringWriter writer = new StringWriter();
-		JsonWriter jwriter = factory.createWriter(writer);
-		jwriter.write(value);
-		return writer.toString();
+		JsonTextGenerator generator = new JsonTextGenerator();
+		serialize(object, type, generator);
+		generator.close();
+		return generator.toString();
 	}
 
-	private JsonValue objectToJsonValue(Object object, PropertyType type)
+	public void serialize(Object object, PropertyType type, JsonGenerator generator)
+			throws IllegalAccessException, InvocationTargetException {
+		writeObject(generator, object, type);
+	}
+
+	private void writeObject(JsonGenerator gen, Object object, PropertyType type)
 			throws IllegalAccessException, InvocationTargetException {
 		if (object == null) {
-			return JsonValue.NULL;
-		} else if (object instanceof Boolean && (((Boolean) object).booleanValue())) {
-			return JsonValue.TRUE;
-		} else if (object instanceof Boolean && !(((Boolean) object).booleanValue())) {
-			return JsonValue.FALSE;
+			gen.writeNull();
+		} else if (object instanceof Boolean) {
+			gen.write(((Boolean) object).booleanValue());
 		} else if (object instanceof Integer) {
-			return Json.createValue((Integer) object);
+			gen.write(((Integer) object).intValue());
 		} else if (object instanceof Number) {
-			return Json.createValue(object.toString());
+			writeNumber(gen, (Number) object);
 		} else if (object instanceof Decimal) {
-			return Json.createValue(object.toString());
+			writeNumber(gen, (Decimal) object);
 		} else if (object instanceof String) {
-			return stringToJson((String) object);
+			writeString(gen, (String) object);
+		} else if (object instanceof JsonValue) {
+			gen.write((JsonValue) object);
 		} else if (object instanceof Map.Entry<?, ?>) {
-			return entryToJson((Map.Entry<?, ?>) object, type);
+			writeEntry(gen, (Map.Entry<?, ?>) object, type);
 		} else if (type.isArray()) {
-			return arrayToJson((Object[]) object, type);
+			writeArray(gen, (Object[]) object, type);
 		} else if (type.isList() || type.isSet()) {
-			return collectionToJson((Collection<?>) object, type);
+			writeCollection(gen, (Collection<?>) object, type);
 		} else if (type.isMap()) {
-			return mapToJson((Map<?, ?>) object, type);
+			writeMap(gen, (Map<?, ?>) object, type);
 		} else if (type.getJavaType() instanceof Class<?> && ((Class<?>) type.getJavaType()).isEnum()) {
-			return enumToJson(object);
+			writeEnum(gen, object);
+		} else if (interning && object instanceof Contract) {
+			writeContractHandle(gen, (Contract) object, type);
 		} else if (object instanceof OrderCondition) {
-			return orderConditionToJson((OrderCondition) object);
+			writeOrderCondition(gen, (OrderCondition) object);
 		} else if (object instanceof TagValue) {
-			return tagValueToJson((TagValue) object);
+			writeTagValue(gen, (TagValue) object);
 		} else if (object instanceof SoftDollarTier) {
-			return softDollarTierToJson((SoftDollarTier) object);
+			writeSoftDollarTier(gen, (SoftDollarTier) object);
 		} else if (object instanceof HistogramEntry) {
-			return histogramEntryToJson((HistogramEntry) object);
-		} else if (object instanceof OrderState) {
-			return orderStateToJson((OrderState) object, type);
+			writeHistogramEntry(gen, (HistogramEntry) object);
 		} else if (object instanceof Exception) {
-			return exceptionToJson((Exception) object);
+			writeException(gen, (Exception) object);
 		} else {
-			return javaObjectToJson(object, type);
+			writeJavaObject(gen, object, type);
 		}
 	}
 
-	private JsonValue stringToJson(String object) {
+	private void writeString(JsonGenerator gen, String object) {
 		if (object == null) {
-			return JsonValue.NULL;
+			gen.writeNull();
 		} else {
-			return Json.createValue(object);
+			gen.write(object);
 		}
 	}
 
-	private JsonValue entryToJson(Map.Entry<?, ?> entry, PropertyType type)
+	private void writeEntry(JsonGenerator gen, Map.Entry<?, ?> entry, PropertyType type)
 			throws IllegalAccessException, InvocationTargetException {
-		JsonObjectBuilder builder = Json.createObjectBuilder();
-		builder.add("key", stringToJson(entry.getKey().toString()));
-		builder.add("value", objectToJsonValue(entry.getValue().toString(), type.getComponentType()));
-		return builder.build();
+		gen.writeStartObject();
+		gen.writeKey("key");
+		writeString(gen, entry.getKey().toString());
+		gen.writeKey("value");
+		writeObject(gen, entry.getValue().toString(), type.getComponentType());
+		gen.writeEnd();
 	}
 
-	private JsonValue arrayToJson(Object[] object, PropertyType type)
+	private void writeArray(JsonGenerator gen, Object[] object, PropertyType type)
 			throws IllegalAccessException, InvocationTargetException {
-		JsonArrayBuilder builder = Json.createArrayBuilder();
+		gen.writeStartArray();
 		for (Object obj : object) {
-			builder.add(objectToJsonValue(obj, type.getComponentType()));
+			writeObject(gen, obj, type.getComponentType());
 		}
-		return builder.build();
+		gen.writeEnd();
 	}
 
-	private JsonValue collectionToJson(Collection<?> object, PropertyType type)
+	private void writeCollection(JsonGenerator gen, Collection<?> object, PropertyType type)
 			throws IllegalAccessException, InvocationTargetException {
-		JsonArrayBuilder builder = Json.createArrayBuilder();
+		gen.writeStartArray();
 		for (Object obj : object) {
-			builder.add(objectToJsonValue(obj, type.getComponentType()));
+			writeObject(gen, obj, type.getComponentType());
 		}
-		return builder.build();
+		gen.writeEnd();
 	}
 
-	private JsonValue mapToJson(Map<?, ?> object, PropertyType type)
+	private void writeMap(JsonGenerator gen, Map<?, ?> object, PropertyType type)
 			throws IllegalAccessException, InvocationTargetException {
-		JsonObjectBuilder builder = Json.createObjectBuilder();
+		gen.writeStartObject();
 		for (Map.Entry<?, ?> entry : object.entrySet()) {
-			builder.add(entry.getKey().toString(), objectToJsonValue(entry.getValue(), type.getComponentType()));
+			gen.writeKey(entry.getKey().toString());
+			writeObject(gen, entry.getValue(), type.getComponentType());
 		}
-		return builder.build();
+		gen.writeEnd();
 	}
 
-	private JsonValue enumToJson(Object object) {
-		return stringToJson(((Enum<?>) object).name());
+	private void writeEnum(JsonGenerator gen, Object object) {
+		writeString(gen, ((Enum<?>) object).name());
 	}
 
-	private JsonValue numberToJson(Integer number) {
-		if (number == null)
-			return JsonValue.NULL;
-		return Json.createValue(number);
+	private void writeNumber(JsonGenerator gen, Integer number) {
+		if (number == null) {
+			gen.writeNull();
+		} else {
+			gen.write(number.intValue());
+		}
 	}
 
-	private JsonValue numberToJson(Number number) {
-		if (number == null)
-			return JsonValue.NULL;
-		return Json.createValue(number.toString());
+	private void writeNumber(JsonGenerator gen, Number number) {
+		if (number == null) {
+			gen.writeNull();
+		} else if (number instanceof Double) {
+			writeNumber(gen, number.doubleValue());
+		} else if (number instanceof Long || number instanceof Short || number instanceof Byte) {
+			writeNumber(gen, number.longValue());
+		} else if (!nativeNumbers) {
+			gen.write(number.toString());
+		} else if (number instanceof BigInteger) {
+			gen.write((BigInteger) number);
+		} else if (number instanceof BigDecimal) {
+			gen.write((BigDecimal) number);
+		} else if (Double.isFinite(number.doubleValue())) {
+			gen.write(number.doubleValue());
+		} else {
+			gen.write(number.toString());
+		}
 	}
 
-	private JsonValue numberToJson(Decimal decimal) {
-		if (decimal == null)
-			return JsonValue.NULL;
-		return Json.createValue(decimal.toString());
+	private void writeNumber(JsonGenerator gen, long number) {
+		if (nativeNumbers) {
+			gen.write(number);
+		} else if (gen instanceof JsonTextGenerator) {
+			((JsonTextGenerator) gen).writeString(number);
+		} else {
+			gen.write(Long.toString(number));
+		}
 	}
 
-	private JsonValue orderConditionToJson(OrderCondition oc) {
-		JsonObjectBuilder builder = Json.createObjectBuilder();
+	private void writeNumber(JsonGenerator gen, double number) {
+		if (nativeNumbers && Double.isFinite(number)) {
+			gen.write(number);
+		} else if (gen instanceof JsonTextGenerator) {
+			((JsonTextGenerator) gen).writeString(number);
+		} else {
+			gen.write(Double.toString(number));
+		}
+	}
+
+	private void writeNumber(JsonGenerator gen, Decimal decimal) {
+		if (decimal == null) {
+			gen.writeNull();
+		} else if (isCompactInteger(decimal) && nativeNumbers) {
+			gen.write(decimal.value().longValue());
+		} else if (isCompactInteger(decimal) && gen instanceof JsonTextGenerator) {
+			((JsonTextGenerator) gen).writeString(decimal.value().longValue());
+		} else if (nativeNumbers && decimal.isValid() && decimal.value() != null) {
+			gen.write(decimal.value());
+		} else {
+			gen.write(decimal.toString());
+		}
+	}
+
+	/**
+	 * If the decimal is a whole number that fits in a long, so it can be
+	 * written without formatting a String first
+	 */
+	private boolean isCompactInteger(Decimal decimal) {
+		if (!decimal.isValid())
+			return false;
+		BigDecimal value = decimal.value();
+		return value != null && value.scale() == 0 && value.precision() < 19;
+	}
+
+	private void writeOrderCondition(JsonGenerator gen, OrderCondition oc) {
+		gen.writeStartObject();
 		if (oc instanceof PercentChangeCondition) {
-			builder.add("changePercent", numberToJson(((PercentChangeCondition) oc).changePercent()));
+			gen.writeKey("changePercent");
+			writeNumber(gen, ((PercentChangeCondition) oc).changePercent());
 		}
 		if (oc instanceof ContractCondition) {
-			builder.add("conId", numberToJson(((ContractCondition) oc).conId()));
+			gen.writeKey("conId");
+			writeNumber(gen, ((ContractCondition) oc).conId());
 		}
-		builder.add("conjunctionConnection", oc.conjunctionConnection());
+		gen.write("conjunctionConnection", oc.conjunctionConnection());
 		if (oc instanceof ContractCondition) {
-			builder.add("exchange", ((ContractCondition) oc).exchange());
+			gen.write("exchange", ((ContractCondition) oc).exchange());
 		}
 		if (oc instanceof ExecutionCondition) {
-			builder.add("exchange", ((ExecutionCondition) oc).exchange());
-			builder.add("secType", ((ExecutionCondition) oc).secType());
-			builder.add("symbol", ((ExecutionCondition) oc).symbol());
+			gen.write("exchange", ((ExecutionCondition) oc).exchange());
+			gen.write("secType", ((ExecutionCondition) oc).secType());
+			gen.write("symbol", ((ExecutionCondition) oc).symbol());
 		}
 		if (oc instanceof OperatorCondition) {
-			builder.add("isMore", ((OperatorCondition) oc).isMore());
+			gen.write("isMore", ((OperatorCondition) oc).isMore());
 		}
 		if (oc instanceof MarginCondition) {
-			builder.add("percent", numberToJson(((MarginCondition) oc).percent()));
+			gen.writeKey("percent");
+			writeNumber(gen, ((MarginCondition) oc).percent());
 		}
 		if (oc instanceof PriceCondition) {
-			builder.add("price", numberToJson(((PriceCondition) oc).price()));
-			builder.add("triggerMethod", numberToJson(((PriceCondition) oc).triggerMethod()));
+			gen.writeKey("price");
+			writeNumber(gen, ((PriceCondition) oc).price());
+			gen.writeKey("triggerMethod");
+			writeNumber(gen, ((PriceCondition) oc).triggerMethod());
 		}
 		if (oc instanceof TimeCondition) {
-			builder.add("time", ((TimeCondition) oc).time());
+			gen.write("time", ((TimeCondition) oc).time());
 		}
-		builder.add("type", enumToJson(oc.type()));
+		gen.writeKey("type");
+		writeEnum(gen, oc.type());
 		if (oc instanceof VolumeCondition) {
-			builder.add("volume", numberToJson(((VolumeCondition) oc).volume()));
+			gen.writeKey("volume");
+			writeNumber(gen, ((VolumeCondition) oc).volume());
 		}
-		return builder.build();
+		gen.writeEnd();
 	}
 
-	private JsonValue tagValueToJson(TagValue object) {
-		JsonObjectBuilder builder = Json.createObjectBuilder();
-		builder.add("tag", object.m_tag);
-		builder.add("value", object.m_value);
-		return builder.build();
+	private void writeTagValue(JsonGenerator gen, TagValue object) {
+		gen.writeStartObject();
+		gen.write("tag", object.m_tag);
+		gen.write("value", object.m_value);
+		gen.writeEnd();
 	}
 
-	private JsonValue softDollarTierToJson(SoftDollarTier object) {
-		JsonObjectBuilder builder = Json.createObjectBuilder();
+	private void writeSoftDollarTier(JsonGenerator gen, SoftDollarTier object) {
+		gen.writeStartObject();
 		if (object.name() != null)
-			builder.add("name", object.name());
+			gen.write("name", object.name());
 		if (object.value() != null)
-			builder.add("value", object.value());
+			gen.write("value", object.value());
 		if (object.toString() != null)
-			builder.add("displayName", object.toString());
-		return builder.build();
+			gen.write("displayName", object.toString());
+		gen.writeEnd();
+	}
+
+	private void writeHistogramEntry(JsonGenerator gen, HistogramEntry object) {
+		gen.writeStartObject();
+		gen.writeKey("price");
+		writeNumber(gen, object.price());
+		gen.writeKey("size");
+		writeNumber(gen, object.size());
+		gen.writeEnd();
 	}
 
-	private JsonValue histogramEntryToJson(HistogramEntry object) {
-		JsonObjectBuilder builder = Json.createObjectBuilder();
-		builder.add("price", numberToJson(object.price()));
-		builder.add("size", numberToJson(object.size()));
-		return builder.build();
+	private void writeException(JsonGenerator gen, Exception ex) {
+		if (ex.getMessage() == null) {
+			writeString(gen, ex.toString());
+		} else {
+			writeString(gen, ex.getMessage());
+		}
 	}
 
-	private JsonValue orderStateToJson(OrderState object, PropertyType type)
+	private void writeJavaObject(JsonGenerator gen, Object object, PropertyType type)
 			throws IllegalAccessException, InvocationTargetException {
-		JsonObjectBuilder builder = Json.createObjectBuilder();
-		Map<String, PropertyType> properties = type.getProperties();
-		for (String key : properties.keySet()) {
-			Method getter = type.getGetterMethod(key);
-			if (getter.getDeclaringClass().isAssignableFrom(object.getClass())) {
-				Object value = getter.invoke(object);
-				if (value != null && !Double.valueOf(Double.MAX_VALUE).equals(value)
-						&& !"1.7976931348623157E308".equals(value)) {
-					PropertyType p = properties.get(key);
-					JsonValue jsonValue = objectToJsonValue(value, p);
-					if (value != null && isAssigned(value, type.getDefaultValue(key))) {
-						builder.add(key, jsonValue);
+		startObject(gen, type);
+		int nulls = 0;
+		PropertyAccessor[] accessors = type.getAccessors();
+		boolean[] projection = getProjection(type);
+		for (int index = 0; index < accessors.length; index++) {
+			PropertyAccessor p = accessors[index];
+			if ((projection == null || projection[index]) && p.isReadable(object)) {
+				switch (p.getKind()) {
+				case INT:
+					int i = p.getInt(object);
+					if (!p.isDefault(i)) {
+						nulls = writeProperty(gen, p.getName(), nulls);
+						gen.write(i);
+						continue;
+					}
+					break;
+				case LONG:
+					long l = p.getLong(object);
+					if (!p.isDefault(l)) {
+						nulls = writeProperty(gen, p.getName(), nulls);
+						writeNumber(gen, l);
+						continue;
+					}
+					break;
+				case DOUBLE:
+					double d = p.getDouble(object);
+					if (!p.isDefault(d)) {
+						nulls = writeProperty(gen, p.getName(), nulls);
+						writeNumber(gen, d);
+						continue;
+					}
+					break;
+				case BOOLEAN:
+					boolean b = p.getBoolean(object);
+					if (!p.isDefault(b)) {
+						nulls = writeProperty(gen, p.getName(), nulls);
+						gen.write(b);
+						continue;
+					}
+					break;
+				default:
+					Object value = p.get(object);
+					if (!p.isDefault(value)) {
+						nulls = writeProperty(gen, p.getName(), nulls);
+						writeObject(gen, value, p.getType());
+						continue;
 					}
 				}
 			}
+			nulls++;
 		}
-		return builder.build();
+		gen.writeEnd();
 	}
 
-	private JsonValue exceptionToJson(Exception ex) {
-		if (ex.getMessage() == null) {
-			return stringToJson(ex.toString());
-		} else {
-			return stringToJson(ex.getMessage());
+	/**
+	 * Which of the accessors of the type are written, or null for all of them
+	 */
+	private boolean[] getProjection(PropertyType type) {
+		if (projections.isEmpty())
+			return null;
+		if (!projectionMasks.containsKey(type)) {
+			Set<String> names = projections.get(type.getSimpleName());
+			boolean[] mask = null;
+			if (names != null) {
+				PropertyAccessor[] accessors = type.getAccessors();
+				mask = new boolean[accessors.length];
+				for (int i = 0; i < accessors.length; i++) {
+					mask[i] = names.contains(accessors[i].getName());
+				}
+			}
+			projectionMasks.put(type, mask);
 		}
+		return projectionMasks.get(type);
 	}
 
-	private JsonValue javaObjectToJson(Object object, PropertyType type)
+	private void writeContractHandle(JsonGenerator gen, Contract contract, PropertyType type)
 			throws IllegalAccessException, InvocationTargetException {
-		JsonObjectBuilder builder = Json.createObjectBuilder();
-		Map<String, PropertyType> properties = type.getProperties();
-		for (String key : properties.keySet()) {
-			Method getter = type.getGetterMethod(key);
-			if (getter.getDeclaringClass().isAssignableFrom(object.getClass())) {
-				Object value = getter.invoke(object);
-				PropertyType p = properties.get(key);
-				JsonValue jsonValue = objectToJsonValue(value, p);
-				if (value != null && isAssigned(value, type.getDefaultValue(key))) {
-					builder.add(key, jsonValue);
-				}
+		Object key = getContractKey(contract);
+		Integer handle = key == null ? null : contractHandles.get(key);
+		if (handle == null) {
+			JsonValueGenerator definition = new JsonValueGenerator();
+			writeJavaObject(definition, contract, type);
+			JsonValue value = definition.getValue();
+			if (key == null) {
+				key = value;
+				handle = contractHandles.get(key);
+			}
+			if (handle == null) {
+				handle = ++lastHandle;
+				contracts.put(handle, value);
+				contractHandles.put(key, handle);
+				internedContracts.put(handle, value);
 			}
 		}
-		return builder.build();
+		gen.write(handle.intValue());
 	}
 
-	private boolean isAssigned(Object obj, Object defaultValue) {
-		if (obj == null)
-			return defaultValue != null;
-		else
-			return defaultValue == null || !obj.equals(defaultValue);
+	/**
+	 * The conid and identifying fields of a contract, or null for contracts
+	 * without a conid (such as combos) that are told apart by their definition
+	 */
+	private Object getContractKey(Contract contract) {
+		if (contract.conid() == 0 || "BAG".equals(contract.secType()))
+			return null;
+		return Arrays.asList(contract.conid(), contract.symbol(), contract.secType(),
+				contract.lastTradeDateOrContractMonth(), contract.strike(), contract.right(), contract.multiplier(),
+				contract.exchange(), contract.primaryExch(), contract.currency(), contract.localSymbol(),
+				contract.tradingClass());
+	}
+
+	private void startObject(JsonGenerator gen, PropertyType type) {
+		if (positional) {
+			positionalTypes.add(type);
+			gen.writeStartArray();
+		} else {
+			gen.writeStartObject();
+		}
+	}
+
+	/**
+	 * Writes the property name, or the nulls of the unassigned properties before
+	 * it, so trailing unassigned properties are left out of positional arrays
+	 */
+	private int writeProperty(JsonGenerator gen, String key, int nulls) {
+		if (positional) {
+			for (int i = 0; i < nulls; i++) {
+				gen.writeNull();
+			}
+		} else {
+			gen.writeKey(key);
+		}
+		return 0;
 	}
 
 }
@@ -15,16 +15,27 @@
  */
 package com.meerkattrading.tws;
 
+import java.io.Closeable;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.InetAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Logger;
 
 /**
- * Listens on a TCP port and launches new {@Worker} threads to handle the client
+ * Listens on a TCP port (optionally for WebSocket connections) or Unix domain socket and launches new {@Worker} threads to handle the client
  * 
  * @author James Leigh
  *
@@ -33,10 +44,14 @@ public class Server implements Runnable {
 	private final Logger logger = Logger.getLogger(Server.class.getName());
 	private int local_port;
 	private InetAddress local_inet;
+	private Path local_path;
 	private int remote_port;
 	private InetAddress remote_inet;
+	private int pipelineDepth;
+	private boolean websocket;
 	private Thread thread;
 	private ServerSocket serverSocket;
+	private ServerSocketChannel serverChannel;
 	private final ConcurrentHashMap<Worker, Thread> workers = new ConcurrentHashMap<>();
 
 	/**
@@ -47,6 +62,13 @@ public class Server implements Runnable {
 		this.local_inet = local_inet;
 	}
 
+	/**
+	 * Will listen on the local_path Unix domain socket and have {@link Worker} connect to tws API
+	 */
+	public Server(Path local_path) {
+		this.local_path = local_path;
+	}
+
 	/**
 	 * Changes the {@link Worker}s to only connect to the give tws API
 	 */
@@ -58,17 +80,35 @@ public class Server implements Runnable {
 		}
 	}
 
+	/**
+	 * How many commands each {@link Worker} can read ahead of the running command
+	 */
+	public void setPipelineDepth(int pipelineDepth) {
+		this.pipelineDepth = pipelineDepth;
+	}
+
+	/**
+	 * If clients must open a WebSocket connection and send each command as a message
+	 */
+	public void setWebSocket(boolean websocket) {
+		this.websocket = websocket;
+	}
+
 	/**
 	 * Called when Server is ready to listen and run in it's own thread
 	 */
 	@Override
 	public void run() {
 		try {
-			while (!serverSocket.isClosed()) {
+			while (isOpen()) {
 				try {
-					createWorker(serverSocket.accept());
-				} catch (SocketException e) {
-					if (!serverSocket.isClosed()) {
+					if (serverChannel != null) {
+						createWorker(serverChannel.accept());
+					} else {
+						createWorker(serverSocket.accept());
+					}
+				} catch (SocketException | ClosedChannelException e) {
+					if (isOpen()) {
 						logger.warning(e.getMessage());
 					}
 				} catch (IOException e) {
@@ -87,7 +127,13 @@ public class Server implements Runnable {
 		if (thread == null) {
 			try {
 				thread = new Thread(this);
-				serverSocket = new ServerSocket(local_port, 1, local_inet);
+				if (local_path != null) {
+					Files.deleteIfExists(local_path);
+					serverChannel = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+					serverChannel.bind(UnixDomainSocketAddress.of(local_path));
+				} else {
+					serverSocket = new ServerSocket(local_port, 1, local_inet);
+				}
 				thread.start();
 			} catch (IOException e) {
 				logger.warning(e.getMessage());
@@ -99,26 +145,52 @@ public class Server implements Runnable {
 	 * Stops this server and closes it's thread
 	 */
 	public synchronized void stop() {
-		if (serverSocket != null) {
+		if (serverSocket != null || serverChannel != null) {
 			try {
 				for (Worker worker : workers.keySet()) {
 					worker.exit();
 				}
-				serverSocket.close();
+				if (serverChannel != null) {
+					serverChannel.close();
+					Files.deleteIfExists(local_path);
+				} else {
+					serverSocket.close();
+				}
 			} catch (IOException e) {
 				logger.warning(e.getMessage());
 			}
 		}
 	}
 
+	private boolean isOpen() {
+		return serverChannel != null ? serverChannel.isOpen() : !serverSocket.isClosed();
+	}
+
 	/**
 	 * Called when a new remote client has opened a socket and needs a worker
 	 */
-	private synchronized void createWorker(Socket socket) throws IOException {
-		Worker worker = new Worker(socket.getInputStream(), socket.getOutputStream());
+	private void createWorker(Socket socket) throws IOException {
+		if (websocket) {
+			WebSocket ws = new WebSocket(socket);
+			createWorker(ws.getInputStream(), ws.getOutputStream(), ws);
+		} else {
+			createWorker(socket.getInputStream(), socket.getOutputStream(), socket);
+		}
+	}
+
+	/**
+	 * Called when a new local client has opened a Unix domain socket and needs a worker
+	 */
+	private void createWorker(SocketChannel channel) throws IOException {
+		createWorker(new ChannelInputStream(channel), new ChannelOutputStream(channel), channel);
+	}
+
+	private synchronized void createWorker(InputStream in, OutputStream out, Closeable socket) throws IOException {
+		Worker worker = new Worker(in, out);
 		if (remote_inet != null && remote_port > 0) {
 			worker.setRemoteAddress(remote_inet, remote_port);
 		}
+		worker.setPipelineDepth(pipelineDepth);
 		Thread thread = new Thread(worker);
 		workers.put(worker, thread);
 		worker.onExit(() -> {
@@ -136,4 +208,78 @@ public class Server implements Runnable {
 		thread.start();
 	}
 
+	/**
+	 * Reads from a blocking channel without holding the channel's blocking lock,
+	 * so events can be written to the same channel while waiting for a command
+	 */
+	private static class ChannelInputStream extends InputStream {
+		private final SocketChannel channel;
+		private final ByteBuffer buffer = ByteBuffer.allocate(8192).flip();
+
+		ChannelInputStream(SocketChannel channel) {
+			this.channel = channel;
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] b = new byte[1];
+			return read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (len == 0)
+				return 0;
+			if (!buffer.hasRemaining()) {
+				buffer.clear();
+				int read = channel.read(buffer);
+				buffer.flip();
+				if (read < 0)
+					return -1;
+			}
+			int n = Math.min(len, buffer.remaining());
+			buffer.get(b, off, n);
+			return n;
+		}
+
+		@Override
+		public int available() {
+			return buffer.remaining();
+		}
+
+		@Override
+		public void close() throws IOException {
+			channel.close();
+		}
+	}
+
+	/**
+	 * Writes to a blocking channel without holding the channel's blocking lock
+	 */
+	private static class ChannelOutputStream extends OutputStream {
+		private final SocketChannel channel;
+
+		ChannelOutputStream(SocketChannel channel) {
+			this.channel = channel;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			ByteBuffer buf = ByteBuffer.wrap(b, off, len);
+			while (buf.hasRemaining()) {
+				channel.write(buf);
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			channel.close();
+		}
+	}
+
 }
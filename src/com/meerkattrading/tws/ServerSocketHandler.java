@@ -17,6 +17,7 @@ package com.meerkattrading.tws;
 
 import java.net.InetAddress;
 import java.net.ServerSocket;
+import java.nio.file.Path;
 import java.util.concurrent.ConcurrentHashMap;
 
 import org.aspectj.lang.annotation.AfterReturning;
@@ -35,6 +36,14 @@ public class ServerSocketHandler {
 	private static int portOffset = 100;
 	private static InetAddress inet = InetAddress.getLoopbackAddress();
 	private static Integer twsPort;
+	private static int pipelineDepth;
+	private static Path unixSocket;
+	private static boolean tcp = true;
+	private static Server unixServer;
+	private static Path ringDirectory;
+	private static RingServer ringServer;
+	private static Integer websocketPort;
+	private static Server websocketServer;
 	private static ConcurrentHashMap<Integer, Server> servers = new ConcurrentHashMap<>();
 
 	/**
@@ -65,13 +74,65 @@ public class ServerSocketHandler {
 		ServerSocketHandler.twsPort = twsPort;
 	}
 
+	/**
+	 * Set how many commands each {@link Worker} can read ahead of the running command
+	 */
+	public static void setPipelineDepth(int pipelineDepth) {
+		ServerSocketHandler.pipelineDepth = pipelineDepth;
+	}
+
+	/**
+	 * Set the Unix domain socket path that a {@link Server} should also listen on
+	 */
+	public static void setUnixSocket(Path unixSocket) {
+		ServerSocketHandler.unixSocket = unixSocket;
+	}
+
+	/**
+	 * Set the directory a {@link RingServer} should create shared memory ring files in
+	 */
+	public static void setRingDirectory(Path ringDirectory) {
+		ServerSocketHandler.ringDirectory = ringDirectory;
+	}
+
+	/**
+	 * Set the port that a {@link Server} should also listen on for WebSocket connections
+	 */
+	public static void setWebSocketPort(Integer websocketPort) {
+		ServerSocketHandler.websocketPort = websocketPort;
+	}
+
+	/**
+	 * If a {@link Server} should listen on a TCP port (in addition to any Unix domain socket, ring or WebSocket)
+	 */
+	public static void setTcp(boolean tcp) {
+		ServerSocketHandler.tcp = tcp;
+	}
+
 	/**
 	 * Starts the {@link Server}, if only one
 	 */
-	public static void initialize() {
-		if (port != null) {
+	public static synchronized void initialize() {
+		if (unixSocket != null && unixServer == null) {
+			unixServer = new Server(unixSocket);
+			unixServer.setPipelineDepth(pipelineDepth);
+			unixServer.start();
+		}
+		if (ringDirectory != null && ringServer == null) {
+			ringServer = new RingServer(ringDirectory);
+			ringServer.setPipelineDepth(pipelineDepth);
+			ringServer.start();
+		}
+		if (websocketPort != null && websocketServer == null) {
+			websocketServer = new Server(inet, websocketPort);
+			websocketServer.setWebSocket(true);
+			websocketServer.setPipelineDepth(pipelineDepth);
+			websocketServer.start();
+		}
+		if (port != null && tcp) {
 			servers.putIfAbsent(port, new Server(inet, port));
 			Server server = servers.get(port);
+			server.setPipelineDepth(pipelineDepth);
 			server.start();
 		}
 	}
@@ -110,11 +171,25 @@ public class ServerSocketHandler {
 	 * Called when a new {@link ServerSocket} needs a new {@link Server}
 	 */
 	private void startServer(ServerSocket srv) {
-		if (twsPort == null || twsPort.equals(srv.getLocalPort())) {
+		if ((unixSocket != null || ringDirectory != null || websocketPort != null)
+				&& (twsPort == null || twsPort.equals(srv.getLocalPort()))) {
+			initialize();
+			if (unixServer != null) {
+				unixServer.setRemote(srv.getInetAddress(), srv.getLocalPort());
+			}
+			if (ringServer != null) {
+				ringServer.setRemote(srv.getInetAddress(), srv.getLocalPort());
+			}
+			if (websocketServer != null) {
+				websocketServer.setRemote(srv.getInetAddress(), srv.getLocalPort());
+			}
+		}
+		if (tcp && (twsPort == null || twsPort.equals(srv.getLocalPort()))) {
 			int json_port = port != null ? port : portOffset + srv.getLocalPort();
 			servers.putIfAbsent(json_port, new Server(inet, json_port));
 			Server server = servers.get(json_port);
 			server.setRemote(srv.getInetAddress(), srv.getLocalPort());
+			server.setPipelineDepth(pipelineDepth);
 			server.start();
 		}
 	}
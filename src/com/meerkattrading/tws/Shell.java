@@ -108,6 +108,9 @@ public class Shell {
 				boolean prompt = !cmd.hasOption("no-prompt");
 				Interpreter interpreter = new Interpreter(prompt);
 				interpreter.setRemoteAddress(host, port);
+				if (cmd.hasOption("json-api-pipeline")) {
+					interpreter.setPipelineDepth(Integer.parseInt(cmd.getOptionValue("json-api-pipeline")));
+				}
 				for (String arg : cmd.getArgs()) {
 					FileInputStream in = new FileInputStream(arg);
 					try {
@@ -148,6 +151,13 @@ public class Shell {
 		options.addOption(null, "json-api-port", true, "Server port for TWS JSON API to listen on");
 		options.addOption(null, "json-api-port-offset", true, "Server JSON port offset from tws-api-port");
 		options.addOption(null, "json-api-inet", true, "Server local network interface to listen on for TWS JSON API");
+		options.addOption(null, "json-api-unix-socket", true,
+				"Unix domain socket path for TWS JSON API to listen on, alongside or instead of a TCP port");
+		options.addOption(null, "json-api-websocket-port", true,
+				"Server port for TWS JSON API to accept WebSocket connections on, alongside or instead of a TCP port");
+		options.addOption(null, "json-api-ring", true,
+				"Directory for TWS JSON API to create shared memory ring files in, alongside or instead of a TCP port");
+		options.addOption(null, "json-api-pipeline", true, "Number of commands to read ahead while a command is running");
 		options.addOption(null, "jts-exe-name", true, "The primary launch filename installed by TWS software");
 		options.addOption(null, "jts-install-dir", true,
 				"Location of Jts/ibgateway/Trader Workstation/IB Gateway folder to use");
@@ -344,6 +354,22 @@ public class Shell {
 			if (cmd.hasOption("json-api-inet")) {
 				object.remove("json-api-inet").add("json-api-inet", cmd.getOptionValue("json-api-inet"));
 			}
+			if (cmd.hasOption("json-api-unix-socket")) {
+				object.remove("json-api-unix-socket").add("json-api-unix-socket",
+						new File(cmd.getOptionValue("json-api-unix-socket")).getAbsolutePath());
+			}
+			if (cmd.hasOption("json-api-websocket-port")) {
+				object.remove("json-api-websocket-port").add("json-api-websocket-port",
+						Integer.parseInt(cmd.getOptionValue("json-api-websocket-port")));
+			}
+			if (cmd.hasOption("json-api-ring")) {
+				object.remove("json-api-ring").add("json-api-ring",
+						new File(cmd.getOptionValue("json-api-ring")).getAbsolutePath());
+			}
+			if (cmd.hasOption("json-api-pipeline")) {
+				object.remove("json-api-pipeline").add("json-api-pipeline",
+						Integer.parseInt(cmd.getOptionValue("json-api-pipeline")));
+			}
 			props.put(jtsConfigDir, encodeObject(object.build()));
 		} else {
 			if (cmd.hasOption("tws-api-port")) {
@@ -357,6 +383,18 @@ public class Shell {
 			if (cmd.hasOption("json-api-inet")) {
 				props.put("json-api-inet", cmd.getOptionValue("json-api-inet"));
 			}
+			if (cmd.hasOption("json-api-unix-socket")) {
+				props.put("json-api-unix-socket", new File(cmd.getOptionValue("json-api-unix-socket")).getAbsolutePath());
+			}
+			if (cmd.hasOption("json-api-websocket-port")) {
+				props.put("json-api-websocket-port", cmd.getOptionValue("json-api-websocket-port"));
+			}
+			if (cmd.hasOption("json-api-ring")) {
+				props.put("json-api-ring", new File(cmd.getOptionValue("json-api-ring")).getAbsolutePath());
+			}
+			if (cmd.hasOption("json-api-pipeline")) {
+				props.put("json-api-pipeline", cmd.getOptionValue("json-api-pipeline"));
+			}
 		}
 		return props;
 	}
@@ -369,9 +407,11 @@ public class Shell {
 		for (Object key : props.keySet()) {
 			sb.append(encodeQuotedString(key.toString()));
 			sb.append(":");
-			if ("tws-api-jar".equals(key) || "json-api-inet".equals(key)) {
+			if ("tws-api-jar".equals(key) || "json-api-inet".equals(key) || "json-api-unix-socket".equals(key)
+					|| "json-api-ring".equals(key)) {
 				sb.append(encodeQuotedString(props.get(key).toString()));
-			} else if ("tws-api-port".equals(key) || "json-api-port".equals(key) || "json-api-port-offset".equals(key)) {
+			} else if ("tws-api-port".equals(key) || "json-api-port".equals(key) || "json-api-port-offset".equals(key)
+					|| "json-api-pipeline".equals(key) || "json-api-websocket-port".equals(key)) {
 				sb.append(props.get(key));
 			} else {
 				// jts-config-dir JSON
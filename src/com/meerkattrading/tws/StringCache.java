@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2023 James Leigh
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.meerkattrading.tws;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Keeps the encoded form of event names, property names and short values
+ * (such as "SMART", "USD" and "STK") that are written over and over. Names are
+ * kept until the limit is reached, values are kept while they are among the
+ * most recently used. Not thread safe.
+ *
+ * @author James Leigh
+ *
+ */
+public class StringCache<T> {
+	private static final int MAX_NAMES = 4096;
+	private final Function<String, T> encoder;
+	private final int maxLength;
+	private final Map<String, T> names = new HashMap<>();
+	private final Map<String, T> values;
+
+	/**
+	 * @param encoder   encodes a string
+	 * @param capacity  the number of values to keep
+	 * @param maxLength the longest value to keep
+	 */
+	public StringCache(Function<String, T> encoder, final int capacity, int maxLength) {
+		this.encoder = encoder;
+		this.maxLength = maxLength;
+		this.values = new LinkedHashMap<String, T>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, T> eldest) {
+				return size() > capacity;
+			}
+		};
+	}
+
+	/**
+	 * The encoded event or property name
+	 */
+	public T getName(String name) {
+		T encoded = names.get(name);
+		if (encoded == null) {
+			encoded = encoder.apply(name);
+			if (names.size() < MAX_NAMES) {
+				names.put(name, encoded);
+			}
+		}
+		return encoded;
+	}
+
+	/**
+	 * The encoded value, or null if it is too long to be kept
+	 */
+	public T getValue(String value) {
+		if (value.length() > maxLength)
+			return null;
+		T encoded = values.get(value);
+		if (encoded == null) {
+			encoded = encoder.apply(value);
+			values.put(value, encoded);
+		}
+		return encoded;
+	}
+}
@@ -0,0 +1,365 @@
+/*
+ * Copyright (c) 2023 James Leigh
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.meerkattrading.tws;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.ib.client.Decimal;
+import com.ib.client.TickType;
+
+/**
+ * Keeps the latest value of every tick field of every ticker, from the
+ * tickPrice, tickSize, tickString, tickGeneric and tickOptionComputation
+ * events, in arrays indexed by ticker row and tick type field. The values of a
+ * ticker are cleared when tickReqParams starts a new subscription, and its row
+ * is freed when it is removed.
+ *
+ * @author James Leigh
+ *
+ */
+public class TickStore implements EWrapperListener {
+	private static final int FIELDS = 128;
+	private static final String[] OPTION_VALUES = { "impliedVol", "delta", "optPrice", "pvDividend", "gamma", "vega",
+			"theta", "undPrice" };
+	private static final int OPTION = OPTION_VALUES.length;
+	private int[] keys = new int[16];
+	private int[] slots = new int[16];
+	private int rows;
+	private int[] tickerIds = new int[8];
+	private long[] updated = new long[8];
+	private double[][] prices = new double[8][];
+	private Decimal[][] sizes = new Decimal[8][];
+	private String[][] strings = new String[8][];
+	private double[][] generics = new double[8][];
+	private double[][] options = new double[8][];
+	private int[][] optionAttribs = new int[8][];
+
+	/**
+	 * Updates the store from an EWrapper event, ignoring other events
+	 */
+	@Override
+	public boolean update(String event, Object[] args) {
+		switch (event) {
+		case "tickPrice":
+			tickPrice((Integer) args[0], (Integer) args[1], (Double) args[2]);
+			break;
+		case "tickSize":
+			tickSize((Integer) args[0], (Integer) args[1], (Decimal) args[2]);
+			break;
+		case "tickString":
+			tickString((Integer) args[0], (Integer) args[1], (String) args[2]);
+			break;
+		case "tickGeneric":
+			tickGeneric((Integer) args[0], (Integer) args[1], (Double) args[2]);
+			break;
+		case "tickOptionComputation":
+			tickOptionComputation((Integer) args[0], (Integer) args[1], (Integer) args[2], (Double) args[3],
+					(Double) args[4], (Double) args[5], (Double) args[6], (Double) args[7], (Double) args[8],
+					(Double) args[9], (Double) args[10]);
+			break;
+		case "tickReqParams":
+			clear((Integer) args[0]);
+			break;
+		default:
+			break;
+		}
+		return false;
+	}
+
+	public synchronized void tickPrice(int tickerId, int field, double price) {
+		int row = row(tickerId);
+		prices[row] = set(prices[row], field, 1, price);
+	}
+
+	public synchronized void tickSize(int tickerId, int field, Decimal size) {
+		int row = row(tickerId);
+		if (sizes[row] == null || sizes[row].length <= field) {
+			sizes[row] = Arrays.copyOf(sizes[row] == null ? new Decimal[0] : sizes[row], capacity(field + 1));
+		}
+		sizes[row][field] = size;
+	}
+
+	public synchronized void tickString(int tickerId, int field, String value) {
+		int row = row(tickerId);
+		if (strings[row] == null || strings[row].length <= field) {
+			strings[row] = Arrays.copyOf(strings[row] == null ? new String[0] : strings[row], capacity(field + 1));
+		}
+		strings[row][field] = value;
+	}
+
+	public synchronized void tickGeneric(int tickerId, int field, double value) {
+		int row = row(tickerId);
+		generics[row] = set(generics[row], field, 1, value);
+	}
+
+	public synchronized void tickOptionComputation(int tickerId, int field, int tickAttrib, double impliedVol,
+			double delta, double optPrice, double pvDividend, double gamma, double vega, double theta,
+			double undPrice) {
+		int row = row(tickerId);
+		double[] values = set(options[row], field, OPTION, impliedVol);
+		int off = field * OPTION;
+		values[off + 1] = delta;
+		values[off + 2] = optPrice;
+		values[off + 3] = pvDividend;
+		values[off + 4] = gamma;
+		values[off + 5] = vega;
+		values[off + 6] = theta;
+		values[off + 7] = undPrice;
+		options[row] = values;
+		if (optionAttribs[row] == null || optionAttribs[row].length <= field) {
+			int[] attribs = optionAttribs[row] == null ? new int[0] : optionAttribs[row];
+			optionAttribs[row] = Arrays.copyOf(attribs, capacity(field + 1));
+		}
+		optionAttribs[row][field] = tickAttrib;
+	}
+
+	/**
+	 * Forgets the values of the ticker, keeping its row and arrays for the values
+	 * of the new subscription
+	 */
+	public synchronized void clear(int tickerId) {
+		int slot = find(tickerId);
+		if (slots[slot] > 0) {
+			int row = slots[slot] - 1;
+			fill(prices[row], Double.NaN);
+			fill(sizes[row], null);
+			fill(strings[row], null);
+			fill(generics[row], Double.NaN);
+			fill(options[row], Double.NaN);
+			updated[row] = 0;
+		}
+	}
+
+	/**
+	 * Forgets the ticker and frees its row, such as when its market data is
+	 * cancelled
+	 */
+	public synchronized void remove(int tickerId) {
+		int slot = find(tickerId);
+		if (slots[slot] == 0)
+			return;
+		int row = slots[slot] - 1;
+		int moved = rows - row - 1;
+		System.arraycopy(tickerIds, row + 1, tickerIds, row, moved);
+		System.arraycopy(updated, row + 1, updated, row, moved);
+		System.arraycopy(prices, row + 1, prices, row, moved);
+		System.arraycopy(sizes, row + 1, sizes, row, moved);
+		System.arraycopy(strings, row + 1, strings, row, moved);
+		System.arraycopy(generics, row + 1, generics, row, moved);
+		System.arraycopy(options, row + 1, options, row, moved);
+		System.arraycopy(optionAttribs, row + 1, optionAttribs, row, moved);
+		rows--;
+		prices[rows] = null;
+		sizes[rows] = null;
+		strings[rows] = null;
+		generics[rows] = null;
+		options[rows] = null;
+		optionAttribs[rows] = null;
+		slots[slot] = 0;
+		for (int i = 0; i < slots.length; i++) {
+			if (slots[i] > row + 1) {
+				slots[i]--;
+			}
+		}
+		// rebuild the probe sequences that passed through the freed slot
+		rehash(keys.length);
+	}
+
+	/**
+	 * Forgets all tickers
+	 */
+	public synchronized void clear() {
+		Arrays.fill(slots, 0);
+		for (int row = 0; row < rows; row++) {
+			prices[row] = null;
+			sizes[row] = null;
+			strings[row] = null;
+			generics[row] = null;
+			options[row] = null;
+			optionAttribs[row] = null;
+		}
+		rows = 0;
+	}
+
+	/**
+	 * The tickers that have values, in the order they were first seen
+	 */
+	public synchronized int[] getTickerIds() {
+		int[] result = new int[rows];
+		int n = 0;
+		for (int row = 0; row < rows; row++) {
+			if (updated[row] > 0) {
+				result[n++] = tickerIds[row];
+			}
+		}
+		return Arrays.copyOf(result, n);
+	}
+
+	/**
+	 * When the ticker was last updated, in milliseconds since 1970-01-01 UTC, or
+	 * zero if it has no values
+	 */
+	public synchronized long getUpdated(int tickerId) {
+		int slot = find(tickerId);
+		return slots[slot] > 0 ? updated[slots[slot] - 1] : 0;
+	}
+
+	/**
+	 * The current price, size, string and generic values of the ticker by tick
+	 * type field name
+	 */
+	public synchronized Map<String, Object> getValues(int tickerId) {
+		Map<String, Object> values = new LinkedHashMap<>();
+		int slot = find(tickerId);
+		if (slots[slot] == 0)
+			return values;
+		int row = slots[slot] - 1;
+		int fields = Math.max(length(prices[row]), length(generics[row]));
+		fields = Math.max(fields, Math.max(length(sizes[row]), length(strings[row])));
+		for (int field = 0; field < fields; field++) {
+			if (field < length(prices[row]) && !Double.isNaN(prices[row][field])) {
+				values.put(TickType.getField(field), prices[row][field]);
+			}
+			if (field < length(sizes[row]) && sizes[row][field] != null) {
+				values.put(TickType.getField(field), sizes[row][field]);
+			}
+			if (field < length(strings[row]) && strings[row][field] != null) {
+				values.put(TickType.getField(field), strings[row][field]);
+			}
+			if (field < length(generics[row]) && !Double.isNaN(generics[row][field])) {
+				values.put(TickType.getField(field), generics[row][field]);
+			}
+		}
+		return values;
+	}
+
+	/**
+	 * The current option computations of the ticker by tick type field name
+	 */
+	public synchronized Map<String, Map<String, Number>> getOptionComputations(int tickerId) {
+		Map<String, Map<String, Number>> computations = new LinkedHashMap<>();
+		int slot = find(tickerId);
+		if (slots[slot] == 0 || options[slots[slot] - 1] == null)
+			return computations;
+		int row = slots[slot] - 1;
+		for (int field = 0; field < optionAttribs[row].length; field++) {
+			if (!Double.isNaN(options[row][field * OPTION])) {
+				Map<String, Number> computation = new LinkedHashMap<>();
+				computation.put("tickAttrib", optionAttribs[row][field]);
+				for (int i = 0; i < OPTION; i++) {
+					computation.put(OPTION_VALUES[i], options[row][field * OPTION + i]);
+				}
+				computations.put(TickType.getField(field), computation);
+			}
+		}
+		return computations;
+	}
+
+	private void fill(double[] array, double value) {
+		if (array != null) {
+			Arrays.fill(array, value);
+		}
+	}
+
+	private void fill(Object[] array, Object value) {
+		if (array != null) {
+			Arrays.fill(array, value);
+		}
+	}
+
+	private int length(Object[] array) {
+		return array == null ? 0 : array.length;
+	}
+
+	private int length(double[] array) {
+		return array == null ? 0 : array.length;
+	}
+
+	/**
+	 * Stores the value at field * width, with NaN for unset values
+	 */
+	private double[] set(double[] array, int field, int width, double value) {
+		if (array == null || array.length < (field + 1) * width) {
+			int length = array == null ? 0 : array.length;
+			array = Arrays.copyOf(array == null ? new double[0] : array, capacity(field + 1) * width);
+			Arrays.fill(array, length, array.length, Double.NaN);
+		}
+		array[field * width] = value;
+		return array;
+	}
+
+	private int capacity(int fields) {
+		return Math.max(FIELDS, Integer.highestOneBit(fields - 1) << 1);
+	}
+
+	/**
+	 * The row of the ticker, added if it is new, marked as updated
+	 */
+	private int row(int tickerId) {
+		int slot = find(tickerId);
+		if (slots[slot] == 0) {
+			if (rows == tickerIds.length) {
+				int length = rows * 2;
+				tickerIds = Arrays.copyOf(tickerIds, length);
+				updated = Arrays.copyOf(updated, length);
+				prices = Arrays.copyOf(prices, length);
+				sizes = Arrays.copyOf(sizes, length);
+				strings = Arrays.copyOf(strings, length);
+				generics = Arrays.copyOf(generics, length);
+				options = Arrays.copyOf(options, length);
+				optionAttribs = Arrays.copyOf(optionAttribs, length);
+			}
+			tickerIds[rows] = tickerId;
+			keys[slot] = tickerId;
+			slots[slot] = ++rows;
+			if (rows * 2 > keys.length) {
+				rehash(keys.length * 2);
+				slot = find(tickerId);
+			}
+		}
+		int row = slots[slot] - 1;
+		updated[row] = System.currentTimeMillis();
+		return row;
+	}
+
+	/**
+	 * The open addressing slot of the ticker, or the empty slot it belongs in
+	 */
+	private int find(int tickerId) {
+		int mask = keys.length - 1;
+		int slot = (tickerId * 0x9E3779B9) >>> 16 & mask;
+		while (slots[slot] != 0 && keys[slot] != tickerId) {
+			slot = slot + 1 & mask;
+		}
+		return slot;
+	}
+
+	private void rehash(int length) {
+		int[] oldKeys = keys;
+		int[] oldSlots = slots;
+		keys = new int[length];
+		slots = new int[length];
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldSlots[i] != 0) {
+				int slot = find(oldKeys[i]);
+				keys[slot] = oldKeys[i];
+				slots[slot] = oldSlots[i];
+			}
+		}
+	}
+}
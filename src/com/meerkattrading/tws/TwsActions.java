@@ -18,6 +18,11 @@ package com.meerkattrading.tws;
 import java.io.EOFException;
 import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
+import java.util.Set;
+
+import javax.json.JsonArray;
+
+import com.ib.client.Contract;
 
 /**
  * Actions to control TWS
@@ -29,6 +34,12 @@ public interface TwsActions {
 
 	public void sleep(Long ms) throws InterruptedException;
 
+	public void at(long time, JsonArray command);
+
+	public void every(int scheduleId, long period, JsonArray command);
+
+	public void cancelEvery(int scheduleId);
+
 	public void eConnect(int clientId, boolean extraAuth) throws InterruptedException;
 
 	public void eDisconnect();
@@ -47,6 +58,72 @@ public interface TwsActions {
 
 	public void getTwsConnectionTime() throws IOException;
 
+	public void encoding(String encoding) throws IOException;
+
+	public void positional(boolean positional);
+
+	public void nativeNumbers(boolean nativeNumbers);
+
+	public void subscribeEvents(Set<String> events);
+
+	public void unsubscribeEvents(Set<String> events);
+
+	public void project(String type_name, Set<String> properties);
+
+	public void delta(boolean enabled, Long refreshMillis);
+
+	public void internContracts(boolean interning);
+
+	public void columnar(boolean columnar);
+
+	public void snapshot(Integer tickerId);
+
+	public void cancelMktData(int tickerId)
+			throws IllegalAccessException, InvocationTargetException, NoSuchMethodException;
+
+	public void depthSnapshots(long intervalMillis, Integer rows);
+
+	public void reqTickBars(int reqId, Contract contract, String barType, double barSize);
+
+	public void cancelTickBars(int reqId);
+
+	public void accountValues(String account);
+
+	public void accountPositions(String account);
+
+	public void orders(Integer orderId, Long permId, Integer clientId, String orderRef);
+
+	public void executionJournal(String file) throws IOException, InvocationTargetException, IllegalAccessException;
+
+	public void queryExecutions(Long from, Long to, String symbol);
+
+	public void reqOptionChain(int chainId, String underlyingSymbol, String futFopExchange, String underlyingSecType,
+			int underlyingConId, long intervalMillis)
+			throws IllegalAccessException, InvocationTargetException, NoSuchMethodException;
+
+	public void reqOptionChainMktData(int chainId, int tickerId, Contract contract, String genericTickList);
+
+	public void cancelOptionChain(int chainId)
+			throws IllegalAccessException, InvocationTargetException, NoSuchMethodException;
+
+	public void reqSecDefOptParams(int reqId, String underlyingSymbol, String futFopExchange,
+			String underlyingSecType, int underlyingConId)
+			throws IllegalAccessException, InvocationTargetException, NoSuchMethodException;
+
+	public void reqMatchingSymbols(int reqId, String pattern)
+			throws IllegalAccessException, InvocationTargetException, NoSuchMethodException;
+
+	public void responseCache(long ttlMillis, Integer capacity);
+
+	public void reqHistoricalDownload(int reqId, Contract contract, long from, long to, String barSizeSetting,
+			String whatToShow, int useRTH);
+
+	public void cancelHistoricalDownload(int reqId);
+
+	public void contract(int handle) throws IllegalAccessException, InvocationTargetException, IOException;
+
 	public void help(String name) throws IllegalAccessException, InvocationTargetException, IOException;
 
+	public void batch(JsonArray commands) throws IOException;
+
 }
@@ -15,6 +15,16 @@
  */
 package com.meerkattrading.tws;
 
+import java.util.Map;
+
+import com.ib.client.Bar;
+import com.ib.client.CommissionAndFeesReport;
+import com.ib.client.Contract;
+import com.ib.client.Decimal;
+import com.ib.client.Execution;
+import com.ib.client.Order;
+import com.ib.client.OrderState;
+
 /**
  * Events fired from TWS
  *
@@ -49,4 +59,43 @@ public interface TwsEvents {
 
 	void getTwsConnectionTime(String twsConnectionTime);
 
+	void encoding(String encoding);
+
+	void schema(String type_name, String[] properties, String[] property_types);
+
+	void contract(int handle, Contract contract);
+
+	void snapshot(int tickerId, Map<String, Object> values, Map<String, Map<String, Number>> optionComputations);
+
+	void snapshotEnd();
+
+	void marketDepth(int tickerId, Double[] bidPrices, Decimal[] bidSizes, String[] bidMarketMakers,
+			Double[] askPrices, Decimal[] askSizes, String[] askMarketMakers);
+
+	void tickBar(int reqId, Bar bar);
+
+	void accountValues(String account, Map<String, Map<String, String>> values);
+
+	void accountValuesEnd();
+
+	void accountPosition(String account, Contract contract, Decimal position, double averageCost,
+			Double marketPrice, Double marketValue, Double unrealizedPNL, Double realizedPNL);
+
+	void accountPositionsEnd();
+
+	void order(int orderId, long permId, int clientId, String orderRef, String status, Decimal filled,
+			Decimal remaining, double avgFillPrice, double lastFillPrice, int parentId, String whyHeld,
+			Contract contract, Order order, OrderState orderState);
+
+	void ordersEnd();
+
+	void execution(long time, Contract contract, Execution execution, CommissionAndFeesReport report);
+
+	void executionsEnd();
+
+	void optionChain(int chainId, String[] expirations, Double[] strikes, Map<String, Double[]> calls,
+			Map<String, Double[]> puts);
+
+	void batchEnd(int size, long elapsedMicros, Map<Integer, String> errors);
+
 }
@@ -22,10 +22,29 @@ import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.lang.reflect.Parameter;
 import java.lang.reflect.Type;
+import java.nio.file.Paths;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Logger;
 
+import javax.json.JsonArray;
+import javax.json.JsonString;
+import javax.json.JsonValue;
+import javax.json.JsonValue.ValueType;
+
+import com.ib.client.Bar;
+import com.ib.client.Contract;
 import com.ib.client.EClient;
 import com.ib.client.EClientSocket;
 import com.ib.client.EJavaSignal;
@@ -39,22 +58,79 @@ import com.ib.client.EWrapper;
  *
  */
 public class TwsSocketActions implements TwsActions {
+	private static final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(task -> {
+		Thread thread = new Thread(task, TwsSocketActions.class.getSimpleName() + " scheduler");
+		thread.setDaemon(true);
+		return thread;
+	});
 	private final Logger logger = Logger.getLogger(TwsSocketActions.class.getName());
 	private final TwsEvents events;
 	private final Printer out;
 	private final EJavaSignal signal = new EJavaSignal();
+	private final Deserializer deserializer = new Deserializer();
+	private final TickStore ticks = new TickStore();
+	private final DepthBook books = new DepthBook();
+	private final BarAggregator bars;
+	private final AccountStore accounts = new AccountStore();
+	private final OrderStore orders = new OrderStore(1000);
+	private final ExecutionJournal executions = new ExecutionJournal(100000);
+	private final OptionChains chains = new OptionChains();
+	private final Map<Integer, ScheduledFuture<?>> chainSnapshots = new ConcurrentHashMap<>();
+	private final ResponseCache responses = new ResponseCache(300000, 256);
+	private final HistoricalDownloads downloads;
+	private final Set<ScheduledFuture<?>> scheduled = ConcurrentHashMap.newKeySet();
+	private final Map<Integer, ScheduledFuture<?>> periodic = new ConcurrentHashMap<>();
+	private final ExecutorService worker = Executors.newSingleThreadExecutor(task -> {
+		Thread thread = new Thread(task, TwsSocketActions.class.getSimpleName() + " worker");
+		thread.setDaemon(true);
+		return thread;
+	});
+	private final Object sleeping = new Object();
+	private volatile boolean closed;
 	private EClientSocket client;
+	private ScheduledFuture<?> depthSnapshots;
 	private Thread signalThread;
 	private Map<String, Method> commands;
 	private Map<Type, PropertyType> properties;
+	private Invoker invoker;
 	private String tws_host;
 	private int tws_port;
 
 	public TwsSocketActions(Printer out) {
 		this.out = out;
-		EWrapper wrapper = EWrapperHandler.newInstance(out);
-		this.client = new EClientSocket(wrapper, signal);
 		this.events = TwsEventsHandler.newInstance(out);
+		this.bars = new BarAggregator(new BarAggregator.Listener() {
+
+			@Override
+			public void tickBar(int reqId, Bar bar) {
+				events.tickBar(reqId, bar);
+			}
+
+			@Override
+			public void cancelTickByTickData(int tickerId) {
+				getEClient().cancelTickByTickData(tickerId);
+			}
+		}, scheduler);
+		this.downloads = new HistoricalDownloads(new HistoricalDownloads.Requester() {
+
+			@Override
+			public void reqHistoricalData(int tickerId, Contract contract, String endDateTime, String durationStr,
+					String barSizeSetting, String whatToShow, int useRTH) {
+				getEClient().reqHistoricalData(tickerId, contract, endDateTime, durationStr, barSizeSetting,
+						whatToShow, useRTH, 2, false, null);
+			}
+
+			@Override
+			public void cancelHistoricalData(int tickerId) {
+				getEClient().cancelHistoricalData(tickerId);
+			}
+		}, scheduler);
+		EWrapper wrapper = EWrapperHandler.newInstance(out, ticks, books, bars, accounts, orders, executions, chains,
+				responses, downloads);
+		responses.setWrapper(wrapper);
+		bars.setWrapper(wrapper);
+		downloads.setWrapper(wrapper);
+		this.client = new EClientSocket(wrapper, signal);
 	}
 
 	protected void setRemoteAddress(String tws_host, int tws_port) {
@@ -63,7 +139,38 @@ public class TwsSocketActions implements TwsActions {
 	}
 
 	public void sleep(Long ms) throws InterruptedException {
-		Thread.sleep(ms == null ? 0 : ms);
+		long until = System.currentTimeMillis() + (ms == null ? 0 : ms);
+		synchronized (sleeping) {
+			long wait;
+			while (!closed && (wait = until - System.currentTimeMillis()) > 0) {
+				sleeping.wait(wait);
+			}
+		}
+	}
+
+	public void at(long time, JsonArray command) {
+		if (command == null)
+			throw new IllegalArgumentException("Expected a command to schedule");
+		schedule(() -> run(command), time - System.currentTimeMillis());
+	}
+
+	public void every(int scheduleId, long period, JsonArray command) {
+		if (command == null)
+			throw new IllegalArgumentException("Expected a command to schedule");
+		if (period <= 0)
+			throw new IllegalArgumentException("Expected a positive period, but got " + period);
+		ScheduledFuture<?> future = scheduleAtFixedRate(() -> run(command), 0, period);
+		ScheduledFuture<?> previous = periodic.put(scheduleId, future);
+		if (previous != null) {
+			previous.cancel(false);
+		}
+	}
+
+	public void cancelEvery(int scheduleId) {
+		ScheduledFuture<?> future = periodic.remove(scheduleId);
+		if (future != null) {
+			future.cancel(false);
+		}
 	}
 
 	public synchronized void eConnect(int clientId, boolean extraAuth)
@@ -74,6 +181,14 @@ public class TwsSocketActions implements TwsActions {
 		if (signalThread != null && signalThread.isAlive()) {
 			signalThread.join();
 		}
+		ticks.clear();
+		books.clear();
+		bars.clear();
+		accounts.clear();
+		orders.clear();
+		chains.clear();
+		responses.clear();
+		downloads.clear();
 		if (tws_port > 0 && tws_host != null) {
 			((EClientSocket) getEClient()).eConnect(tws_host, tws_port, clientId, extraAuth);
 			final EReader reader = new EReader((EClientSocket) getEClient(), signal);
@@ -105,6 +220,29 @@ public class TwsSocketActions implements TwsActions {
 	}
 
 	public void exit() throws EOFException {
+		closed = true;
+		synchronized (sleeping) {
+			sleeping.notifyAll();
+		}
+		worker.shutdown();
+		for (ScheduledFuture<?> future : scheduled) {
+			future.cancel(false);
+		}
+		for (ScheduledFuture<?> future : periodic.values()) {
+			future.cancel(false);
+		}
+		scheduled.clear();
+		periodic.clear();
+		depthSnapshots(0, null);
+		for (ScheduledFuture<?> future : chainSnapshots.values()) {
+			future.cancel(false);
+		}
+		chainSnapshots.clear();
+		try {
+			executions.close();
+		} catch (IOException e) {
+			logger.warning(e.getMessage());
+		}
 		if (getEClient().isConnected()) {
 			eDisconnect();
 		}
@@ -139,6 +277,190 @@ public class TwsSocketActions implements TwsActions {
 		events.getTwsConnectionTime(getEClient().getTwsConnectionTime());
 	}
 
+	public void encoding(String encoding) throws IOException {
+		if (encoding == null) {
+			events.encoding(out.getEncoding());
+		} else {
+			out.setEncoding(encoding);
+		}
+	}
+
+	public void positional(boolean positional) {
+		out.setPositional(positional);
+	}
+
+	public void nativeNumbers(boolean nativeNumbers) {
+		out.setNativeNumbers(nativeNumbers);
+	}
+
+	public void subscribeEvents(Set<String> events) {
+		out.subscribeEvents(events);
+	}
+
+	public void unsubscribeEvents(Set<String> events) {
+		out.unsubscribeEvents(events);
+	}
+
+	public void project(String type_name, Set<String> properties) {
+		out.setProjection(type_name, properties);
+	}
+
+	public void delta(boolean enabled, Long refreshMillis) {
+		out.setDelta(enabled, refreshMillis == null ? 60000 : refreshMillis);
+	}
+
+	public void internContracts(boolean interning) {
+		out.setInterning(interning);
+	}
+
+	public void columnar(boolean columnar) {
+		out.setColumnar(columnar);
+	}
+
+	public void snapshot(Integer tickerId) {
+		int[] tickerIds = tickerId == null ? ticks.getTickerIds() : new int[] { tickerId };
+		for (int id : tickerIds) {
+			events.snapshot(id, ticks.getValues(id), ticks.getOptionComputations(id));
+		}
+		events.snapshotEnd();
+	}
+
+	public void cancelMktData(int tickerId)
+			throws IllegalAccessException, InvocationTargetException, NoSuchMethodException {
+		ticks.remove(tickerId);
+		invoker.invokeClient("cancelMktData", tickerId);
+	}
+
+	public synchronized void depthSnapshots(long intervalMillis, Integer rows) {
+		if (depthSnapshots != null) {
+			depthSnapshots.cancel(false);
+			depthSnapshots = null;
+		}
+		books.setEnabled(intervalMillis > 0);
+		if (intervalMillis > 0) {
+			int max = rows == null ? 0 : rows;
+			depthSnapshots = scheduleAtFixedRate(() -> books.drainChanged(max, events::marketDepth), intervalMillis,
+					intervalMillis);
+		}
+	}
+
+	public void reqTickBars(int reqId, Contract contract, String barType, double barSize) {
+		if (bars.subscribe(reqId, BarAggregator.getKey(contract), barType, barSize)) {
+			getEClient().reqTickByTickData(reqId, contract, "AllLast", 0, false);
+		}
+	}
+
+	public void cancelTickBars(int reqId) {
+		Integer tickerId = bars.unsubscribe(reqId);
+		if (tickerId != null) {
+			getEClient().cancelTickByTickData(tickerId);
+		}
+	}
+
+	public void accountValues(String account) {
+		for (String name : account == null ? accounts.getAccounts() : List.of(account)) {
+			events.accountValues(name, accounts.getAccountValues(name));
+		}
+		events.accountValuesEnd();
+	}
+
+	public void accountPositions(String account) {
+		for (String name : account == null ? accounts.getAccounts() : List.of(account)) {
+			for (AccountStore.Position position : accounts.getPositions(name)) {
+				events.accountPosition(name, position.getContract(), position.getPosition(),
+						position.getAverageCost(), position.getMarketPrice(), position.getMarketValue(),
+						position.getUnrealizedPNL(), position.getRealizedPNL());
+			}
+		}
+		events.accountPositionsEnd();
+	}
+
+	public void orders(Integer orderId, Long permId, Integer clientId, String orderRef) {
+		for (OrderStore.Entry entry : orders.find(orderId, permId, clientId, orderRef)) {
+			events.order(entry.getOrderId(), entry.getPermId(), entry.getClientId(), entry.getOrderRef(),
+					entry.getStatus(), entry.getFilled(), entry.getRemaining(), entry.getAvgFillPrice(),
+					entry.getLastFillPrice(), entry.getParentId(), entry.getWhyHeld(), entry.getContract(),
+					entry.getOrder(), entry.getOrderState());
+		}
+		events.ordersEnd();
+	}
+
+	public void executionJournal(String file)
+			throws IOException, InvocationTargetException, IllegalAccessException {
+		executions.open(file == null ? null : Paths.get(file));
+	}
+
+	public void queryExecutions(Long from, Long to, String symbol) {
+		for (ExecutionJournal.Fill fill : executions.find(from, to, symbol)) {
+			events.execution(fill.getTime(), fill.getContract(), fill.getExecution(),
+					fill.getCommissionAndFeesReport());
+		}
+		events.executionsEnd();
+	}
+
+	public void reqOptionChain(int chainId, String underlyingSymbol, String futFopExchange, String underlyingSecType,
+			int underlyingConId, long intervalMillis)
+			throws IllegalAccessException, InvocationTargetException, NoSuchMethodException {
+		if (intervalMillis <= 0)
+			throw new IllegalArgumentException("Expected a positive interval, but got " + intervalMillis);
+		chains.createChain(chainId);
+		ScheduledFuture<?> future = scheduleAtFixedRate(() -> chains.drainChanged(chainId, events::optionChain),
+				intervalMillis, intervalMillis);
+		chainSnapshots.put(chainId, future);
+		reqSecDefOptParams(chainId, underlyingSymbol, futFopExchange, underlyingSecType, underlyingConId);
+	}
+
+	public void reqOptionChainMktData(int chainId, int tickerId, Contract contract, String genericTickList) {
+		chains.addTicker(chainId, tickerId, contract);
+		getEClient().reqMktData(tickerId, contract, genericTickList, false, false, null);
+	}
+
+	public void cancelOptionChain(int chainId)
+			throws IllegalAccessException, InvocationTargetException, NoSuchMethodException {
+		ScheduledFuture<?> future = chainSnapshots.remove(chainId);
+		if (future != null) {
+			future.cancel(false);
+		}
+		for (int tickerId : chains.removeChain(chainId)) {
+			cancelMktData(tickerId);
+		}
+	}
+
+	public void reqSecDefOptParams(int reqId, String underlyingSymbol, String futFopExchange,
+			String underlyingSecType, int underlyingConId)
+			throws IllegalAccessException, InvocationTargetException, NoSuchMethodException {
+		String key = "reqSecDefOptParams:" + underlyingSymbol + ":" + futFopExchange + ":" + underlyingSecType + ":"
+				+ underlyingConId;
+		if (responses.request(key, reqId)) {
+			invoker.invokeClient("reqSecDefOptParams", reqId, underlyingSymbol, futFopExchange, underlyingSecType,
+					underlyingConId);
+		}
+	}
+
+	public void reqMatchingSymbols(int reqId, String pattern)
+			throws IllegalAccessException, InvocationTargetException, NoSuchMethodException {
+		if (responses.request("reqMatchingSymbols:" + pattern, reqId)) {
+			invoker.invokeClient("reqMatchingSymbols", reqId, pattern);
+		}
+	}
+
+	public void reqHistoricalDownload(int reqId, Contract contract, long from, long to, String barSizeSetting,
+			String whatToShow, int useRTH) {
+		downloads.start(reqId, contract, from, to, barSizeSetting, whatToShow, useRTH);
+	}
+
+	public void cancelHistoricalDownload(int reqId) {
+		downloads.cancel(reqId);
+	}
+
+	public void responseCache(long ttlMillis, Integer capacity) {
+		responses.setTimeToLive(ttlMillis, capacity == null ? 256 : capacity);
+	}
+
+	public void contract(int handle) throws IllegalAccessException, InvocationTargetException, IOException {
+		out.printContract(handle);
+	}
+
 	public void help(String name) throws IllegalAccessException, InvocationTargetException, IOException {
 		if (name == null || name.length() == 0) {
 			events.help("actions", TwsActions.class.getSimpleName());
@@ -238,6 +560,25 @@ public class TwsSocketActions implements TwsActions {
 		}
 	}
 
+	public void batch(JsonArray commands) throws IOException {
+		long start = System.nanoTime();
+		Map<Integer, String> errors = new TreeMap<>();
+		int size = commands == null ? 0 : commands.size();
+		for (int i = 0; i < size; i++) {
+			try {
+				dispatch(commands.get(i));
+			} catch (EOFException e) {
+				throw e;
+			} catch (NoSuchMethodException e) {
+				errors.put(i, e.getMessage() + "?");
+			} catch (IllegalAccessException | InvocationTargetException | IOException | RuntimeException e) {
+				logger.warning(commands.get(i).toString());
+				errors.put(i, e.getMessage() == null ? e.toString() : e.getMessage());
+			}
+		}
+		events.batchEnd(size, (System.nanoTime() - start) / 1000, errors);
+	}
+
 	protected EClient getEClient() {
 		return client;
 	}
@@ -247,4 +588,106 @@ public class TwsSocketActions implements TwsActions {
 		this.properties = properties;
 	}
 
+	protected void setInvoker(Invoker invoker) {
+		this.invoker = invoker;
+	}
+
+	/**
+	 * Invokes a command given as a JSON array of the command name followed by its
+	 * parameter values
+	 */
+	protected void dispatch(JsonValue command) throws IllegalAccessException, InvocationTargetException,
+			NoSuchMethodException, IOException {
+		if (command.getValueType() == ValueType.STRING) {
+			dispatch(((JsonString) command).getString(), JsonValue.EMPTY_JSON_ARRAY);
+		} else if (command.getValueType() == ValueType.ARRAY && !command.asJsonArray().isEmpty()
+				&& command.asJsonArray().get(0).getValueType() == ValueType.STRING) {
+			JsonArray array = command.asJsonArray();
+			dispatch(array.getString(0), array.subList(1, array.size()));
+		} else {
+			throw new IllegalArgumentException("Expected " + command + " to be an array of a command and its values");
+		}
+	}
+
+	/**
+	 * Runs the given task on this connection's worker thread after the delay,
+	 * the shared scheduler thread only hands it over
+	 */
+	private ScheduledFuture<?> schedule(Runnable task, long delay) {
+		scheduled.removeIf(future -> future.isDone());
+		ScheduledFuture<?> future = scheduler.schedule(() -> execute(task), Math.max(delay, 0),
+				TimeUnit.MILLISECONDS);
+		scheduled.add(future);
+		return future;
+	}
+
+	/**
+	 * Runs the given task on this connection's worker thread at a fixed rate,
+	 * skipping a run while the previous run is still waiting or running
+	 */
+	private ScheduledFuture<?> scheduleAtFixedRate(Runnable task, long delay, long period) {
+		AtomicBoolean pending = new AtomicBoolean();
+		return scheduler.scheduleAtFixedRate(() -> {
+			if (pending.compareAndSet(false, true)) {
+				execute(() -> {
+					try {
+						task.run();
+					} finally {
+						pending.set(false);
+					}
+				});
+			}
+		}, delay, period, TimeUnit.MILLISECONDS);
+	}
+
+	private void execute(Runnable task) {
+		try {
+			worker.execute(task);
+		} catch (RejectedExecutionException e) {
+			// exit
+		}
+	}
+
+	/**
+	 * Invokes a scheduled command and reports any failure as an error event
+	 */
+	private void run(JsonArray command) {
+		try {
+			dispatch(command);
+		} catch (EOFException e) {
+			// exit
+		} catch (NoSuchMethodException e) {
+			events.error(e.getMessage() + "?");
+		} catch (IllegalAccessException | InvocationTargetException | IOException | RuntimeException e) {
+			logger.warning(command.toString());
+			String msg = e.getMessage() == null ? e.toString() : e.getMessage();
+			events.error(msg + " while evaluating " + command);
+		}
+	}
+
+	private void dispatch(String command, List<JsonValue> values) throws IllegalAccessException,
+			InvocationTargetException, NoSuchMethodException, IOException {
+		PropertyType[] types = invoker.getParameterTypes(command);
+		if (values.size() > types.length)
+			throw new IllegalArgumentException("Expected " + (values.size() - types.length) + " less value(s)");
+		Object[] args = new Object[types.length];
+		for (int i = 0; i < args.length; i++) {
+			if (i >= values.size() && types[i].isPrimitive())
+				throw new IllegalArgumentException("Expecting " + (types.length - values.size()) + " more value(s)");
+			JsonValue json = i < values.size() ? values.get(i) : JsonValue.NULL;
+			args[i] = deserializer.deserialize(json, types[i]);
+		}
+		try {
+			invoker.invoke(command, args);
+		} catch (InvocationTargetException e) {
+			try {
+				throw e.getCause();
+			} catch (RuntimeException | IllegalAccessException | InvocationTargetException | IOException cause) {
+				throw cause;
+			} catch (Throwable cause) {
+				throw e;
+			}
+		}
+	}
+
 }
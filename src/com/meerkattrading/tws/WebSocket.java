@@ -0,0 +1,461 @@
+/*
+ * Copyright (c) 2023 James Leigh
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.meerkattrading.tws;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Server side of a RFC 6455 WebSocket connection, with RFC 7692
+ * permessage-deflate, that reads each text message as a line and writes each
+ * line as a text message (or, in binary mode, each flush as a binary message). The opening
+ * handshake is done on first use.
+ *
+ * @author James Leigh
+ *
+ */
+public class WebSocket implements Closeable {
+	private static final String GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+	private static final byte[] TAIL = { 0x00, 0x00, (byte) 0xFF, (byte) 0xFF };
+	private static final int CONTINUATION = 0x0;
+	private static final int TEXT = 0x1;
+	private static final int BINARY = 0x2;
+	private static final int CLOSE = 0x8;
+	private static final int PING = 0x9;
+	private static final int PONG = 0xA;
+	private static final int MAX_MESSAGE = 64 * 1024 * 1024;
+	private static final int MIN_DEFLATE = 128;
+	private final Socket socket;
+	private final InputStream in;
+	private final OutputStream out;
+	private final Object handshakeLock = new Object();
+	private final MessageOutputStream output = new MessageOutputStream();
+	private volatile boolean opened;
+	private volatile boolean closed;
+	private Deflater deflater;
+	private Inflater inflater;
+	private boolean serverNoContextTakeover;
+
+	public WebSocket(Socket socket) throws IOException {
+		this.socket = socket;
+		this.in = new BufferedInputStream(socket.getInputStream());
+		this.out = new BufferedOutputStream(socket.getOutputStream());
+	}
+
+	/**
+	 * Each text or binary message, followed by a newline
+	 */
+	public InputStream getInputStream() {
+		return new InputStream() {
+			private byte[] message = new byte[0];
+			private int pos;
+
+			@Override
+			public int read() throws IOException {
+				byte[] b = new byte[1];
+				return read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+			}
+
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				if (len == 0)
+					return 0;
+				while (message != null && pos >= message.length) {
+					message = readMessage();
+					pos = 0;
+				}
+				if (message == null)
+					return -1;
+				int n = Math.min(len, message.length - pos);
+				System.arraycopy(message, pos, b, off, n);
+				pos += n;
+				return n;
+			}
+
+			@Override
+			public int available() {
+				return message == null ? 0 : message.length - pos;
+			}
+
+			@Override
+			public void close() throws IOException {
+				WebSocket.this.close();
+			}
+		};
+	}
+
+	/**
+	 * When flushed, each complete line written is sent as a text message, or,
+	 * once set to binary, everything written is sent as one binary message
+	 */
+	public MessageOutputStream getOutputStream() {
+		return output;
+	}
+
+	/**
+	 * Sends what is written as WebSocket messages when flushed
+	 */
+	public class MessageOutputStream extends OutputStream {
+		private final ByteArrayOutputStream pending = new ByteArrayOutputStream();
+		private boolean binary;
+
+		/**
+		 * If each flush is sent as a binary message (such as a CBOR event), after
+		 * sending what was written before in the previous mode
+		 */
+		public synchronized void setBinary(boolean binary) throws IOException {
+			if (this.binary != binary) {
+				flush();
+				this.binary = binary;
+			}
+		}
+
+		@Override
+		public synchronized void write(int b) {
+			pending.write(b);
+		}
+
+		@Override
+		public synchronized void write(byte[] b, int off, int len) {
+			pending.write(b, off, len);
+		}
+
+		@Override
+		public synchronized void flush() throws IOException {
+			byte[] data = pending.toByteArray();
+			pending.reset();
+			if (binary && data.length > 0) {
+				sendMessage(BINARY, data, 0, data.length);
+			} else if (data.length > 0) {
+				int start = 0;
+				for (int i = 0; i < data.length; i++) {
+					if (data[i] == '\n') {
+						int end = i > start && data[i - 1] == '\r' ? i - 1 : i;
+						sendMessage(TEXT, data, start, end - start);
+						start = i + 1;
+					}
+				}
+				// keep a partial line until its newline is written
+				pending.write(data, start, data.length - start);
+			}
+			synchronized (WebSocket.this) {
+				out.flush();
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			WebSocket.this.close();
+		}
+	}
+
+	/**
+	 * Sends a close frame, if the connection was opened, and closes the socket
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		try {
+			if (opened && !closed && !socket.isClosed()) {
+				closed = true;
+				sendFrame(CLOSE, new byte[] { 0x03, (byte) 0xE8 }, 0, 2, false);
+				out.flush();
+			}
+		} catch (IOException e) {
+			// already disconnected
+		} finally {
+			socket.close();
+		}
+	}
+
+	private void sendMessage(int opcode, byte[] data, int off, int len) throws IOException {
+		handshake();
+		synchronized (this) {
+			if (closed)
+				throw new EOFException("WebSocket is closed");
+			if (deflater != null && len >= MIN_DEFLATE) {
+				byte[] compressed = deflate(data, off, len);
+				sendFrame(opcode, compressed, 0, compressed.length, true);
+			} else {
+				sendFrame(opcode, data, off, len, false);
+			}
+		}
+	}
+
+	private byte[] readMessage() throws IOException {
+		handshake();
+		ByteArrayOutputStream message = new ByteArrayOutputStream();
+		boolean compressed = false;
+		while (true) {
+			int b0 = in.read();
+			if (b0 < 0)
+				return null;
+			int b1 = readByte();
+			boolean fin = (b0 & 0x80) != 0;
+			int opcode = b0 & 0x0F;
+			long length = b1 & 0x7F;
+			if (length == 126) {
+				length = (readByte() << 8) | readByte();
+			} else if (length == 127) {
+				length = 0;
+				for (int i = 0; i < 8; i++) {
+					length = (length << 8) | readByte();
+				}
+			}
+			if (length < 0 || message.size() + length > MAX_MESSAGE)
+				throw new IOException("WebSocket message is too large");
+			byte[] mask = (b1 & 0x80) != 0 ? in.readNBytes(4) : null;
+			byte[] payload = in.readNBytes((int) length);
+			if (payload.length < length || mask != null && mask.length < 4)
+				throw new EOFException("WebSocket frame was cut short");
+			for (int i = 0; mask != null && i < payload.length; i++) {
+				payload[i] ^= mask[i & 3];
+			}
+			if (opcode == CLOSE) {
+				synchronized (this) {
+					if (!closed) {
+						closed = true;
+						sendFrame(CLOSE, payload, 0, Math.min(payload.length, 2), false);
+						out.flush();
+					}
+				}
+				return null;
+			} else if (opcode == PING) {
+				synchronized (this) {
+					sendFrame(PONG, payload, 0, payload.length, false);
+					out.flush();
+				}
+			} else if (opcode == TEXT || opcode == BINARY || opcode == CONTINUATION) {
+				if (opcode != CONTINUATION) {
+					compressed = (b0 & 0x40) != 0;
+				}
+				message.write(payload);
+				if (fin) {
+					byte[] data = compressed ? inflate(message.toByteArray()) : message.toByteArray();
+					if (data.length == 0 || data[data.length - 1] != '\n') {
+						data = Arrays.copyOf(data, data.length + 1);
+						data[data.length - 1] = '\n';
+					}
+					return data;
+				}
+			} else if (opcode != PONG) {
+				throw new IOException("Unknown WebSocket opcode " + opcode);
+			}
+		}
+	}
+
+	private int readByte() throws IOException {
+		int b = in.read();
+		if (b < 0)
+			throw new EOFException("WebSocket frame was cut short");
+		return b;
+	}
+
+	private synchronized void sendFrame(int opcode, byte[] payload, int off, int len, boolean compressed)
+			throws IOException {
+		out.write(0x80 | (compressed ? 0x40 : 0) | opcode);
+		if (len < 126) {
+			out.write(len);
+		} else if (len < 0x10000) {
+			out.write(126);
+			out.write(len >>> 8);
+			out.write(len);
+		} else {
+			out.write(127);
+			for (int i = 56; i >= 0; i -= 8) {
+				out.write((int) ((long) len >>> i));
+			}
+		}
+		out.write(payload, off, len);
+	}
+
+	private byte[] deflate(byte[] data, int off, int len) {
+		deflater.setInput(data, off, len);
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream(len / 2 + 16);
+		byte[] buf = new byte[Math.max(64, len / 2)];
+		int n;
+		do {
+			n = deflater.deflate(buf, 0, buf.length, Deflater.SYNC_FLUSH);
+			compressed.write(buf, 0, n);
+		} while (n == buf.length);
+		if (serverNoContextTakeover) {
+			deflater.reset();
+		}
+		byte[] result = compressed.toByteArray();
+		// the message must not end with the empty block added by sync flush
+		return Arrays.copyOf(result, result.length - TAIL.length);
+	}
+
+	private byte[] inflate(byte[] data) throws IOException {
+		if (inflater == null)
+			throw new IOException("WebSocket message is compressed, but permessage-deflate was not negotiated");
+		byte[] input = Arrays.copyOf(data, data.length + TAIL.length);
+		System.arraycopy(TAIL, 0, input, data.length, TAIL.length);
+		inflater.setInput(input);
+		ByteArrayOutputStream message = new ByteArrayOutputStream(data.length * 4);
+		byte[] buf = new byte[8192];
+		try {
+			int n;
+			do {
+				n = inflater.inflate(buf);
+				message.write(buf, 0, n);
+				if (message.size() > MAX_MESSAGE)
+					throw new IOException("WebSocket message is too large");
+			} while (n > 0);
+		} catch (DataFormatException e) {
+			throw new IOException(e.getMessage(), e);
+		}
+		if (inflater.finished()) {
+			inflater.reset();
+		}
+		return message.toByteArray();
+	}
+
+	/**
+	 * Reads the HTTP upgrade request and sends the response
+	 */
+	private void handshake() throws IOException {
+		if (opened)
+			return;
+		synchronized (handshakeLock) {
+			if (opened)
+				return;
+			try {
+				respond(readRequest());
+			} catch (IOException | RuntimeException e) {
+				closed = true;
+				throw e;
+			} finally {
+				opened = true;
+			}
+		}
+	}
+
+	private Map<String, String> readRequest() throws IOException {
+		String requestLine = readHeaderLine();
+		Map<String, String> headers = new LinkedHashMap<>();
+		for (String line = readHeaderLine(); line != null && line.length() > 0; line = readHeaderLine()) {
+			int colon = line.indexOf(':');
+			if (colon > 0) {
+				String name = line.substring(0, colon).trim().toLowerCase(Locale.ROOT);
+				String value = line.substring(colon + 1).trim();
+				headers.merge(name, value, (a, b) -> a + ", " + b);
+			}
+		}
+		if (requestLine == null || !requestLine.startsWith("GET ") || !headers.containsKey("sec-websocket-key")
+				|| !"websocket".equalsIgnoreCase(headers.get("upgrade"))) {
+			out.write(("HTTP/1.1 400 Bad Request\r\nConnection: close\r\nContent-Length: 0\r\n\r\n")
+					.getBytes(StandardCharsets.ISO_8859_1));
+			out.flush();
+			throw new IOException("Expected a WebSocket upgrade request, but got " + requestLine);
+		}
+		return headers;
+	}
+
+	private void respond(Map<String, String> headers) throws IOException {
+		StringBuilder response = new StringBuilder();
+		response.append("HTTP/1.1 101 Switching Protocols\r\n");
+		response.append("Upgrade: websocket\r\n");
+		response.append("Connection: Upgrade\r\n");
+		response.append("Sec-WebSocket-Accept: ").append(accept(headers.get("sec-websocket-key"))).append("\r\n");
+		String extension = negotiateDeflate(headers.get("sec-websocket-extensions"));
+		if (extension != null) {
+			response.append("Sec-WebSocket-Extensions: ").append(extension).append("\r\n");
+		}
+		response.append("\r\n");
+		out.write(response.toString().getBytes(StandardCharsets.ISO_8859_1));
+		out.flush();
+	}
+
+	/**
+	 * Accepts the first permessage-deflate offer that can be used with the
+	 * default 15 bit window of {@link Deflater}
+	 */
+	private String negotiateDeflate(String extensions) {
+		if (extensions == null)
+			return null;
+		for (String offer : extensions.split(",")) {
+			String[] params = offer.split(";");
+			if (!"permessage-deflate".equalsIgnoreCase(params[0].trim()))
+				continue;
+			boolean acceptable = true;
+			boolean serverNoContext = false;
+			boolean clientNoContext = false;
+			for (int i = 1; i < params.length; i++) {
+				String[] param = params[i].trim().split("=", 2);
+				String name = param[0].trim().toLowerCase(Locale.ROOT);
+				String value = param.length > 1 ? param[1].trim().replace("\"", "") : null;
+				if ("server_no_context_takeover".equals(name)) {
+					serverNoContext = true;
+				} else if ("client_no_context_takeover".equals(name)) {
+					clientNoContext = true;
+				} else if ("server_max_window_bits".equals(name)) {
+					acceptable &= "15".equals(value);
+				} else if (!"client_max_window_bits".equals(name)) {
+					acceptable = false;
+				}
+			}
+			if (acceptable) {
+				deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+				inflater = new Inflater(true);
+				serverNoContextTakeover = serverNoContext;
+				return "permessage-deflate" + (serverNoContext ? "; server_no_context_takeover" : "")
+						+ (clientNoContext ? "; client_no_context_takeover" : "");
+			}
+		}
+		return null;
+	}
+
+	private String readHeaderLine() throws IOException {
+		StringBuilder line = new StringBuilder();
+		int b;
+		while ((b = in.read()) >= 0 && b != '\n') {
+			if (line.length() > 8192)
+				throw new IOException("WebSocket request header is too long");
+			if (b != '\r') {
+				line.append((char) b);
+			}
+		}
+		return b < 0 && line.length() == 0 ? null : line.toString();
+	}
+
+	private static String accept(String key) {
+		try {
+			MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+			byte[] digest = sha1.digest((key.trim() + GUID).getBytes(StandardCharsets.ISO_8859_1));
+			return Base64.getEncoder().encodeToString(digest);
+		} catch (NoSuchAlgorithmException e) {
+			throw new AssertionError(e);
+		}
+	}
+}
@@ -43,6 +43,13 @@ public class Worker implements Runnable {
 		interpreter.setRemoteAddress(host.getHostAddress(), port);
 	}
 
+	/**
+	 * How many commands from the client can be read ahead of the running command
+	 */
+	public void setPipelineDepth(int pipelineDepth) {
+		interpreter.setPipelineDepth(pipelineDepth);
+	}
+
 	/**
 	 * What procedure to call when the client exits
 	 */
@@ -0,0 +1,107 @@
+package com.meerkattrading.tws;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.ib.client.Contract;
+import com.ib.client.Decimal;
+
+public class TestAccountStore {
+	private AccountStore store;
+
+	@Before
+	public void setUp() {
+		store = new AccountStore();
+	}
+
+	@Test
+	public void testAccountValues() {
+		store.update("updateAccountValue", new Object[] { "NetLiquidation", "100000", "USD", "DU1" });
+		store.update("updateAccountValue", new Object[] { "NetLiquidation", "90000", "EUR", "DU1" });
+		store.update("updateAccountValue", new Object[] { "AccountType", "INDIVIDUAL", null, "DU1" });
+		store.update("accountSummary", new Object[] { 9001, "DU2", "BuyingPower", "5000", "USD" });
+		store.update("updateAccountValue", new Object[] { "NetLiquidation", "100500", "USD", "DU1" });
+		Map<String, Map<String, String>> values = store.getAccountValues("DU1");
+		Assert.assertEquals("100500", values.get("NetLiquidation").get("USD"));
+		Assert.assertEquals("90000", values.get("NetLiquidation").get("EUR"));
+		Assert.assertEquals("INDIVIDUAL", values.get("AccountType").get(""));
+		Assert.assertEquals("5000", store.getAccountValues("DU2").get("BuyingPower").get("USD"));
+		Assert.assertEquals(Arrays.asList("DU1", "DU2"), store.getAccounts());
+		Assert.assertTrue(store.getAccountValues("DU3").isEmpty());
+	}
+
+	@Test
+	public void testValuesAreCopied() {
+		store.updateAccountValue("DU1", "NetLiquidation", "100000", "USD");
+		store.getAccountValues("DU1").get("NetLiquidation").put("USD", "0");
+		Assert.assertEquals("100000", store.getAccountValues("DU1").get("NetLiquidation").get("USD"));
+	}
+
+	@Test
+	public void testPortfolio() {
+		Contract ibm = contract(8314, "IBM");
+		store.update("position", new Object[] { "DU1", ibm, Decimal.get(100), 130.5 });
+		AccountStore.Position position = store.getPosition("DU1", 8314);
+		Assert.assertEquals("100", position.getPosition().toString());
+		Assert.assertEquals(130.5, position.getAverageCost(), 0);
+		Assert.assertNull(position.getMarketPrice());
+		store.update("updatePortfolio",
+				new Object[] { ibm, Decimal.get(150), 131.25, 19687.5, 130.75, 75.0, 10.0, "DU1" });
+		position = store.getPosition("DU1", 8314);
+		Assert.assertEquals("150", position.getPosition().toString());
+		Assert.assertEquals(131.25, position.getMarketPrice(), 0);
+		Assert.assertEquals(19687.5, position.getMarketValue(), 0);
+		Assert.assertEquals(130.75, position.getAverageCost(), 0);
+		Assert.assertEquals(75.0, position.getUnrealizedPNL(), 0);
+		Assert.assertEquals(10.0, position.getRealizedPNL(), 0);
+		Assert.assertEquals("DU1", position.getAccount());
+		Assert.assertEquals("IBM", position.getContract().symbol());
+		Assert.assertNull(store.getPosition("DU2", 8314));
+		Assert.assertNull(store.getPosition("DU1", 1));
+	}
+
+	@Test
+	public void testPositionsInConidOrder() {
+		store.position("DU1", contract(265598, "AAPL"), Decimal.get(10), 150);
+		store.position("DU1", contract(8314, "IBM"), Decimal.get(20), 130);
+		store.position("DU2", contract(272093, "MSFT"), Decimal.get(30), 300);
+		List<AccountStore.Position> positions = store.getPositions("DU1");
+		Assert.assertEquals(2, positions.size());
+		Assert.assertEquals("IBM", positions.get(0).getContract().symbol());
+		Assert.assertEquals("AAPL", positions.get(1).getContract().symbol());
+		Assert.assertEquals(Arrays.asList("DU1", "DU2"), store.getAccounts());
+		Assert.assertTrue(store.getPositions("DU3").isEmpty());
+	}
+
+	@Test
+	public void testIgnoresIncompleteEvents() {
+		store.updateAccountValue(null, "NetLiquidation", "100000", "USD");
+		store.position("DU1", null, Decimal.get(10), 150);
+		store.update("tickPrice", new Object[] { 1, 1, 10.0, null });
+		Assert.assertTrue(store.getAccounts().isEmpty());
+	}
+
+	@Test
+	public void testClear() {
+		store.updateAccountValue("DU1", "NetLiquidation", "100000", "USD");
+		store.position("DU1", contract(8314, "IBM"), Decimal.get(20), 130);
+		store.clear();
+		Assert.assertTrue(store.getAccounts().isEmpty());
+		Assert.assertTrue(store.getAccountValues("DU1").isEmpty());
+		Assert.assertNull(store.getPosition("DU1", 8314));
+	}
+
+	private Contract contract(int conid, String symbol) {
+		Contract contract = new Contract();
+		contract.conid(conid);
+		contract.symbol(symbol);
+		contract.secType("STK");
+		contract.currency("USD");
+		return contract;
+	}
+}
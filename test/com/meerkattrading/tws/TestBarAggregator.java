@@ -0,0 +1,163 @@
+package com.meerkattrading.tws;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.ib.client.Bar;
+import com.ib.client.Decimal;
+
+public class TestBarAggregator {
+	private static final long START = 1700000040L;
+
+	/**
+	 * Keeps the scheduled tasks until they are run by the test
+	 */
+	private static class ManualScheduler extends ScheduledThreadPoolExecutor {
+		final List<Runnable> tasks = new ArrayList<>();
+
+		ManualScheduler() {
+			super(1);
+		}
+
+		@Override
+		public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+			tasks.add(command);
+			return null;
+		}
+
+		void runAll() {
+			List<Runnable> run = new ArrayList<>(tasks);
+			tasks.clear();
+			for (Runnable task : run) {
+				task.run();
+			}
+		}
+	}
+
+	private final List<String> bars = new ArrayList<>();
+	private final List<Integer> cancelled = new ArrayList<>();
+	private ManualScheduler scheduler;
+	private BarAggregator aggregator;
+
+	@Before
+	public void setUp() {
+		scheduler = new ManualScheduler();
+		aggregator = new BarAggregator(new BarAggregator.Listener() {
+
+			@Override
+			public void tickBar(int reqId, Bar bar) {
+				bars.add(reqId + " " + bar.time() + " " + bar.open() + " " + bar.high() + " " + bar.low() + " "
+						+ bar.close() + " " + bar.volume().value().longValue() + " " + bar.count());
+			}
+
+			@Override
+			public void cancelTickByTickData(int tickerId) {
+				cancelled.add(tickerId);
+			}
+		}, scheduler);
+	}
+
+	@After
+	public void tearDown() {
+		scheduler.shutdownNow();
+	}
+
+	@Test
+	public void testTimeBarCompletedByNextTrade() {
+		Assert.assertTrue(aggregator.subscribe(1, "IBM", "time", 60));
+		trade(1, START + 5, 130, 10);
+		trade(1, START + 30, 131, 20);
+		trade(1, START + 50, 129, 30);
+		Assert.assertTrue(bars.isEmpty());
+		trade(1, START + 65, 130.5, 5);
+		Assert.assertEquals(Arrays.asList("1 " + START + " 130.0 131.0 129.0 129.0 60 3"), bars);
+		Assert.assertEquals(2, scheduler.tasks.size());
+		scheduler.tasks.remove(0).run();
+		Assert.assertEquals(1, bars.size());
+	}
+
+	@Test
+	public void testTimeBarCompletedAtItsEnd() {
+		aggregator.subscribe(1, "IBM", "time", 60);
+		trade(1, START + 5, 130, 10);
+		trade(1, START + 30, 131, 20);
+		scheduler.runAll();
+		Assert.assertEquals(Arrays.asList("1 " + START + " 130.0 131.0 130.0 131.0 30 2"), bars);
+		scheduler.runAll();
+		Assert.assertEquals(1, bars.size());
+		trade(1, START + 185, 132, 1);
+		scheduler.runAll();
+		Assert.assertEquals("1 " + (START + 180) + " 132.0 132.0 132.0 132.0 1 1", bars.get(1));
+	}
+
+	@Test
+	public void testTickBars() {
+		aggregator.subscribe(1, "IBM", "ticks", 2);
+		trade(1, START, 130, 10);
+		trade(1, START + 1, 131, 20);
+		trade(1, START + 2, 132, 30);
+		Assert.assertEquals(Arrays.asList("1 " + START + " 130.0 131.0 130.0 131.0 30 2"), bars);
+		Assert.assertTrue(scheduler.tasks.isEmpty());
+	}
+
+	@Test
+	public void testVolumeBars() {
+		aggregator.subscribe(1, "IBM", "volume", 50);
+		trade(1, START, 130, 20);
+		trade(1, START + 1, 129, 20);
+		Assert.assertTrue(bars.isEmpty());
+		trade(1, START + 2, 131, 20);
+		trade(1, START + 3, 132, 5);
+		Assert.assertEquals(Arrays.asList("1 " + START + " 130.0 131.0 129.0 131.0 60 3"), bars);
+	}
+
+	@Test
+	public void testSharedFeed() {
+		Assert.assertTrue(aggregator.subscribe(1, "IBM", "ticks", 1));
+		Assert.assertFalse(aggregator.subscribe(2, "IBM", "ticks", 2));
+		Assert.assertFalse(aggregator.tickByTickAllLast(2, START, 130, Decimal.get(10)));
+		trade(1, START, 130, 10);
+		trade(1, START + 1, 131, 10);
+		Assert.assertEquals(Arrays.asList("1 " + START + " 130.0 130.0 130.0 130.0 10 1",
+				"1 " + (START + 1) + " 131.0 131.0 131.0 131.0 10 1", "2 " + START + " 130.0 131.0 130.0 131.0 20 2"),
+				bars);
+		Assert.assertNull(aggregator.unsubscribe(2));
+		Assert.assertEquals(Integer.valueOf(1), aggregator.unsubscribe(1));
+		Assert.assertNull(aggregator.unsubscribe(1));
+	}
+
+	@Test
+	public void testUnsubscribeIssuesPartialBar() {
+		aggregator.subscribe(1, "IBM", "time", 60);
+		trade(1, START + 5, 130, 10);
+		Assert.assertEquals(Integer.valueOf(1), aggregator.unsubscribe(1));
+		Assert.assertEquals(Arrays.asList("1 " + START + " 130.0 130.0 130.0 130.0 10 1"), bars);
+		scheduler.runAll();
+		Assert.assertEquals(1, bars.size());
+	}
+
+	@Test
+	public void testErrorCancelsFeed() {
+		aggregator.subscribe(1, "IBM", "ticks", 2);
+		aggregator.subscribe(2, "IBM", "ticks", 3);
+		Assert.assertFalse(aggregator.update("error", new Object[] { 1, 0L, 2176, "Warning", "" }));
+		Assert.assertTrue(cancelled.isEmpty());
+		aggregator.update("error", new Object[] { 1, 0L, 200, "No security", "" });
+		Assert.assertEquals(Arrays.asList(1), cancelled);
+		Assert.assertFalse(aggregator.tickByTickAllLast(1, START, 130, Decimal.get(10)));
+		Assert.assertTrue(aggregator.subscribe(2, "IBM", "ticks", 3));
+	}
+
+	private void trade(int tickerId, long time, double price, long size) {
+		Assert.assertTrue(aggregator.tickByTickAllLast(tickerId, time, price, Decimal.get(size)));
+	}
+}
@@ -0,0 +1,208 @@
+package com.meerkattrading.tws;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Map;
+
+import javax.json.Json;
+import javax.json.JsonArray;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonNumber;
+import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
+import javax.json.JsonString;
+import javax.json.JsonValue;
+import javax.json.JsonWriterFactory;
+
+import com.ib.client.EWrapper;
+
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+public class TestCborWrapperCalls extends TestCase {
+
+	private static final String WRAPPER_CALLS_JSON = "wrapper-calls.json";
+	private static final JsonValue BREAK = Json.createValue("break");
+
+	public static TestSuite suite() {
+		InputStream resource = TestCborWrapperCalls.class.getResourceAsStream(WRAPPER_CALLS_JSON);
+		JsonObject obj = Json.createReader(resource).readObject();
+		TestSuite top = new TestSuite();
+		for (String key : obj.keySet()) {
+			JsonArray calls = obj.getJsonArray(key);
+			TestSuite suite = new TestSuite(key);
+			for (int i = 0, n = calls.size(); i < n; i++) {
+				JsonArray call = calls.getJsonArray(i).asJsonArray();
+				suite.addTest(new TestCborWrapperCalls(call.getString(0) + " " + key + " " + i));
+			}
+			top.addTest(suite);
+		}
+		return top;
+	}
+
+	private final JsonArray call;
+
+	public TestCborWrapperCalls(String name) {
+		super(name);
+		String[] split = name.split(" ");
+		InputStream resource = TestCborWrapperCalls.class.getResourceAsStream(WRAPPER_CALLS_JSON);
+		JsonObject obj = Json.createReader(resource).readObject();
+		JsonArray calls = obj.getJsonArray(split[1]);
+		int i = Integer.parseInt(split[2]);
+		this.call = calls.getJsonArray(i).asJsonArray();
+	}
+
+	@Override
+	protected void runTest() throws Throwable {
+		String cmd = call.getString(0);
+		JsonWriterFactory factory = Json.createWriterFactory(Collections.emptyMap());
+		StringBuilder sb = new StringBuilder();
+		sb.append(cmd);
+		for (int i = 1, n = call.size(); i < n; i++) {
+			StringWriter writer = new StringWriter();
+			factory.createWriter(writer).write(call.get(i));
+			sb.append(' ').append(writer.toString());
+		}
+		sb.append('\n');
+		ByteArrayInputStream in = new ByteArrayInputStream(sb.toString().getBytes());
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		Interpreter shell = new Interpreter(in, out) {
+
+			@Override
+			protected Invoker getInvoker() throws IOException {
+				return new Invoker(this.getPrinter()) {
+
+					@Override
+					protected EWrapper getClient() {
+						ClassLoader cl = EWrapper.class.getClassLoader();
+						InvocationHandler handler = new InvocationHandler() {
+
+							@Override
+							public Object invoke(Object that, Method method, Object[] args) throws Throwable {
+								return method.invoke(EWrapperHandler.newInstance(getPrinter()), args);
+							}
+						};
+						return (EWrapper) Proxy.newProxyInstance(cl, new Class<?>[] { EWrapper.class }, handler);
+					}
+				};
+			}
+
+		};
+		shell.getPrinter().setEncoding("cbor");
+		shell.repl();
+		DataInputStream cbor = new DataInputStream(new ByteArrayInputStream(out.toByteArray()));
+		assertEquals(normalize(call), normalize(decode(cbor)));
+		assertEquals(0, cbor.available());
+	}
+
+	/**
+	 * Numbers are written as strings in JSON, but natively in CBOR
+	 */
+	private static JsonValue normalize(JsonValue value) {
+		switch (value.getValueType()) {
+		case ARRAY:
+			JsonArrayBuilder array = Json.createArrayBuilder();
+			for (JsonValue item : value.asJsonArray()) {
+				array.add(normalize(item));
+			}
+			return array.build();
+		case OBJECT:
+			JsonObjectBuilder object = Json.createObjectBuilder();
+			for (Map.Entry<String, JsonValue> entry : value.asJsonObject().entrySet()) {
+				object.add(entry.getKey(), normalize(entry.getValue()));
+			}
+			return object.build();
+		case NUMBER:
+			return Json.createValue(((JsonNumber) value).bigDecimalValue().stripTrailingZeros());
+		case STRING:
+			try {
+				return Json.createValue(new BigDecimal(((JsonString) value).getString()).stripTrailingZeros());
+			} catch (NumberFormatException e) {
+				return value;
+			}
+		default:
+			return value;
+		}
+	}
+
+	private static JsonValue decode(DataInputStream in) throws IOException {
+		int initial = in.readUnsignedByte();
+		int major = initial >>> 5;
+		int info = initial & 0x1F;
+		if (initial == 0xFF) {
+			return BREAK;
+		} else if (major == 7) {
+			switch (info) {
+			case 20:
+				return JsonValue.FALSE;
+			case 21:
+				return JsonValue.TRUE;
+			case 22:
+				return JsonValue.NULL;
+			case 26:
+				return Json.createValue(BigDecimal.valueOf(Float.intBitsToFloat(in.readInt())));
+			case 27:
+				return Json.createValue(BigDecimal.valueOf(Double.longBitsToDouble(in.readLong())));
+			default:
+				throw new AssertionError("Unexpected simple value " + info);
+			}
+		}
+		long arg = info < 24 ? info
+				: info == 24 ? in.readUnsignedByte()
+						: info == 25 ? in.readUnsignedShort()
+								: info == 26 ? in.readInt() & 0xFFFFFFFFL : info == 27 ? in.readLong() : -1;
+		switch (major) {
+		case 0:
+			return Json.createValue(arg);
+		case 1:
+			return Json.createValue(-1 - arg);
+		case 2:
+			return Json.createValue(new BigInteger(1, in.readNBytes((int) arg)));
+		case 3:
+			return Json.createValue(new String(in.readNBytes((int) arg), StandardCharsets.UTF_8));
+		case 4:
+			JsonArrayBuilder array = Json.createArrayBuilder();
+			for (long i = 0; arg < 0 || i < arg; i++) {
+				JsonValue item = decode(in);
+				if (item == BREAK)
+					break;
+				array.add(item);
+			}
+			return array.build();
+		case 5:
+			JsonObjectBuilder object = Json.createObjectBuilder();
+			for (long i = 0; arg < 0 || i < arg; i++) {
+				JsonValue key = decode(in);
+				if (key == BREAK)
+					break;
+				object.add(((JsonString) key).getString(), decode(in));
+			}
+			return object.build();
+		case 6:
+			JsonValue tagged = decode(in);
+			if (arg == 4) {
+				JsonArray fraction = tagged.asJsonArray();
+				BigInteger mantissa = fraction.getJsonNumber(1).bigIntegerValue();
+				int exponent = fraction.getInt(0);
+				return Json.createValue(new BigDecimal(mantissa, -exponent));
+			} else if (arg == 3) {
+				return Json.createValue(((JsonNumber) tagged).bigIntegerValue().not());
+			} else {
+				return tagged;
+			}
+		default:
+			throw new AssertionError("Unexpected major type " + major);
+		}
+	}
+}
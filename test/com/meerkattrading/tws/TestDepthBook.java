@@ -0,0 +1,128 @@
+package com.meerkattrading.tws;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.ib.client.Decimal;
+
+public class TestDepthBook {
+	private DepthBook book;
+	private List<Object[]> depths;
+
+	@Before
+	public void setUp() {
+		book = new DepthBook();
+		book.setEnabled(true);
+		depths = new ArrayList<>();
+	}
+
+	@Test
+	public void testInsert() {
+		depth(5, 0, 0, 1, 130.0, 10);
+		depth(5, 0, 0, 1, 130.5, 20);
+		depth(5, 5, 0, 1, 129.5, 30);
+		depth(5, 0, 0, 0, 131.0, 40);
+		drain(0);
+		Assert.assertEquals(1, depths.size());
+		Assert.assertEquals(5, depths.get(0)[0]);
+		Assert.assertArrayEquals(new Double[] { 130.5, 130.0, 129.5 }, bidPrices(0));
+		Assert.assertArrayEquals(new Double[] { 131.0 }, askPrices(0));
+		Assert.assertEquals(20, ((Decimal[]) depths.get(0)[2])[0].value().longValue());
+	}
+
+	@Test
+	public void testUpdate() {
+		depth(5, 0, 0, 1, 130.0, 10);
+		depth(5, 0, 1, 1, 130.25, 15);
+		depth(5, 1, 1, 1, 129.75, 25);
+		drain(0);
+		Assert.assertArrayEquals(new Double[] { 130.25, 129.75 }, bidPrices(0));
+		Assert.assertEquals(15, ((Decimal[]) depths.get(0)[2])[0].value().longValue());
+	}
+
+	@Test
+	public void testDelete() {
+		depth(5, 0, 0, 1, 130.0, 10);
+		depth(5, 1, 0, 1, 129.5, 20);
+		depth(5, 2, 0, 1, 129.0, 30);
+		depth(5, 1, 2, 1, 0, 0);
+		depth(5, 7, 2, 1, 0, 0);
+		drain(0);
+		Assert.assertArrayEquals(new Double[] { 130.0, 129.0 }, bidPrices(0));
+		Assert.assertEquals(0, askPrices(0).length);
+	}
+
+	@Test
+	public void testMarketMakers() {
+		Assert.assertTrue(book.update("updateMktDepthL2",
+				new Object[] { 5, 0, "ARCA", 0, 1, 130.0, Decimal.get(10), true }));
+		drain(0);
+		Assert.assertArrayEquals(new String[] { "ARCA" }, (String[]) depths.get(0)[3]);
+	}
+
+	@Test
+	public void testDrainChangedWithRowLimit() {
+		for (int position = 0; position < 20; position++) {
+			depth(5, position, 0, 1, 130.0 - position, 10);
+			depth(5, position, 0, 0, 131.0 + position, 10);
+		}
+		depth(6, 0, 0, 1, 50.0, 10);
+		drain(2);
+		Assert.assertEquals(2, depths.size());
+		Object[] depth = (Integer) depths.get(0)[0] == 5 ? depths.get(0) : depths.get(1);
+		Assert.assertArrayEquals(new Double[] { 130.0, 129.0 }, (Double[]) depth[1]);
+		Assert.assertEquals(2, ((Decimal[]) depth[2]).length);
+		Assert.assertArrayEquals(new Double[] { 131.0, 132.0 }, (Double[]) depth[4]);
+		drain(2);
+		Assert.assertEquals(2, depths.size());
+		depth(6, 0, 1, 1, 50.5, 10);
+		drain(2);
+		Assert.assertEquals(3, depths.size());
+		Assert.assertEquals(6, depths.get(2)[0]);
+	}
+
+	@Test
+	public void testErrorClearsOnlyOnRequestError() {
+		depth(5, 0, 0, 1, 130.0, 10);
+		Assert.assertFalse(book.update("error", new Object[] { 5, 0L, 2152, "Exchanges - Depth: ARCA", "" }));
+		drain(0);
+		Assert.assertEquals(1, depths.size());
+		book.update("error", new Object[] { 5, 0L, 317, "Market depth data has been RESET", "" });
+		drain(0);
+		Assert.assertEquals(1, depths.size());
+		depth(5, 0, 0, 0, 131.0, 10);
+		drain(0);
+		Assert.assertEquals(0, bidPrices(1).length);
+	}
+
+	@Test
+	public void testDisabled() {
+		book.setEnabled(false);
+		Assert.assertFalse(book.update("updateMktDepth", new Object[] { 5, 0, 0, 1, 130.0, Decimal.get(10) }));
+		drain(0);
+		Assert.assertTrue(depths.isEmpty());
+	}
+
+	private void depth(int tickerId, int position, int operation, int side, double price, long size) {
+		Assert.assertTrue(book.update("updateMktDepth",
+				new Object[] { tickerId, position, operation, side, price, Decimal.get(size) }));
+	}
+
+	private void drain(int rows) {
+		book.drainChanged(rows, (tickerId, bidPrices, bidSizes, bidMarketMakers, askPrices, askSizes,
+				askMarketMakers) -> depths.add(new Object[] { tickerId, bidPrices, bidSizes, bidMarketMakers,
+						askPrices, askSizes, askMarketMakers }));
+	}
+
+	private Double[] bidPrices(int index) {
+		return (Double[]) depths.get(index)[1];
+	}
+
+	private Double[] askPrices(int index) {
+		return (Double[]) depths.get(index)[4];
+	}
+}
@@ -0,0 +1,131 @@
+package com.meerkattrading.tws;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.ib.client.CommissionAndFeesReport;
+import com.ib.client.Contract;
+import com.ib.client.Decimal;
+import com.ib.client.Execution;
+
+public class TestExecutionJournal {
+	private Path file;
+
+	@Before
+	public void setUp() throws IOException {
+		file = Files.createTempFile("test", ".jsonl");
+		Files.delete(file);
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		Files.deleteIfExists(file);
+	}
+
+	@Test
+	public void testRoundTrip() throws IOException, InvocationTargetException, IllegalAccessException {
+		ExecutionJournal journal = new ExecutionJournal(100);
+		journal.open(file);
+		journal.execDetails(contract("IBM"), execution("e1", "20230719-14:30:00"));
+		journal.commissionAndFeesReport(report("e1", 1.0));
+		journal.commissionAndFeesReport(report("e2", 2.0));
+		journal.execDetails(contract("MSFT"), execution("e2", "20230719-14:31:00"));
+		journal.execDetails(contract("IBM"), execution("e1", "20230719-14:30:00"));
+		journal.close();
+		Assert.assertEquals(4, Files.readAllLines(file, StandardCharsets.UTF_8).size());
+
+		ExecutionJournal loaded = new ExecutionJournal(100);
+		loaded.open(file);
+		List<ExecutionJournal.Fill> fills = loaded.find(null, null, null);
+		Assert.assertEquals(2, fills.size());
+		Assert.assertEquals("e1", fills.get(0).getExecution().execId());
+		Assert.assertEquals(1689777000000L, fills.get(0).getTime());
+		Assert.assertEquals("IBM", fills.get(0).getContract().symbol());
+		Assert.assertEquals(1.0, fills.get(0).getCommissionAndFeesReport().commissionAndFees(), 0);
+		Assert.assertEquals("e2", fills.get(1).getExecution().execId());
+		Assert.assertEquals(2.0, fills.get(1).getCommissionAndFeesReport().commissionAndFees(), 0);
+		Assert.assertEquals(1, loaded.find(1689777060000L, null, null).size());
+		Assert.assertEquals(1, loaded.find(null, null, "IBM").size());
+		loaded.execDetails(contract("IBM"), execution("e1", "20230719-14:30:00"));
+		loaded.execDetails(contract("IBM"), execution("e3", "20230719-14:32:00"));
+		loaded.close();
+		Assert.assertEquals(5, Files.readAllLines(file, StandardCharsets.UTF_8).size());
+	}
+
+	@Test
+	public void testKeepsUnreadableTime() throws IOException, InvocationTargetException, IllegalAccessException {
+		Files.write(file, ("[\"execDetails\",{\"symbol\":\"IBM\"},{\"execId\":\"e1\",\"time\":\"soon\"}]\n"
+				+ "not json\n"
+				+ "[\"execDetails\",{\"symbol\":\"IBM\"},{\"execId\":\"e2\",\"time\":\"20230719 10:30:00 America/New_York\"}]\n")
+				.getBytes(StandardCharsets.UTF_8));
+		ExecutionJournal journal = new ExecutionJournal(100);
+		journal.open(file);
+		journal.execDetails(contract("IBM"), execution("e1", "soon"));
+		journal.execDetails(contract("IBM"), execution("e3", null));
+		journal.execDetails(contract("IBM"), execution("e3", null));
+		journal.close();
+		List<ExecutionJournal.Fill> fills = journal.find(null, null, null);
+		Assert.assertEquals(1, fills.size());
+		Assert.assertEquals("e2", fills.get(0).getExecution().execId());
+		Assert.assertEquals(1689777000000L, fills.get(0).getTime());
+		Assert.assertEquals(1, journal.find(null, null, "IBM").size());
+		List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+		Assert.assertEquals(4, lines.size());
+		Assert.assertTrue(lines.get(3).contains("\"e3\""));
+	}
+
+	@Test
+	public void testKeepsLatest() {
+		ExecutionJournal journal = new ExecutionJournal(2);
+		journal.commissionAndFeesReport(report("e1", 1.0));
+		journal.commissionAndFeesReport(report("e2", 2.0));
+		journal.commissionAndFeesReport(report("e3", 3.0));
+		journal.execDetails(contract("IBM"), execution("e1", "20230719-14:30:00"));
+		journal.execDetails(contract("MSFT"), execution("e2", "20230719-14:31:00"));
+		journal.execDetails(contract("IBM"), execution("e3", "20230719-14:32:00"));
+		List<ExecutionJournal.Fill> fills = journal.find(null, null, null);
+		Assert.assertEquals(2, fills.size());
+		Assert.assertEquals("e2", fills.get(0).getExecution().execId());
+		Assert.assertEquals(2.0, fills.get(0).getCommissionAndFeesReport().commissionAndFees(), 0);
+		Assert.assertEquals("e3", fills.get(1).getExecution().execId());
+		Assert.assertEquals(1, journal.find(null, null, "IBM").size());
+		Assert.assertEquals(1, journal.find(null, null, "MSFT").size());
+		journal.execDetails(contract("MSFT"), execution("e4", "20230719-14:33:00"));
+		Assert.assertEquals("e4", journal.find(null, null, "MSFT").get(0).getExecution().execId());
+		Assert.assertNull(journal.find(null, null, "MSFT").get(0).getCommissionAndFeesReport());
+	}
+
+	private Contract contract(String symbol) {
+		Contract contract = new Contract();
+		contract.symbol(symbol);
+		contract.secType("STK");
+		return contract;
+	}
+
+	private Execution execution(String execId, String time) {
+		Execution execution = new Execution();
+		execution.execId(execId);
+		execution.time(time);
+		execution.side("BOT");
+		execution.shares(Decimal.get(100));
+		execution.price(131.25);
+		return execution;
+	}
+
+	private CommissionAndFeesReport report(String execId, double commission) {
+		CommissionAndFeesReport report = new CommissionAndFeesReport();
+		report.execId(execId);
+		report.commissionAndFees(commission);
+		report.currency("USD");
+		return report;
+	}
+}
@@ -0,0 +1,234 @@
+package com.meerkattrading.tws;
+
+import java.lang.reflect.Proxy;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.ib.client.Bar;
+import com.ib.client.Contract;
+import com.ib.client.Decimal;
+import com.ib.client.EWrapper;
+
+public class TestHistoricalDownloads {
+	private static final long DAY = 86400000L;
+	private static final long FROM = LocalDateTime.of(2023, 3, 15, 12, 0).toInstant(ZoneOffset.UTC).toEpochMilli();
+
+	/**
+	 * Keeps the scheduled tasks until they are run by the test
+	 */
+	private static class ManualScheduler extends ScheduledThreadPoolExecutor {
+		final List<Runnable> tasks = new ArrayList<>();
+		final List<Long> delays = new ArrayList<>();
+
+		ManualScheduler() {
+			super(1);
+		}
+
+		@Override
+		public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+			tasks.add(command);
+			delays.add(unit.toMillis(delay));
+			return null;
+		}
+
+		void runAll() {
+			List<Runnable> run = new ArrayList<>(tasks);
+			tasks.clear();
+			delays.clear();
+			for (Runnable task : run) {
+				task.run();
+			}
+		}
+	}
+
+	private final List<String> requests = new ArrayList<>();
+	private final List<Integer> tickerIds = new ArrayList<>();
+	private final List<Integer> cancelled = new ArrayList<>();
+	private final List<String> issued = new ArrayList<>();
+	private ManualScheduler scheduler;
+	private HistoricalDownloads downloads;
+	private long now = FROM + 365 * DAY;
+
+	@Before
+	public void setUp() {
+		scheduler = new ManualScheduler();
+		downloads = new HistoricalDownloads(new HistoricalDownloads.Requester() {
+
+			@Override
+			public void reqHistoricalData(int tickerId, Contract contract, String endDateTime, String durationStr,
+					String barSizeSetting, String whatToShow, int useRTH) {
+				tickerIds.add(tickerId);
+				requests.add(endDateTime + " " + durationStr);
+			}
+
+			@Override
+			public void cancelHistoricalData(int tickerId) {
+				cancelled.add(tickerId);
+			}
+		}, scheduler) {
+
+			@Override
+			protected long currentTimeMillis() {
+				return now;
+			}
+		};
+		downloads.setWrapper((EWrapper) Proxy.newProxyInstance(EWrapper.class.getClassLoader(),
+				new Class<?>[] { EWrapper.class }, (proxy, method, args) -> {
+					if ("historicalData".equals(method.getName())) {
+						issued.add(args[0] + " " + ((Bar) args[1]).time());
+					} else if ("historicalDataEnd".equals(method.getName())) {
+						issued.add(args[0] + " end");
+					} else if ("error".equals(method.getName()) && args.length > 2) {
+						issued.add(args[0] + " error " + args[2]);
+					}
+					return null;
+				}));
+	}
+
+	@After
+	public void tearDown() {
+		scheduler.shutdownNow();
+	}
+
+	@Test
+	public void testChunksIssuedInOrder() {
+		downloads.start(7, new Contract(), FROM, FROM + 3 * DAY, "1 min", "TRADES", 1);
+		Assert.assertEquals(Arrays.asList("20230316-12:00:00 1 D", "20230317-12:00:00 1 D", "20230318-12:00:00 1 D"),
+				requests);
+		complete(2, FROM + 2 * DAY, FROM + 2 * DAY + 60000);
+		Assert.assertTrue(issued.isEmpty());
+		complete(0, FROM, FROM + 60000);
+		Assert.assertEquals(Arrays.asList(issuedBar(FROM), issuedBar(FROM + 60000)), issued);
+		complete(1, FROM + DAY);
+		Assert.assertEquals(Arrays.asList(issuedBar(FROM), issuedBar(FROM + 60000), issuedBar(FROM + DAY),
+				issuedBar(FROM + 2 * DAY), issuedBar(FROM + 2 * DAY + 60000), "7 end"), issued);
+	}
+
+	@Test
+	public void testBoundaryBarsIssuedOnce() {
+		downloads.start(7, new Contract(), FROM, FROM + 2 * DAY, "1 min", "TRADES", 1);
+		complete(0, FROM - 60000, FROM, FROM + DAY);
+		complete(1, FROM + DAY, FROM + DAY + 60000);
+		Assert.assertEquals(
+				Arrays.asList(issuedBar(FROM), issuedBar(FROM + DAY), issuedBar(FROM + DAY + 60000), "7 end"), issued);
+	}
+
+	@Test
+	public void testDateBarsFromDateOfStart() {
+		downloads.start(7, new Contract(), FROM, FROM + 3 * DAY, "1 day", "TRADES", 1);
+		Assert.assertEquals(Arrays.asList("20230318-12:00:00 52 W"), requests);
+		downloads.update("historicalData", new Object[] { tickerIds.get(0), bar("20230314") });
+		downloads.update("historicalData", new Object[] { tickerIds.get(0), bar("20230315") });
+		downloads.update("historicalData", new Object[] { tickerIds.get(0), bar("20230316") });
+		downloads.update("historicalDataEnd", new Object[] { tickerIds.get(0), "", "" });
+		Assert.assertEquals(Arrays.asList("7 20230315", "7 20230316", "7 end"), issued);
+	}
+
+	@Test
+	public void testBurstPacing() {
+		downloads.start(7, new Contract(), FROM, FROM + 10 * DAY, "1 min", "TRADES", 1);
+		Assert.assertEquals(6, requests.size());
+		Assert.assertEquals(Arrays.asList(2000L), scheduler.delays);
+		now += 1000;
+		scheduler.runAll();
+		Assert.assertEquals(6, requests.size());
+		Assert.assertEquals(Arrays.asList(1000L), scheduler.delays);
+		now += 1000;
+		scheduler.runAll();
+		Assert.assertEquals(10, requests.size());
+		Assert.assertTrue(scheduler.tasks.isEmpty());
+	}
+
+	@Test
+	public void testPacingViolationRetried() {
+		downloads.start(7, new Contract(), FROM, FROM + 2 * DAY, "1 min", "TRADES", 1);
+		Assert.assertTrue(downloads
+				.update("error", new Object[] { tickerIds.get(0), 0L, 162, "Historical data pacing violation", "" }));
+		Assert.assertEquals(Arrays.asList(10000L), scheduler.delays);
+		complete(1, FROM + DAY);
+		Assert.assertTrue(issued.isEmpty());
+		now += 10000;
+		scheduler.runAll();
+		Assert.assertEquals(3, requests.size());
+		Assert.assertEquals(requests.get(0), requests.get(2));
+		complete(2, FROM);
+		Assert.assertEquals(Arrays.asList(issuedBar(FROM), issuedBar(FROM + DAY), "7 end"), issued);
+	}
+
+	@Test
+	public void testChunkWithoutDataSkipped() {
+		downloads.start(7, new Contract(), FROM, FROM + 2 * DAY, "1 min", "TRADES", 1);
+		downloads.update("error", new Object[] { tickerIds.get(0), 0L, 162, "HMDS query returned no data", "" });
+		complete(1, FROM + DAY);
+		Assert.assertEquals(Arrays.asList(issuedBar(FROM + DAY), "7 end"), issued);
+	}
+
+	@Test
+	public void testErrorStopsDownload() {
+		downloads.start(7, new Contract(), FROM, FROM + 3 * DAY, "1 min", "TRADES", 1);
+		Assert.assertTrue(downloads.update("error", new Object[] { tickerIds.get(1), 0L, 200, "No security", "" }));
+		Assert.assertEquals(Arrays.asList("7 error 200"), issued);
+		Assert.assertEquals(Arrays.asList(tickerIds.get(0), tickerIds.get(2)), sorted(cancelled));
+		Assert.assertFalse(downloads.update("historicalDataEnd", new Object[] { tickerIds.get(0), "", "" }));
+	}
+
+	@Test
+	public void testWarningKeepsChunkInFlight() {
+		downloads.start(7, new Contract(), FROM, FROM + 2 * DAY, "1 min", "TRADES", 1);
+		Assert.assertTrue(downloads.update("error",
+				new Object[] { tickerIds.get(0), 0L, 2176, "Warning: your API version is too old", "" }));
+		Assert.assertEquals(Arrays.asList("7 error 2176"), issued);
+		Assert.assertTrue(cancelled.isEmpty());
+		complete(0, FROM);
+		complete(1, FROM + DAY);
+		Assert.assertEquals(Arrays.asList("7 error 2176", issuedBar(FROM), issuedBar(FROM + DAY), "7 end"), issued);
+	}
+
+	@Test
+	public void testCancel() {
+		downloads.start(7, new Contract(), FROM, FROM + 2 * DAY, "1 min", "TRADES", 1);
+		downloads.cancel(7);
+		Assert.assertEquals(tickerIds, sorted(cancelled));
+		Assert.assertFalse(
+				downloads.update("historicalData", new Object[] { tickerIds.get(0), bar(FROM / 1000 + "") }));
+		Assert.assertTrue(issued.isEmpty());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testUnknownBarSize() {
+		downloads.start(7, new Contract(), FROM, FROM + DAY, "7 mins", "TRADES", 1);
+	}
+
+	private void complete(int chunk, long... times) {
+		int tickerId = tickerIds.get(chunk);
+		for (long time : times) {
+			Assert.assertTrue(downloads.update("historicalData", new Object[] { tickerId, bar(time / 1000 + "") }));
+		}
+		Assert.assertTrue(downloads.update("historicalDataEnd", new Object[] { tickerId, "", "" }));
+	}
+
+	private String issuedBar(long time) {
+		return "7 " + time / 1000;
+	}
+
+	private Bar bar(String time) {
+		return new Bar(time, 1, 1, 1, 1, Decimal.get(1), 1, Decimal.get(1));
+	}
+
+	private List<Integer> sorted(List<Integer> list) {
+		List<Integer> copy = new ArrayList<>(list);
+		copy.sort(null);
+		return copy;
+	}
+}
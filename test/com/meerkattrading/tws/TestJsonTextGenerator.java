@@ -0,0 +1,64 @@
+package com.meerkattrading.tws;
+
+import java.io.StringWriter;
+import java.math.BigDecimal;
+import java.util.Collections;
+
+import javax.json.Json;
+import javax.json.stream.JsonGenerator;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestJsonTextGenerator {
+
+	@Test
+	public void testSameAsJsonGenerator() {
+		StringWriter writer = new StringWriter();
+		JsonGenerator expected = Json.createGeneratorFactory(Collections.emptyMap()).createGenerator(writer);
+		JsonTextGenerator actual = new JsonTextGenerator();
+		StringCache<char[]> cache = new StringCache<>(JsonTextGenerator::escape, 2, 8);
+		JsonTextGenerator cached = new JsonTextGenerator(new StringBuilder(), cache);
+		write(expected);
+		write(actual);
+		write(cached);
+		write(cached.reset());
+		Assert.assertEquals(writer.toString(), actual.toString());
+		Assert.assertEquals(writer.toString(), cached.toString());
+	}
+
+	@Test
+	public void testNumbersAsStrings() {
+		JsonTextGenerator gen = new JsonTextGenerator();
+		gen.writeStartArray();
+		gen.writeString(Double.MAX_VALUE);
+		gen.writeString(0.25);
+		gen.writeString(Long.MIN_VALUE);
+		gen.writeEnd();
+		Assert.assertEquals("[\"" + Double.toString(Double.MAX_VALUE) + "\",\"0.25\",\"" + Long.MIN_VALUE + "\"]",
+				gen.toString());
+		gen.reset().write(1.5);
+		Assert.assertEquals("1.5", gen.toString());
+	}
+
+	private void write(JsonGenerator gen) {
+		gen.writeStartObject();
+		gen.write("symbol", "IBM");
+		gen.write("escaped", "\"quoted\"\\ \b\f\n\r\t\u0001 caf\u00e9 /");
+		gen.writeStartArray("values");
+		gen.write(1);
+		gen.write(-2L);
+		gen.write(0.1);
+		gen.write(1.0E-5);
+		gen.write(Double.MAX_VALUE);
+		gen.write(new BigDecimal("100.50"));
+		gen.write(true);
+		gen.writeNull();
+		gen.writeStartObject().writeEnd();
+		gen.writeStartArray().writeEnd();
+		gen.writeEnd();
+		gen.writeNull("none");
+		gen.writeEnd();
+		gen.close();
+	}
+}
@@ -0,0 +1,180 @@
+package com.meerkattrading.tws;
+
+import java.io.BufferedReader;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestMappedRing {
+	private Path file;
+
+	@Before
+	public void setUp() throws IOException {
+		file = Files.createTempFile("test", ".ring");
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		Files.deleteIfExists(file);
+	}
+
+	@Test
+	public void testRecord() throws IOException {
+		MappedRing producer = MappedRing.create(file, 1024);
+		MappedRing consumer = MappedRing.open(file);
+		byte[] record = "isConnected\n".getBytes(StandardCharsets.UTF_8);
+		producer.put(record, 0, record.length);
+		byte[] b = new byte[64];
+		Assert.assertEquals(record.length, consumer.take(b, 0, b.length));
+		Assert.assertEquals("isConnected\n", new String(b, 0, record.length, StandardCharsets.UTF_8));
+		Assert.assertEquals(1, consumer.getSequence());
+		Assert.assertEquals(0, consumer.take(b, 0, b.length));
+		producer.close();
+		Assert.assertEquals(-1, consumer.take(b, 0, b.length));
+	}
+
+	@Test
+	public void testFull() throws IOException {
+		MappedRing producer = MappedRing.create(file, 64);
+		MappedRing consumer = MappedRing.open(file);
+		byte[] record = new byte[8];
+		Assert.assertTrue(producer.offer(record, 0, record.length));
+		Assert.assertTrue(producer.offer(record, 0, record.length));
+		Assert.assertFalse(producer.offer(record, 0, record.length));
+		Assert.assertEquals(record.length, consumer.take(new byte[64], 0, 64));
+		Assert.assertTrue(producer.offer(record, 0, record.length));
+	}
+
+	@Test
+	public void testWrap() throws IOException {
+		MappedRing producer = MappedRing.create(file, 128);
+		MappedRing consumer = MappedRing.open(file);
+		byte[] b = new byte[64];
+		for (int i = 0; i < 100; i++) {
+			byte[] record = ("event " + i + "\n").getBytes(StandardCharsets.UTF_8);
+			producer.put(record, 0, record.length);
+			int n = consumer.take(b, 0, b.length);
+			Assert.assertEquals("event " + i + "\n", new String(b, 0, n, StandardCharsets.UTF_8));
+		}
+		Assert.assertEquals(100, consumer.getSequence());
+	}
+
+	@Test
+	public void testWrapAfterConsume() throws IOException {
+		MappedRing producer = MappedRing.create(file, 4096);
+		MappedRing consumer = MappedRing.open(file);
+		byte[] b = new byte[4096];
+		producer.put(new byte[2048], 0, 2048);
+		Assert.assertEquals(2048, consumer.take(b, 0, b.length));
+		byte[] large = new byte[3072];
+		large[3071] = 7;
+		Assert.assertFalse(producer.offer(large, 0, large.length));
+		Assert.assertEquals(0, consumer.take(b, 0, b.length));
+		Assert.assertTrue(producer.offer(large, 0, large.length));
+		Assert.assertEquals(large.length, consumer.take(b, 0, b.length));
+		Assert.assertEquals(7, b[3071]);
+		Assert.assertEquals(2, consumer.getSequence());
+	}
+
+	@Test
+	public void testPutWrapAfterConsume() throws IOException, InterruptedException {
+		MappedRing producer = MappedRing.create(file, 4096);
+		MappedRing consumer = MappedRing.open(file);
+		producer.setTimeout(10000);
+		producer.put(new byte[2048], 0, 2048);
+		Thread thread = new Thread(() -> {
+			try {
+				byte[] b = new byte[4096];
+				for (int read = 0; read < 2048 + 3072;) {
+					read += consumer.take(b, 0, b.length);
+					Thread.yield();
+				}
+			} catch (IOException e) {
+				throw new AssertionError(e);
+			}
+		});
+		thread.start();
+		producer.put(new byte[3072], 0, 3072);
+		thread.join(10000);
+		Assert.assertFalse(thread.isAlive());
+		Assert.assertFalse(producer.isClosed());
+	}
+
+	@Test
+	public void testStreams() throws IOException, InterruptedException {
+		MappedRing producer = MappedRing.create(file, 256);
+		MappedRing consumer = MappedRing.open(file);
+		Thread thread = new Thread(() -> {
+			try (OutputStream out = producer.getOutputStream();
+					PrintWriter writer = new PrintWriter(out, true, StandardCharsets.UTF_8)) {
+				for (int i = 0; i < 1000; i++) {
+					writer.println("event " + i);
+				}
+			} catch (IOException e) {
+				throw new AssertionError(e);
+			}
+		});
+		thread.start();
+		try (BufferedReader reader = new BufferedReader(
+				new InputStreamReader(consumer.getInputStream(), StandardCharsets.UTF_8))) {
+			for (int i = 0; i < 1000; i++) {
+				Assert.assertEquals("event " + i, reader.readLine());
+			}
+			Assert.assertNull(reader.readLine());
+		}
+		thread.join();
+	}
+
+	@Test
+	public void testTimeout() throws IOException {
+		MappedRing producer = MappedRing.create(file, 64);
+		MappedRing.open(file);
+		producer.setTimeout(100);
+		byte[] record = new byte[8];
+		producer.put(record, 0, record.length);
+		producer.put(record, 0, record.length);
+		long start = System.currentTimeMillis();
+		try {
+			producer.put(record, 0, record.length);
+			Assert.fail();
+		} catch (EOFException e) {
+			Assert.assertTrue(producer.isClosed());
+		}
+		Assert.assertTrue(System.currentTimeMillis() - start < 10000);
+	}
+
+	@Test
+	public void testEndedReader() throws IOException, InterruptedException {
+		MappedRing producer = MappedRing.create(file, 64);
+		Process process = new ProcessBuilder(ProcessHandle.current().info().command().orElse("java"), "-version")
+				.redirectErrorStream(true).redirectOutput(ProcessBuilder.Redirect.DISCARD).start();
+		process.waitFor();
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+			ByteBuffer pid = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN).putLong(0, process.pid());
+			channel.write(pid, 216);
+		}
+		byte[] record = new byte[8];
+		producer.put(record, 0, record.length);
+		producer.put(record, 0, record.length);
+		try {
+			producer.put(record, 0, record.length);
+			Assert.fail();
+		} catch (EOFException e) {
+			Assert.assertTrue(producer.isClosed());
+		}
+	}
+}
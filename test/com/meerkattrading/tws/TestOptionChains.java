@@ -0,0 +1,150 @@
+package com.meerkattrading.tws;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.ib.client.Contract;
+
+public class TestOptionChains {
+	private OptionChains chains;
+	private List<Object[]> snapshots;
+
+	@Before
+	public void setUp() {
+		chains = new OptionChains();
+		snapshots = new ArrayList<>();
+		chains.createChain(1);
+		seed(1, Set.of("20240119", "20240216", "20240315"), Set.of(120.0, 125.0, 130.0, 135.0));
+	}
+
+	@Test
+	public void testSnapshotOfRegisteredOptions() {
+		chains.addTicker(1, 101, option("20240119", 130, "C"));
+		chains.addTicker(1, 102, option("20240216", 135, "P"));
+		Assert.assertTrue(chains.update("tickPrice", new Object[] { 101, 1, 3.1, null }));
+		Assert.assertTrue(chains.update("tickPrice", new Object[] { 102, 2, 4.6, null }));
+		Assert.assertTrue(chains.update("tickOptionComputation",
+				new Object[] { 101, 13, 0, 0.25, 0.62, 3.05, 0.0, 0.04, 0.2, -0.05, 131.0 }));
+		drain(1);
+		Assert.assertEquals(1, snapshots.size());
+		Object[] snapshot = snapshots.get(0);
+		Assert.assertArrayEquals(new String[] { "20240119", "20240216" }, (String[]) snapshot[1]);
+		Assert.assertArrayEquals(new Double[] { 130.0, 135.0 }, (Double[]) snapshot[2]);
+		Map<String, Double[]> calls = calls(snapshot);
+		Map<String, Double[]> puts = puts(snapshot);
+		Assert.assertArrayEquals(new Double[] { 3.1, null, null, null }, calls.get("bid"));
+		Assert.assertArrayEquals(new Double[] { 0.62, null, null, null }, calls.get("delta"));
+		Assert.assertArrayEquals(new Double[] { 131.0, null, null, null }, calls.get("undPrice"));
+		Assert.assertFalse(calls.containsKey("ask"));
+		Assert.assertArrayEquals(new Double[] { null, null, null, 4.6 }, puts.get("ask"));
+		Assert.assertEquals(1, puts.size());
+	}
+
+	@Test
+	public void testDrainOnlyWhenChanged() {
+		chains.addTicker(1, 101, option("20240119", 130, "C"));
+		drain(1);
+		Assert.assertTrue(snapshots.isEmpty());
+		chains.update("tickPrice", new Object[] { 101, 66, 3.1, null });
+		drain(1);
+		drain(1);
+		Assert.assertEquals(1, snapshots.size());
+		Assert.assertArrayEquals(new Double[] { 3.1 }, calls(snapshots.get(0)).get("bid"));
+		chains.update("tickPrice", new Object[] { 101, 2, Double.MAX_VALUE, null });
+		drain(1);
+		Assert.assertEquals(2, snapshots.size());
+		Assert.assertFalse(calls(snapshots.get(1)).containsKey("ask"));
+	}
+
+	@Test
+	public void testRejectsOptionsNotInChain() {
+		assertRejected(1, 101, option("20240119", 127.5, "C"));
+		assertRejected(1, 101, option("20240412", 130, "C"));
+		assertRejected(1, 101, option("20240119", 130, ""));
+		assertRejected(2, 101, option("20240119", 130, "C"));
+		chains.addTicker(1, 101, option("20240119", 130, "C"));
+		assertRejected(1, 101, option("20240119", 130, "P"));
+	}
+
+	@Test
+	public void testSeedStopsAtFirstTicker() {
+		chains.addTicker(1, 101, option("20240119", 130, "C"));
+		seed(1, Set.of("20240412"), Set.of(140.0));
+		assertRejected(1, 102, option("20240412", 140, "C"));
+	}
+
+	@Test
+	public void testTakesTicksOfChainTickers() {
+		chains.addTicker(1, 101, option("20240119", 130, "C"));
+		Assert.assertTrue(chains.update("tickSize", new Object[] { 101, 0, null }));
+		Assert.assertTrue(chains.update("tickReqParams", new Object[] { 101, 0.01, "", 0 }));
+		Assert.assertFalse(chains.update("tickPrice", new Object[] { 201, 1, 3.1, null }));
+		Assert.assertFalse(chains.update("tickSize", new Object[] { 201, 0, null }));
+	}
+
+	@Test
+	public void testRemoveChain() {
+		chains.addTicker(1, 101, option("20240119", 130, "C"));
+		chains.addTicker(1, 102, option("20240119", 130, "P"));
+		int[] tickerIds = chains.removeChain(1);
+		Arrays.sort(tickerIds);
+		Assert.assertArrayEquals(new int[] { 101, 102 }, tickerIds);
+		Assert.assertFalse(chains.update("tickPrice", new Object[] { 101, 1, 3.1, null }));
+		Assert.assertEquals(0, chains.removeChain(1).length);
+		drain(1);
+		Assert.assertTrue(snapshots.isEmpty());
+		chains.createChain(1);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testChainInUse() {
+		chains.createChain(1);
+	}
+
+	private void seed(int reqId, Set<String> expirations, Set<Double> strikes) {
+		chains.update("securityDefinitionOptionalParameter",
+				new Object[] { reqId, "SMART", 8314, "IBM", "100", expirations, strikes });
+	}
+
+	private void drain(int chainId) {
+		chains.drainChanged(chainId, (id, expirations, strikes, calls, puts) -> {
+			snapshots.add(new Object[] { id, expirations, strikes, calls, puts });
+		});
+	}
+
+	@SuppressWarnings("unchecked")
+	private Map<String, Double[]> calls(Object[] snapshot) {
+		return (Map<String, Double[]>) snapshot[3];
+	}
+
+	@SuppressWarnings("unchecked")
+	private Map<String, Double[]> puts(Object[] snapshot) {
+		return (Map<String, Double[]>) snapshot[4];
+	}
+
+	private void assertRejected(int chainId, int tickerId, Contract contract) {
+		try {
+			chains.addTicker(chainId, tickerId, contract);
+			Assert.fail();
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	private Contract option(String expiration, double strike, String right) {
+		Contract contract = new Contract();
+		contract.symbol("IBM");
+		contract.secType("OPT");
+		contract.lastTradeDateOrContractMonth(expiration);
+		contract.strike(strike);
+		contract.right(right);
+		return contract;
+	}
+}
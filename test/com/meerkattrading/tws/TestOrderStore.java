@@ -0,0 +1,140 @@
+package com.meerkattrading.tws;
+
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.ib.client.Contract;
+import com.ib.client.Decimal;
+import com.ib.client.Order;
+import com.ib.client.OrderState;
+
+public class TestOrderStore {
+	private OrderStore store;
+
+	@Before
+	public void setUp() {
+		store = new OrderStore(2);
+	}
+
+	@Test
+	public void testOpenOrderAndStatus() {
+		store.openOrder(5, contract("IBM"), order(5, 0, 1, "ref1"), state("PreSubmitted"));
+		store.orderStatus(5, "Submitted", Decimal.get(40), Decimal.get(60), 130.5, 7001, 0, 130.75, 1, null);
+		List<OrderStore.Entry> found = store.find(5, null, 1, null);
+		Assert.assertEquals(1, found.size());
+		OrderStore.Entry entry = found.get(0);
+		Assert.assertEquals(7001, entry.getPermId());
+		Assert.assertEquals("Submitted", entry.getStatus());
+		Assert.assertEquals("40", entry.getFilled().toString());
+		Assert.assertEquals("60", entry.getRemaining().toString());
+		Assert.assertEquals(130.5, entry.getAvgFillPrice(), 0);
+		Assert.assertEquals(130.75, entry.getLastFillPrice(), 0);
+		Assert.assertEquals("IBM", entry.getContract().symbol());
+		Assert.assertEquals("ref1", entry.getOrderRef());
+		Assert.assertFalse(entry.isDone());
+		Assert.assertEquals(1, store.find(null, 7001L, null, null).size());
+	}
+
+	@Test
+	public void testUpdateEvents() {
+		store.update("openOrder", new Object[] { 5, contract("IBM"), order(5, 7001, 1, null), state("Submitted") });
+		store.update("orderStatus", new Object[] { 5, "Filled", Decimal.get(100), Decimal.get(0), 130.5, 7001L, 0,
+				130.5, 1, null, 0.0 });
+		OrderStore.Entry entry = store.find(null, 7001L, null, null).get(0);
+		Assert.assertEquals("Filled", entry.getStatus());
+		Assert.assertTrue(entry.isDone());
+	}
+
+	@Test
+	public void testReusedOrderId() {
+		store.completedOrder(contract("IBM"), order(5, 7001, 1, null), state("Filled"));
+		store.openOrder(5, contract("MSFT"), order(5, 7002, 1, null), state("Submitted"));
+		Assert.assertEquals("IBM", store.find(null, 7001L, null, null).get(0).getContract().symbol());
+		Assert.assertEquals("MSFT", store.find(null, 7002L, null, null).get(0).getContract().symbol());
+		Assert.assertEquals("Filled", store.find(null, 7001L, null, null).get(0).getStatus());
+		Assert.assertEquals(7002, store.find(5, null, 1, null).get(0).getPermId());
+		Assert.assertEquals(2, store.find(null, null, null, null).size());
+	}
+
+	@Test
+	public void testStatusWithoutPermId() {
+		store.orderStatus(5, "PendingSubmit", null, null, 0, 0, 0, 0, 1, null);
+		store.openOrder(5, contract("IBM"), order(5, 7001, 1, null), state("Submitted"));
+		List<OrderStore.Entry> found = store.find(null, null, null, null);
+		Assert.assertEquals(1, found.size());
+		Assert.assertEquals(7001, found.get(0).getPermId());
+		Assert.assertEquals("Submitted", found.get(0).getStatus());
+	}
+
+	@Test
+	public void testEvictsOldestDone() {
+		store.openOrder(1, contract("IBM"), order(1, 7001, 1, "a"), state("Submitted"));
+		for (int orderId = 2; orderId <= 4; orderId++) {
+			store.openOrder(orderId, contract("IBM"), order(orderId, 7000 + orderId, 1, "a"), state("Submitted"));
+			store.orderStatus(orderId, "Cancelled", Decimal.get(0), Decimal.get(100), 0, 7000 + orderId, 0, 0, 1,
+					null);
+		}
+		Assert.assertTrue(store.find(null, 7002L, null, null).isEmpty());
+		Assert.assertTrue(store.find(2, null, 1, null).isEmpty());
+		Assert.assertEquals(1, store.find(null, 7001L, null, null).size());
+		Assert.assertEquals(1, store.find(null, 7003L, null, null).size());
+		Assert.assertEquals(1, store.find(null, 7004L, null, null).size());
+		Assert.assertEquals(3, store.find(null, null, null, "a").size());
+	}
+
+	@Test
+	public void testFindByOrderRef() {
+		store.openOrder(1, contract("IBM"), order(1, 7001, 1, "a"), state("Submitted"));
+		store.openOrder(2, contract("IBM"), order(2, 7002, 2, "a"), state("Submitted"));
+		store.openOrder(3, contract("IBM"), order(3, 7003, 1, "b"), state("Submitted"));
+		store.openOrder(1, contract("IBM"), order(1, 7001, 1, "c"), state("Submitted"));
+		Assert.assertEquals(1, store.find(null, null, null, "a").size());
+		Assert.assertEquals(7002, store.find(null, null, 2, "a").get(0).getPermId());
+		Assert.assertTrue(store.find(null, null, 1, "a").isEmpty());
+		Assert.assertEquals(7001, store.find(null, null, null, "c").get(0).getPermId());
+		Assert.assertTrue(store.find(3, 7001L, null, null).isEmpty());
+	}
+
+	@Test
+	public void testFindReturnsCopies() {
+		store.openOrder(1, contract("IBM"), order(1, 7001, 1, null), state("Submitted"));
+		OrderStore.Entry entry = store.find(null, 7001L, null, null).get(0);
+		store.orderStatus(1, "Filled", Decimal.get(100), Decimal.get(0), 130, 7001, 0, 130, 1, null);
+		Assert.assertEquals("Submitted", entry.getStatus());
+		Assert.assertEquals("Filled", store.find(null, 7001L, null, null).get(0).getStatus());
+	}
+
+	@Test
+	public void testClear() {
+		store.openOrder(1, contract("IBM"), order(1, 7001, 1, "a"), state("Submitted"));
+		store.clear();
+		Assert.assertTrue(store.find(null, null, null, null).isEmpty());
+		Assert.assertTrue(store.find(null, 7001L, null, null).isEmpty());
+		Assert.assertTrue(store.find(null, null, null, "a").isEmpty());
+	}
+
+	private Contract contract(String symbol) {
+		Contract contract = new Contract();
+		contract.symbol(symbol);
+		contract.secType("STK");
+		return contract;
+	}
+
+	private Order order(int orderId, long permId, int clientId, String orderRef) {
+		Order order = new Order();
+		order.orderId(orderId);
+		order.permId(permId);
+		order.clientId(clientId);
+		order.orderRef(orderRef);
+		return order;
+	}
+
+	private OrderState state(String status) {
+		OrderState state = new OrderState();
+		state.status(status);
+		return state;
+	}
+}
@@ -0,0 +1,119 @@
+package com.meerkattrading.tws;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.ib.client.EWrapper;
+
+public class TestResponseCache {
+	private final List<String> replayed = new ArrayList<>();
+	private ResponseCache cache;
+	private long now = 1000000;
+
+	@Before
+	public void setUp() {
+		cache = new ResponseCache(60000, 2) {
+
+			@Override
+			protected long currentTimeMillis() {
+				return now;
+			}
+		};
+		cache.setWrapper((EWrapper) Proxy.newProxyInstance(EWrapper.class.getClassLoader(),
+				new Class<?>[] { EWrapper.class }, (proxy, method, args) -> {
+					replayed.add(args[0] + " " + method.getName());
+					return null;
+				}));
+	}
+
+	@Test
+	public void testReplaysKeptResponse() {
+		Assert.assertTrue(cache.request("reqSecDefOptParams:IBM", 1));
+		respond(1);
+		Assert.assertTrue(replayed.isEmpty());
+		Assert.assertFalse(cache.request("reqSecDefOptParams:IBM", 2));
+		Assert.assertEquals(Arrays.asList("2 securityDefinitionOptionalParameter",
+				"2 securityDefinitionOptionalParameter", "2 securityDefinitionOptionalParameterEnd"), replayed);
+		Assert.assertTrue(cache.request("reqSecDefOptParams:MSFT", 3));
+	}
+
+	@Test
+	public void testWaitsForRequestInFlight() {
+		Assert.assertTrue(cache.request("reqSecDefOptParams:IBM", 1));
+		Assert.assertFalse(cache.request("reqSecDefOptParams:IBM", 2));
+		Assert.assertFalse(cache.request("reqSecDefOptParams:IBM", 3));
+		event("securityDefinitionOptionalParameter", 1, "SMART", 8314, "IBM", "100", Set.of(), Set.of());
+		event("securityDefinitionOptionalParameter", 1, "CBOE", 8314, "IBM", "100", Set.of(), Set.of());
+		Assert.assertTrue(replayed.isEmpty());
+		Assert.assertFalse(cache.update("securityDefinitionOptionalParameterEnd", new Object[] { 1 }));
+		Assert.assertTrue(replayed.isEmpty());
+		cache.afterUpdate("securityDefinitionOptionalParameterEnd", new Object[] { 1 });
+		Assert.assertEquals(6, replayed.size());
+		Assert.assertEquals("2 securityDefinitionOptionalParameterEnd", replayed.get(2));
+		Assert.assertEquals("3 securityDefinitionOptionalParameterEnd", replayed.get(5));
+	}
+
+	@Test
+	public void testExpires() {
+		cache.request("reqMatchingSymbols:IB", 1);
+		event("symbolSamples", 1, null);
+		now += 59999;
+		Assert.assertFalse(cache.request("reqMatchingSymbols:IB", 2));
+		Assert.assertEquals(Arrays.asList("2 symbolSamples"), replayed);
+		now += 1;
+		Assert.assertTrue(cache.request("reqMatchingSymbols:IB", 3));
+	}
+
+	@Test
+	public void testNotKeptWithoutTimeToLive() {
+		cache.setTimeToLive(0, 2);
+		cache.request("reqMatchingSymbols:IB", 1);
+		event("symbolSamples", 1, null);
+		Assert.assertTrue(cache.request("reqMatchingSymbols:IB", 2));
+	}
+
+	@Test
+	public void testEvictsLeastRecentlyUsed() {
+		for (int reqId = 1; reqId <= 3; reqId++) {
+			cache.request("reqMatchingSymbols:" + reqId, reqId);
+			event("symbolSamples", reqId, null);
+		}
+		Assert.assertTrue(cache.request("reqMatchingSymbols:1", 11));
+		Assert.assertFalse(cache.request("reqMatchingSymbols:3", 13));
+	}
+
+	@Test
+	public void testErrorPassedToWaitingRequests() {
+		cache.request("reqSecDefOptParams:IBM", 1);
+		cache.request("reqSecDefOptParams:IBM", 2);
+		cache.request("reqSecDefOptParams:IBM", 3);
+		event("error", 1, 0L, 2104, "Market data farm connection is OK", "");
+		Assert.assertTrue(replayed.isEmpty());
+		event("error", 1, 0L, 200, "No security definition has been found", "");
+		Assert.assertEquals(Arrays.asList("2 error", "3 error"), replayed);
+		Assert.assertTrue(cache.request("reqSecDefOptParams:IBM", 4));
+	}
+
+	private void respond(int reqId) {
+		event("securityDefinitionOptionalParameter", reqId, "SMART", 8314, "IBM", "100", Set.of("20240119"),
+				Set.of(130.0));
+		event("securityDefinitionOptionalParameter", reqId, "CBOE", 8314, "IBM", "100", Set.of("20240119"),
+				Set.of(130.0));
+		event("securityDefinitionOptionalParameterEnd", reqId);
+	}
+
+	/**
+	 * Passes the event to the cache the way EWrapperHandler does
+	 */
+	private void event(String name, Object... args) {
+		Assert.assertFalse(cache.update(name, args));
+		cache.afterUpdate(name, args);
+	}
+}
@@ -0,0 +1,169 @@
+package com.meerkattrading.tws;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestWebSocket {
+	private static final String KEY = "dGhlIHNhbXBsZSBub25jZQ==";
+	private ServerSocket server;
+	private Socket client;
+	private WebSocket ws;
+
+	@Before
+	public void setUp() throws IOException {
+		server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+		client = new Socket(server.getInetAddress(), server.getLocalPort());
+		ws = new WebSocket(server.accept());
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		ws.close();
+		client.close();
+		server.close();
+	}
+
+	@Test
+	public void testTextMessage() throws IOException {
+		request("");
+		client.getOutputStream().write(frame(0x81, "isConnected".getBytes(StandardCharsets.UTF_8)));
+		BufferedReader reader = new BufferedReader(new InputStreamReader(ws.getInputStream(), StandardCharsets.UTF_8));
+		Assert.assertEquals("isConnected", reader.readLine());
+		String response = readResponse();
+		Assert.assertTrue(response, response.contains("Sec-WebSocket-Accept: s3pPLMBiTxaQ9kYGzzhZRbK+xOo=\r\n"));
+		Assert.assertFalse(response, response.contains("permessage-deflate"));
+		OutputStream out = ws.getOutputStream();
+		out.write("isConnected\tfalse\n".getBytes(StandardCharsets.UTF_8));
+		out.flush();
+		DataInputStream in = new DataInputStream(client.getInputStream());
+		Assert.assertEquals(0x81, in.readUnsignedByte());
+		Assert.assertEquals(17, in.readUnsignedByte());
+		Assert.assertEquals("isConnected\tfalse", new String(in.readNBytes(17), StandardCharsets.UTF_8));
+	}
+
+	@Test
+	public void testDeflate() throws IOException, DataFormatException {
+		request("Sec-WebSocket-Extensions: permessage-deflate; client_max_window_bits\r\n");
+		String line = "contractDetails\t1\t" + "{\"symbol\":\"IBM\",\"secType\":\"STK\"}".repeat(20);
+		Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+		deflater.setInput(line.getBytes(StandardCharsets.UTF_8));
+		byte[] buf = new byte[1024];
+		int n = deflater.deflate(buf, 0, buf.length, Deflater.SYNC_FLUSH);
+		client.getOutputStream().write(frame(0xC1, Arrays.copyOf(buf, n - 4)));
+		BufferedReader reader = new BufferedReader(new InputStreamReader(ws.getInputStream(), StandardCharsets.UTF_8));
+		Assert.assertEquals(line, reader.readLine());
+		String response = readResponse();
+		Assert.assertTrue(response, response.contains("Sec-WebSocket-Extensions: permessage-deflate\r\n"));
+		OutputStream out = ws.getOutputStream();
+		out.write((line + "\n").getBytes(StandardCharsets.UTF_8));
+		out.flush();
+		DataInputStream in = new DataInputStream(client.getInputStream());
+		Assert.assertEquals(0xC1, in.readUnsignedByte());
+		int len = in.readUnsignedByte();
+		Assert.assertTrue(len < line.length());
+		byte[] payload = in.readNBytes(len);
+		Inflater inflater = new Inflater(true);
+		inflater.setInput(concat(payload, new byte[] { 0, 0, (byte) 0xFF, (byte) 0xFF }));
+		byte[] inflated = new byte[1024];
+		int size = inflater.inflate(inflated);
+		Assert.assertEquals(line, new String(inflated, 0, size, StandardCharsets.UTF_8));
+	}
+
+	@Test
+	public void testBinaryMessage() throws IOException {
+		request("");
+		WebSocket.MessageOutputStream out = ws.getOutputStream();
+		out.setBinary(true);
+		byte[] cbor = { (byte) 0x82, 0x6B, 'n', 'e', 'x', 't', 'V', 'a', 'l', 'i', 'd', 'I', 'd', 0x0A };
+		out.write(cbor);
+		out.flush();
+		readResponse();
+		DataInputStream in = new DataInputStream(client.getInputStream());
+		Assert.assertEquals(0x82, in.readUnsignedByte());
+		Assert.assertEquals(cbor.length, in.readUnsignedByte());
+		Assert.assertArrayEquals(cbor, in.readNBytes(cbor.length));
+		out.setBinary(false);
+		out.write("isConnected\tfalse\nisConn".getBytes(StandardCharsets.UTF_8));
+		out.flush();
+		Assert.assertEquals(0x81, in.readUnsignedByte());
+		Assert.assertEquals(17, in.readUnsignedByte());
+		Assert.assertEquals("isConnected\tfalse", new String(in.readNBytes(17), StandardCharsets.UTF_8));
+		Assert.assertEquals(0, in.available());
+	}
+
+	@Test
+	public void testPingAndClose() throws IOException {
+		request("");
+		OutputStream out = client.getOutputStream();
+		out.write(frame(0x89, "ping".getBytes(StandardCharsets.UTF_8)));
+		out.write(frame(0x88, new byte[] { 0x03, (byte) 0xE8 }));
+		InputStream input = ws.getInputStream();
+		Assert.assertEquals(-1, input.read());
+		Assert.assertEquals(-1, input.read());
+		Assert.assertEquals(-1, input.read(new byte[8], 0, 8));
+		readResponse();
+		DataInputStream in = new DataInputStream(client.getInputStream());
+		Assert.assertEquals(0x8A, in.readUnsignedByte());
+		Assert.assertEquals(4, in.readUnsignedByte());
+		Assert.assertEquals("ping", new String(in.readNBytes(4), StandardCharsets.UTF_8));
+		Assert.assertEquals(0x88, in.readUnsignedByte());
+		Assert.assertEquals(2, in.readUnsignedByte());
+	}
+
+	private void request(String extensions) throws IOException {
+		client.getOutputStream().write(("GET / HTTP/1.1\r\nHost: localhost\r\nUpgrade: websocket\r\n"
+				+ "Connection: Upgrade\r\nSec-WebSocket-Key: " + KEY + "\r\nSec-WebSocket-Version: 13\r\n" + extensions
+				+ "\r\n").getBytes(StandardCharsets.ISO_8859_1));
+	}
+
+	private String readResponse() throws IOException {
+		ByteArrayOutputStream response = new ByteArrayOutputStream();
+		InputStream in = client.getInputStream();
+		while (!response.toString(StandardCharsets.ISO_8859_1).endsWith("\r\n\r\n")) {
+			response.write(in.read());
+		}
+		return response.toString(StandardCharsets.ISO_8859_1);
+	}
+
+	private static byte[] frame(int b0, byte[] payload) {
+		byte[] mask = { 1, 2, 3, 4 };
+		ByteArrayOutputStream frame = new ByteArrayOutputStream();
+		frame.write(b0);
+		if (payload.length < 126) {
+			frame.write(0x80 | payload.length);
+		} else {
+			frame.write(0x80 | 126);
+			frame.write(payload.length >>> 8);
+			frame.write(payload.length);
+		}
+		frame.writeBytes(mask);
+		for (int i = 0; i < payload.length; i++) {
+			frame.write(payload[i] ^ mask[i & 3]);
+		}
+		return frame.toByteArray();
+	}
+
+	private static byte[] concat(byte[] a, byte[] b) {
+		byte[] result = Arrays.copyOf(a, a.length + b.length);
+		System.arraycopy(b, 0, result, a.length, b.length);
+		return result;
+	}
+}